@@ -21,6 +21,17 @@ public interface BackupProgressCallback {
      */
     default void onProgress(int processedFiles, int totalFiles) {}
 
+    /**
+     * 按字节的进度更新：使用外部 7zr 时由其输出换算得到。
+     * 默认不做任何事。
+     *
+     * @param processedBytes   已处理的字节数
+     * @param totalBytes       总字节数
+     * @param bytesPerSecond   平均吞吐量（字节/秒）
+     * @param remainingSeconds 预计剩余秒数，无法估计时为 -1
+     */
+    default void onProgress(long processedBytes, long totalBytes, double bytesPerSecond, long remainingSeconds) {}
+
     /**
      * 当整个备份任务完成时调用
      */
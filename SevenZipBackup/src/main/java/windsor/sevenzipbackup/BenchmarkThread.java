@@ -0,0 +1,145 @@
+package windsor.sevenzipbackup;
+
+import org.bukkit.command.CommandSender;
+import windsor.sevenzipbackup.UploadThread.UploadLogger;
+import windsor.sevenzipbackup.config.ConfigParser;
+import windsor.sevenzipbackup.config.configSections.BackupList.BackupListEntry;
+import windsor.sevenzipbackup.config.configSections.BackupList.BackupListEntry.Engine;
+import windsor.sevenzipbackup.util.ArchiveEngine;
+import windsor.sevenzipbackup.util.CoreBudget;
+import windsor.sevenzipbackup.util.FileUtil;
+import windsor.sevenzipbackup.util.FileUtil.BackupFileList;
+import windsor.sevenzipbackup.util.MessageUtil;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static windsor.sevenzipbackup.config.Localization.intl;
+
+/**
+ * 用服务器自己的数据比较各压缩引擎。
+ * <p>
+ * 对每个备份位置按其备份策略扫描一次，然后依次用每个引擎压缩到临时文件夹，报告耗时、大小与吞吐量。
+ * 测速不写入扫描清单，也不影响备份链；压缩文件在测速后删除。
+ */
+public class BenchmarkThread implements Runnable {
+    private static final Engine[] ENGINES = {Engine.SEVEN_ZIP, Engine.JAVA};
+
+    private final UploadLogger logger;
+    private final String[] args;
+
+    /**
+     * Creates an instance of the {@code BenchmarkThread} object
+     * @param initiator the player who initiated the benchmark
+     * @param args any arguments that followed the command that initiated the benchmark
+     */
+    public BenchmarkThread(CommandSender initiator, String[] args) {
+        logger = new UploadLogger() {
+            @Override
+            public void log(String input, String... placeholders) {
+                MessageUtil.Builder()
+                    .mmText(input, placeholders)
+                    .to(initiator)
+                    .send();
+            }
+
+            @Override
+            public void initiatorError(String input, String... placeholders) {
+                MessageUtil.Builder()
+                    .mmText(input, placeholders)
+                    .to(initiator)
+                    .toConsole(false)
+                    .send();
+            }
+        };
+
+        this.args = args;
+    }
+
+    /**
+     * Benchmarks every engine on all backup locations, or on the specified location
+     */
+    @Override
+    public void run() {
+        if (UploadThread.isBackupRunning()) {
+            logger.initiatorError(intl("backup-already-running"), "backup-status", UploadThread.getBackupStatus());
+            return;
+        }
+
+        List<Map.Entry<BackupListEntry, Path>> locations = new ArrayList<>();
+        for (BackupListEntry entry : ConfigParser.getConfig().backupList.list) {
+            if (!entry.create) continue;
+            for (Path folder : entry.location.getPaths()) {
+                if (args.length < 2 || folder.toString().equals(args[1])) {
+                    locations.add(new AbstractMap.SimpleImmutableEntry<>(entry, folder));
+                }
+            }
+        }
+        if (locations.isEmpty()) {
+            logger.initiatorError(intl("benchmark-location-not-found"), "location", args.length < 2 ? "" : args[1]);
+            return;
+        }
+
+        logger.log(intl("benchmark-start"), "location-count", String.valueOf(locations.size()));
+        FileUtil fileUtil = new FileUtil(logger);
+        Path tempFolder = null;
+        try {
+            tempFolder = Files.createTempDirectory("7zbench_");
+            for (Map.Entry<BackupListEntry, Path> location : locations) {
+                benchmarkLocation(fileUtil, location.getKey(), location.getValue().toString(), tempFolder);
+            }
+            logger.log(intl("benchmark-complete"));
+        } catch (Exception exception) {
+            logger.log(intl("benchmark-failed"));
+            MessageUtil.sendConsoleException(exception);
+        } finally {
+            if (tempFolder != null) {
+                FileUtil.deleteFolder(tempFolder.toFile());
+            }
+        }
+    }
+
+    /**
+     * 扫描一个位置，依次用每个引擎压缩并报告结果
+     */
+    private void benchmarkLocation(FileUtil fileUtil, BackupListEntry entry, String location, Path tempFolder) throws Exception {
+        BackupFileList fileList = fileUtil.prepareFileList(location, Arrays.asList(entry.blacklist), null);
+        long totalBytes = fileList.getTotalSize();
+        for (Engine type : ENGINES) {
+            ArchiveEngine engine = ArchiveEngine.create(type, logger);
+            // 测速时一次只运行一个引擎，7zr 可以使用全部压缩核心
+            CoreBudget coreBudget = new CoreBudget(FileUtil.getCompressionCores(), 1, 1);
+            Integer maxThreads = type == Engine.JAVA ? Integer.valueOf(1) : entry.compression.threads;
+            CoreBudget.Slice cores = coreBudget.acquire(coreBudget.register(totalBytes), maxThreads == null ? 0 : maxThreads);
+            File output = tempFolder.resolve(engine.getName() + ".7z").toFile();
+            long start = System.nanoTime();
+            UploadThread.runningEngines.add(engine);
+            try {
+                engine.compress(ArchiveEngine.Job.of(location, output.getPath(), fileList, entry.compression, cores), null);
+                double seconds = Math.max(0.001, (System.nanoTime() - start) / 1e9);
+                long size = output.length();
+                logger.log(intl("benchmark-result"),
+                    "location", location,
+                    "engine", engine.getName(),
+                    "threads", String.valueOf(cores.getThreads()),
+                    "time", String.format("%.2f", seconds),
+                    "size", String.format("%.2f", size / (1024.0 * 1024.0)),
+                    "ratio", String.format("%.1f", totalBytes == 0 ? 100.0 : size * 100.0 / totalBytes),
+                    "speed", String.format("%.1f", totalBytes / (1024.0 * 1024.0) / seconds));
+            } catch (Exception exception) {
+                logger.log(intl("benchmark-engine-failed"), "location", location, "engine", engine.getName());
+                MessageUtil.sendConsoleException(exception);
+            } finally {
+                UploadThread.runningEngines.remove(engine);
+                coreBudget.release(cores);
+                Files.deleteIfExists(output.toPath());
+            }
+        }
+    }
+}
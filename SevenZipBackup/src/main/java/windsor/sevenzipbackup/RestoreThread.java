@@ -0,0 +1,108 @@
+package windsor.sevenzipbackup;
+
+import org.bukkit.command.CommandSender;
+import windsor.sevenzipbackup.UploadThread.UploadLogger;
+import windsor.sevenzipbackup.util.ChunkRepository;
+import windsor.sevenzipbackup.util.MessageUtil;
+import windsor.sevenzipbackup.util.Timer;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static windsor.sevenzipbackup.config.Localization.intl;
+
+/**
+ * 从去重仓库的快照还原备份位置。
+ * <p>
+ * 快照被还原到仓库旁的 {@code restore} 文件夹中，而不是直接覆盖正在使用的世界或插件文件夹，
+ * 由管理员在关闭服务器后替换。
+ */
+public class RestoreThread implements Runnable {
+    private static final String RESTORE_FOLDER = "restore";
+
+    private final UploadLogger logger;
+    private final String[] args;
+
+    /**
+     * Creates an instance of the {@code RestoreThread} object
+     * @param initiator the player who initiated the restore
+     * @param args any arguments that followed the command that initiated the restore
+     */
+    public RestoreThread(CommandSender initiator, String[] args) {
+        logger = new UploadLogger() {
+            @Override
+            public void log(String input, String... placeholders) {
+                MessageUtil.Builder()
+                    .mmText(input, placeholders)
+                    .to(initiator)
+                    .send();
+            }
+
+            @Override
+            public void initiatorError(String input, String... placeholders) {
+                MessageUtil.Builder()
+                    .mmText(input, placeholders)
+                    .to(initiator)
+                    .toConsole(false)
+                    .send();
+            }
+        };
+
+        this.args = args;
+    }
+
+    /**
+     * Lists the snapshots of a location, or restores the specified snapshot
+     */
+    @Override
+    public void run() {
+        if (args.length < 2) {
+            logger.initiatorError(intl("restore-usage"),
+                "locations", String.join(", ", ChunkRepository.findRepositoryLocations()));
+            return;
+        }
+
+        String location = args[1];
+        ChunkRepository repository = ChunkRepository.forLocation(logger, location);
+        if (!repository.exists()) {
+            logger.initiatorError(intl("restore-repository-not-found"), "location", location);
+            return;
+        }
+        List<String> snapshots = repository.listSnapshots();
+        if (args.length < 3) {
+            logger.initiatorError(intl("restore-snapshot-list"),
+                "location", location,
+                "snapshots", String.join(", ", snapshots));
+            return;
+        }
+
+        String snapshot = args[2];
+        if (!snapshots.contains(snapshot)) {
+            logger.initiatorError(intl("restore-snapshot-not-found"),
+                "location", location,
+                "snapshot", snapshot);
+            return;
+        }
+        Path target = repository.getDirectory().resolveSibling(RESTORE_FOLDER).resolve(snapshot);
+        String[] existing = target.toFile().list();
+        if (existing != null && existing.length > 0) {
+            logger.initiatorError(intl("restore-target-exists"), "path", target.toString());
+            return;
+        }
+
+        logger.log(intl("restore-start"), "snapshot", snapshot, "path", target.toString());
+        Timer timer = new Timer();
+        timer.start();
+        try {
+            int fileCount = repository.restore(snapshot, target);
+            timer.end();
+            logger.log(intl("restore-complete"),
+                "file-count", String.valueOf(fileCount),
+                "path", target.toAbsolutePath().toString(),
+                "time", String.valueOf(timer.getTime() / 1000));
+        } catch (Exception exception) {
+            logger.log(intl("restore-failed"));
+            MessageUtil.sendConsoleException(exception);
+        }
+    }
+}
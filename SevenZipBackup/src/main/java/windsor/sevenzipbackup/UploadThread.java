@@ -13,7 +13,10 @@ import org.jetbrains.annotations.Nullable;
 import windsor.sevenzipbackup.config.ConfigParser;
 import windsor.sevenzipbackup.config.ConfigParser.Config;
 import windsor.sevenzipbackup.config.configSections.BackupList.BackupListEntry;
+import windsor.sevenzipbackup.config.configSections.BackupList.BackupListEntry.Compression;
+import windsor.sevenzipbackup.config.configSections.BackupList.BackupListEntry.Engine;
 import windsor.sevenzipbackup.config.configSections.BackupList.BackupListEntry.PathBackupLocation;
+import windsor.sevenzipbackup.config.configSections.BackupList.BackupListEntry.Storage;
 import windsor.sevenzipbackup.config.configSections.ExternalBackups.ExternalBackupSource;
 import windsor.sevenzipbackup.config.configSections.ExternalBackups.ExternalFTPSource;
 import windsor.sevenzipbackup.config.configSections.ExternalBackups.ExternalFTPSource.ExternalBackupListEntry;
@@ -27,12 +30,20 @@ import windsor.sevenzipbackup.uploaders.Authenticator.AuthenticationProvider;
 import windsor.sevenzipbackup.uploaders.Uploader;
 import windsor.sevenzipbackup.uploaders.ftp.FTPUploader;
 import windsor.sevenzipbackup.uploaders.mysql.MySQLUploader;
+import windsor.sevenzipbackup.util.ArchiveEngine;
+import windsor.sevenzipbackup.util.AutosaveRelease;
+import windsor.sevenzipbackup.util.BackupChain;
 import windsor.sevenzipbackup.util.BlacklistEntry;
+import windsor.sevenzipbackup.util.ChunkRepository;
+import windsor.sevenzipbackup.util.CoreBudget;
 import windsor.sevenzipbackup.util.FileUtil;
 import windsor.sevenzipbackup.util.LocalDateTimeFormatter;
+import windsor.sevenzipbackup.util.LocationSnapshot;
 import windsor.sevenzipbackup.util.Logger;
 import windsor.sevenzipbackup.util.MessageUtil;
 import windsor.sevenzipbackup.util.ServerUtil;
+import windsor.sevenzipbackup.util.TaskHistory;
+import windsor.sevenzipbackup.util.TickGovernor;
 import windsor.sevenzipbackup.util.Timer;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -40,6 +51,7 @@ import java.util.concurrent.Future;
 import windsor.sevenzipbackup.util.FileUtil.BackupFileList;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
@@ -51,16 +63,20 @@ import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.TreeMap;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static windsor.sevenzipbackup.config.Localization.intl;
 
@@ -78,13 +94,28 @@ public class UploadThread implements Runnable {
     private static int totalBackupTasks = 0;
     private static final AtomicInteger completedBackupTasks = new AtomicInteger(0);
     private static final ConcurrentHashMap<String, TaskProgress> taskProgressMap = new ConcurrentHashMap<>();
+    /**
+     * 正在压缩的引擎，插件停用时中止它们，避免留下孤立的 7zr 进程
+     */
+    static final Set<ArchiveEngine> runningEngines = ConcurrentHashMap.newKeySet();
+    /**
+     * 本次备份压缩阶段的 MSPT 调节器
+     */
+    private static volatile TickGovernor tickGovernor;
 
     private static class TaskProgress {
         volatile int total;
         final AtomicInteger processed;
-        TaskProgress(int total) {
+        /**
+         * 按字节的进度，由 7zr 的输出换算得到；吞吐量为 0 表示该任务没有正在运行的 7zr
+         */
+        volatile long totalBytes;
+        volatile long processedBytes;
+        volatile double bytesPerSecond;
+        TaskProgress(int total, long totalBytes) {
             this.total = total;
             this.processed = new AtomicInteger(0);
+            this.totalBytes = totalBytes;
         }
         void setTotal(int newTotal) {
             this.total = newTotal;
@@ -107,9 +138,26 @@ public class UploadThread implements Runnable {
         UPLOADING
     }
 
+    /**
+     * 排队等待超过该时长的任务，在压缩前重新检查已收集的文件是否仍然存在
+     */
+    private static final long STALE_SCAN_MILLIS = 60_000;
+
     private ArrayList<Uploader> uploaders;
+    /**
+     * 分卷压缩时逐个上传已写完的分卷，与压缩同时进行
+     */
+    private ExecutorService volumeUploader;
+    /**
+     * 本次备份中每个备份位置已被所有上传方式成功上传的分卷，上传阶段不再重复上传
+     */
+    private final ConcurrentHashMap<String, Set<File>> uploadedVolumes = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, LocalDateTimeFormatter> locationsToBePruned = new ConcurrentHashMap<>(10);
     private List<BackupListEntry> backupList;
+    /**
+     * 本次备份中每个备份策略展开后的文件夹，每次运行只展开一次
+     */
+    private final Map<BackupListEntry, List<Path>> locationPaths = new LinkedHashMap<>();
     private static BackupStatus backupStatus = BackupStatus.NOT_RUNNING;
     private static LocalDateTime nextIntervalBackupTime;
     private static boolean lastBackupSuccessful = true;
@@ -202,12 +250,28 @@ public class UploadThread implements Runnable {
             if (backupBossBar == null) return;
             int totalFiles = totalFilesToBackup.get();
             int processedFiles = totalFilesProcessed.get();
+            // 汇总各任务的字节进度，正在运行的 7zr 的吞吐量之和即为总速度
+            long totalBytes = 0;
+            long processedBytes = 0;
+            double bytesPerSecond = 0;
+            for (TaskProgress tp : taskProgressMap.values()) {
+                totalBytes += tp.totalBytes;
+                processedBytes += Math.min(tp.processedBytes, tp.totalBytes);
+                bytesPerSecond += tp.bytesPerSecond;
+            }
             double progress;
             String title;
             if (totalFiles <= 0) {
                 int completedTasks = completedBackupTasks.get();
                 progress = totalBackupTasks > 0 ? (double) completedTasks / totalBackupTasks : 0.0;
                 title = intl("bossbar-preparing");
+            } else if (totalBytes > 0 && bytesPerSecond > 0) {
+                progress = (double) processedBytes / totalBytes;
+                long remainingSeconds = (long) ((totalBytes - processedBytes) / bytesPerSecond);
+                title = intl("bossbar-progress-speed")
+                        .replace("<progress>", String.format("%.2f", progress * 100))
+                        .replace("<speed>", String.format("%.1f", bytesPerSecond / (1024 * 1024)))
+                        .replace("<eta>", String.format("%d:%02d", remainingSeconds / 60, remainingSeconds % 60));
             } else {
                 progress = (double) processedFiles / totalFiles;
                 title = intl("bossbar-progress")
@@ -285,6 +349,23 @@ public class UploadThread implements Runnable {
         completedBackupTasks.incrementAndGet();
     }
 
+    public static boolean isBackupRunning() {
+        return backupStatus != BackupStatus.NOT_RUNNING;
+    }
+
+    /**
+     * 中止所有正在进行的压缩
+     */
+    public static void cancelRunningCompressions() {
+        TickGovernor governor = tickGovernor;
+        if (governor != null) {
+            governor.stop();
+        }
+        for (ArchiveEngine engine : runningEngines) {
+            engine.cancel();
+        }
+    }
+
     public static void cleanupBossBar() {
         Runnable cleanupTask = () -> {
             if (backupBossBar != null) {
@@ -363,21 +444,30 @@ public class UploadThread implements Runnable {
             }
         }
 
+        // 分卷在压缩期间即开始上传，因此在压缩之前确认上传方式
+        uploaders = new ArrayList<>(5);
+        ensureMethodsAuthenticated();
+        uploadedVolumes.clear();
+
         logger.info(intl("backup-local-start"));
         backupStatus = BackupStatus.COMPRESSING;
         backupBackingUp = 0;
         backupCurrentLocation = "";
 
         // 暂停自动保存并强制写入
-        ServerUtil.prepareForBackup();
+        long saveDisabledAt = System.nanoTime();
+        ServerUtil.prepareForBackup(logger);
+        // 各世界在读取其文件的备份位置完成后分别恢复自动保存
+        AutosaveRelease autosave = new AutosaveRelease(logger, saveDisabledAt);
 
         boolean errorOccurred = false;
         try {
-            // 计算任务数，初始化 BossBar
+            // 展开所有备份位置（仅一次），计算任务数，初始化 BossBar
+            expandBackupLocations();
             totalBackupTasks = 0;
-            for (BackupListEntry set : backupList) {
-                if (set.create) {
-                    totalBackupTasks += set.location.getPaths().size();
+            for (Map.Entry<BackupListEntry, List<Path>> entry : locationPaths.entrySet()) {
+                if (entry.getKey().create) {
+                    totalBackupTasks += entry.getValue().size();
                 }
             }
             totalFilesToBackup.set(0);
@@ -390,7 +480,7 @@ public class UploadThread implements Runnable {
             }
 
             // 异步压缩所有备份文件夹
-            asyncCompressAllBackups();
+            asyncCompressAllBackups(autosave);
 
         } catch (Exception e) {
             errorOccurred = true;
@@ -404,7 +494,7 @@ public class UploadThread implements Runnable {
             removeBossBar();
         } finally {
             // 确保自动保存被恢复，不论成功与否
-            ServerUtil.restoreAfterBackup();
+            autosave.releaseAll();
             if (ConfigParser.getConfig().advanced.debugEnabled) {
                 logger.info("备份压缩任务结束");
             }
@@ -432,24 +522,83 @@ public class UploadThread implements Runnable {
         logger.log(intl("backup-local-prune-complete"));
     }
 
-    private void asyncCompressAllBackups() throws Exception {
+    /**
+     * 展开本次备份的所有位置，后续的扫描、压缩和上传阶段共用此结果
+     */
+    private void expandBackupLocations() {
+        locationPaths.clear();
+        for (BackupListEntry set : backupList) {
+            locationPaths.put(set, set.location.getPaths());
+        }
+    }
+
+    /**
+     * @param autosave 每个位置创建快照或压缩结束后释放其中的世界，恢复这些世界的自动保存
+     */
+    private void asyncCompressAllBackups(AutosaveRelease autosave) throws Exception {
         int maxParallel = ConfigParser.getConfig().backupStorage.threadCounts;
         if (maxParallel < 1) maxParallel = 1;
 
-        // 预扫描，收集任务并获得初始文件数，同时建立进度条
-        List<CompressTask> tasks = new ArrayList<>();
-        int initialTotal = 0;
+        // 扫描与压缩流水线：每个位置扫描完成后立即提交压缩任务，同时继续扫描下一个位置，进度条总数随扫描增加。
+        // 已扫描但尚未开始压缩的文件列表最多 maxParallel 个，避免扫描远远领先于压缩。
+        // 只为包含世界文件的位置创建快照，其余位置的文件不受自动保存影响
+        boolean snapshots = ConfigParser.getConfig().backupStorage.snapshotStaging;
+        if (snapshots) {
+            LocationSnapshot.deleteStaleSnapshots();
+        }
         taskProgressMap.clear();
-
-        for (BackupListEntry set : backupList) {
-            for (Path folder : set.location.getPaths()) {
-                if (!set.create) continue;
+        totalFilesToBackup.set(0);
+        totalFilesProcessed.set(0);
+        Semaphore pendingLists = new Semaphore(maxParallel);
+        // 队列按预测的压缩耗时排序，空闲的工作线程先取耗时最长的任务（最长处理时间优先）
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxParallel, maxParallel, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>());
+        TaskHistory history = TaskHistory.load();
+        AtomicLong firstTaskStart = new AtomicLong();
+        AtomicLong lastTaskEnd = new AtomicLong();
+        // 各 7zr 进程分得互不重叠的核心，避免多个进程各自占满全部核心
+        int archiveTasks = 0;
+        for (Map.Entry<BackupListEntry, List<Path>> entry : locationPaths.entrySet()) {
+            if (entry.getKey().create && entry.getKey().storage == Storage.ARCHIVE) {
+                archiveTasks += entry.getValue().size();
+            }
+        }
+        CoreBudget coreBudget = new CoreBudget(FileUtil.getCompressionCores(), maxParallel, archiveTasks);
+        volumeUploader = Executors.newSingleThreadExecutor();
+        // 服务器卡顿时暂停压缩，并推迟尚未开始的任务
+        TickGovernor governor = TickGovernor.start(logger, runningEngines);
+        tickGovernor = governor;
+        List<PrioritizedTask> futures = new ArrayList<>();
+        int taskCount = 0;
+        Exception failure = null;
+        try {
+            // 包含世界文件的位置最先扫描，尽早恢复这些世界的自动保存；
+            // 其余按上次的压缩耗时从长到短扫描，使耗时最长的位置最先开始压缩；没有记录的位置最先扫描
+            List<Map.Entry<BackupListEntry, Path>> locations = new ArrayList<>();
+            for (Map.Entry<BackupListEntry, List<Path>> entry : locationPaths.entrySet()) {
+                if (!entry.getKey().create) continue;
+                for (Path folder : entry.getValue()) {
+                    locations.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), folder));
+                }
+            }
+            locations.sort(Comparator
+                    .comparing((Map.Entry<BackupListEntry, Path> entry) -> !autosave.coversWorld(entry.getValue()))
+                    .thenComparing(entry -> getPreviousDuration(history, entry.getValue()), Comparator.reverseOrder()));
+            for (int i = 0; i < locations.size(); i++) {
+                autosave.track(i, locations.get(i).getValue());
+            }
+            autosave.start();
+            for (int i = 0; i < locations.size(); i++) {
+                int key = i;
+                BackupListEntry set = locations.get(i).getKey();
+                Path folder = locations.get(i).getValue();
+                pendingLists.acquire();
                 String location = folder.toString();
                 LocalDateTimeFormatter formatter = set.formatter;
                 List<String> blacklist = Arrays.asList(set.blacklist);
                 String outputPath = fileUtil.generateOutputPath(location, formatter);
 
-                // 预扫描，带回调以便显示日志，但不更新bossbar（避免闪烁）
+                // 扫描文件列表（每次运行仅一次），带回调以便显示日志，但不更新bossbar（避免闪烁）
                 BackupFileList fileList = fileUtil.prepareFileList(location, blacklist,
                         new BackupProgressCallback() {
                             @Override public void onFileListPrepared(int fileCount) {
@@ -459,85 +608,80 @@ public class UploadThread implements Runnable {
                             @Override public void onBackupComplete() {}
                             @Override public void onError(Throwable throwable) {}
                         });
-                int fileCount = fileList.getList().size();
-                tasks.add(new CompressTask(tasks.size() + 1, location, outputPath, blacklist, formatter));
-                taskProgressMap.put(location, new TaskProgress(fileCount));
-                initialTotal += fileCount;
-            }
-        }
-
-        if (tasks.isEmpty()) return;
-
-        totalFilesToBackup.set(initialTotal);
-        totalFilesProcessed.set(0);
-        createBossBar();
-        updateBossBarProgress();
+                // 从快照压缩时，之后对备份位置的改动不影响本次备份
+                LocationSnapshot snapshot = snapshots && autosave.coversWorld(folder)
+                        ? LocationSnapshot.create(logger, location, fileList, taskCount + 1) : null;
+                if (snapshot != null) {
+                    autosave.release(key);
+                }
+                String sourceFolder = snapshot == null ? location : snapshot.getPath();
+                int fileCount = fileList.size();
+                long totalBytes = fileList.getTotalSize();
+                CompressTask task = new CompressTask(++taskCount, location, outputPath, fileList, formatter, set,
+                        totalBytes, history.predictDuration(location, totalBytes));
+                CoreBudget.Ticket ticket = set.storage == Storage.ARCHIVE ? coreBudget.register(totalBytes) : null;
+                taskProgressMap.put(location, new TaskProgress(fileCount, totalBytes));
+                recalcGlobalTotal();
+                updateBossBarProgress();
 
-        // 按并发度提交任务
-        ExecutorService executor = Executors.newFixedThreadPool(maxParallel);
-        List<Future<Void>> futures = new ArrayList<>();
-        try {
-            for (CompressTask task : tasks) {
-                Future<Void> future = executor.submit(() -> {
+                PrioritizedTask future = new PrioritizedTask(task, () -> {
+                    pendingLists.release();
+                    firstTaskStart.compareAndSet(0, System.currentTimeMillis());
                     backupBackingUp = task.index;
                     backupCurrentLocation = task.location;
 
-                    // 重新扫描实际文件列表，修正数量
-                    BackupFileList actualFileList;
-                    try {
-                        actualFileList = fileUtil.prepareFileList(task.location, task.blacklist);
-                    } catch (Exception e) {
-                        // 如果扫描失败，记录错误并跳过
-                        logger.info("重新扫描文件列表失败：" + task.location);
-                        MessageUtil.sendConsoleException(e);
-                        // 标记任务完成（文件数为0）
+                    // 任务排队过久时只重新检查已收集的条目，不重新遍历目录树；快照中的文件不会变化
+                    BackupFileList actualFileList = task.fileList;
+                    if (snapshot == null && System.currentTimeMillis() - task.scannedAt >= STALE_SCAN_MILLIS) {
+                        int removed = fileUtil.refreshFileList(task.location, actualFileList);
                         TaskProgress tp = taskProgressMap.get(task.location);
-                        if (tp != null) {
-                            tp.setTotal(0);
-                            tp.processed.set(0);
+                        if (removed > 0 && tp != null) {
+                            int newTotal = actualFileList.size();
+                            tp.setTotal(newTotal);
+                            // 如果新总数更小，已处理数需要同步裁剪
+                            if (tp.processed.get() > newTotal) {
+                                tp.processed.set(newTotal);
+                            }
                             recalcGlobalTotal();
                             recalcGlobalProcessed();
-                        }
-                        incrementCompletedTasks();
-                        updateBossBarProgress();
-                        return null;
-                    }
-
-                    // 更新总量
-                    TaskProgress tp = taskProgressMap.get(task.location);
-                    if (tp != null) {
-                        int oldTotal = tp.total;
-                        int newTotal = actualFileList.getList().size();
-                        tp.setTotal(newTotal);
-                        // 如果新总数更小，已处理数需要同步裁剪
-                        if (tp.processed.get() > newTotal) {
-                            tp.processed.set(newTotal);
-                        }
-                        recalcGlobalTotal();
-                        recalcGlobalProcessed();
-                        if (oldTotal != newTotal) {
                             logger.info("备份位置 " + task.location + " 文件数变更为 " + newTotal);
                         }
                     }
 
                     // 开始压缩
                     try {
-                        fileUtil.compressBackup(task.location, task.outputPath, actualFileList,
-                                new BackupProgressCallback() {
+                        governor.awaitResume();
+                        BackupProgressCallback callback = new BackupProgressCallback() {
                                     @Override public void onFileListPrepared(int fileCount) {}
                                     @Override public void onFileProcessed() {}
                                     @Override public void onProgress(int processedFiles, int totalFiles) {
                                         TaskProgress t = taskProgressMap.get(task.location);
                                         if (t != null) {
                                             t.processed.set(processedFiles);
+                                            if (task.storage == Storage.REPOSITORY && totalFiles > 0) {
+                                                // 仓库格式没有按字节的进度，按文件数估计
+                                                t.processedBytes = t.totalBytes * processedFiles / totalFiles;
+                                            }
                                             recalcGlobalProcessed();
                                             updateBossBarProgress();
                                         }
                                     }
+                                    @Override public void onProgress(long processedBytes, long totalBytes,
+                                                                     double bytesPerSecond, long remainingSeconds) {
+                                        TaskProgress t = taskProgressMap.get(task.location);
+                                        if (t != null) {
+                                            t.totalBytes = totalBytes;
+                                            t.processedBytes = processedBytes;
+                                            t.bytesPerSecond = bytesPerSecond;
+                                            updateBossBarProgress();
+                                        }
+                                    }
                                     @Override public void onBackupComplete() {
                                         TaskProgress t = taskProgressMap.get(task.location);
                                         if (t != null) {
                                             t.processed.set(t.total);
+                                            t.processedBytes = t.totalBytes;
+                                            t.bytesPerSecond = 0;
                                             recalcGlobalProcessed();
                                         }
                                         incrementCompletedTasks();
@@ -549,6 +693,8 @@ public class UploadThread implements Runnable {
                                         TaskProgress t = taskProgressMap.get(task.location);
                                         if (t != null) {
                                             t.processed.set(t.total);
+                                            t.processedBytes = t.totalBytes;
+                                            t.bytesPerSecond = 0;
                                             recalcGlobalProcessed();
                                         }
                                         incrementCompletedTasks();
@@ -556,21 +702,127 @@ public class UploadThread implements Runnable {
                                         logger.info(intl("backup-local-file-failed"), "location", task.location);
                                         MessageUtil.sendConsoleException((Exception) throwable);
                                     }
-                                });
+                                };
+                        long start;
+                        if (task.storage == Storage.REPOSITORY) {
+                            start = System.currentTimeMillis();
+                            fileUtil.backupToRepository(task.location, sourceFolder, task.outputPath, actualFileList,
+                                    task.compression, callback);
+                        } else {
+                            ArchiveEngine engine = ArchiveEngine.create(task.engine, logger);
+                            // 内置引擎只使用单线程
+                            Integer maxThreads = task.engine == Engine.JAVA ? Integer.valueOf(1) : task.compression.threads;
+                            CoreBudget.Slice cores = coreBudget.acquire(ticket, maxThreads == null ? 0 : maxThreads);
+                            logger.info("备份位置 " + task.location + " 使用 " + engine.getName() + " 压缩，"
+                                    + cores.getThreads() + " 个 CPU 核心 " + cores);
+                            start = System.currentTimeMillis();
+                            runningEngines.add(engine);
+                            try {
+                                fileUtil.compressBackup(task.location, sourceFolder, task.outputPath, actualFileList,
+                                        task.fullBackupInterval, task.compression, cores, task.volumeSize,
+                                        uploaders.isEmpty() ? null : volume -> volumeUploader.submit(() -> uploadVolume(task.location, volume)),
+                                        engine, callback);
+                            } finally {
+                                runningEngines.remove(engine);
+                                coreBudget.release(cores);
+                            }
+                        }
+                        history.record(task.location, task.totalBytes, System.currentTimeMillis() - start);
                     } catch (Exception e) {
                         throw new CompletionException(e);
+                    } finally {
+                        lastTaskEnd.accumulateAndGet(System.currentTimeMillis(), Math::max);
+                        if (snapshot != null) {
+                            snapshot.delete();
+                        } else {
+                            autosave.release(key);
+                        }
                     }
                     return null;
-                });
+                }, snapshot == null && autosave.coversWorld(folder));
+                executor.execute(future);
                 futures.add(future);
             }
+        } catch (Exception e) {
+            // 扫描失败时仍等待已提交的压缩任务结束，再恢复自动保存
+            failure = e;
+        }
 
+        try {
             if (ConfigParser.getConfig().advanced.debugEnabled) {
                 logger.info("等待所有压缩任务完成（最大并行 " + maxParallel + "）...");
             }
-            for (Future<Void> f : futures) f.get();
+            for (PrioritizedTask f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) failure = e;
+                }
+            }
         } finally {
+            governor.stop();
+            tickGovernor = null;
             executor.shutdown();
+            // 等待压缩期间提交的分卷上传结束，上传阶段只补传其余文件
+            volumeUploader.shutdown();
+            volumeUploader.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        logMakespan(futures, maxParallel, lastTaskEnd.get() - firstTaskStart.get());
+        try {
+            history.save();
+        } catch (IOException e) {
+            logger.info("保存压缩耗时记录失败");
+            MessageUtil.sendConsoleException(e);
+        }
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * 输出按最长处理时间优先预测的总用时与实际用时；有任务没有可用的预测时只输出实际用时
+     */
+    private void logMakespan(List<PrioritizedTask> tasks, int maxParallel, long actualMillis) {
+        if (tasks.isEmpty()) return;
+        List<Long> predictions = new ArrayList<>(tasks.size());
+        for (PrioritizedTask task : tasks) {
+            if (task.task.predictedMillis < 0) {
+                logger.info("压缩 " + tasks.size() + " 个备份位置实际用时 " + actualMillis / 1000 + " 秒（没有历史耗时，无法预测）");
+                return;
+            }
+            predictions.add(task.task.predictedMillis);
+        }
+        long predictedMillis = TaskHistory.predictMakespan(predictions, maxParallel);
+        logger.info("压缩 " + tasks.size() + " 个备份位置预计用时 " + predictedMillis / 1000 + " 秒（并行 " + maxParallel
+                + "，最长处理时间优先），实际用时 " + actualMillis / 1000 + " 秒");
+    }
+
+    /**
+     * 上一次压缩该位置的耗时，没有记录时视为最长
+     */
+    private static long getPreviousDuration(TaskHistory history, Path folder) {
+        long duration = history.getPreviousDuration(folder.toString());
+        return duration < 0 ? Long.MAX_VALUE : duration;
+    }
+
+    /**
+     * 按预测的压缩耗时排序的任务，耗时最长的任务最先执行；没有历史耗时时按数据量排序。
+     * 直接读取世界文件的任务（没有快照）排在最前，压缩结束后才能恢复这些世界的自动保存
+     */
+    private static class PrioritizedTask extends FutureTask<Void> implements Comparable<PrioritizedTask> {
+        final CompressTask task;
+        final boolean holdsAutosave;
+
+        PrioritizedTask(CompressTask task, Callable<Void> callable, boolean holdsAutosave) {
+            super(callable);
+            this.task = task;
+            this.holdsAutosave = holdsAutosave;
+        }
+
+        @Override
+        public int compareTo(@NotNull PrioritizedTask other) {
+            int result = Boolean.compare(other.holdsAutosave, holdsAutosave);
+            if (result != 0) return result;
+            result = Long.compare(other.task.predictedMillis, task.predictedMillis);
+            return result != 0 ? result : Long.compare(other.task.totalBytes, task.totalBytes);
         }
     }
 
@@ -578,15 +830,35 @@ public class UploadThread implements Runnable {
         final int index;
         final String location;
         final String outputPath;
-        final List<String> blacklist;
+        final BackupFileList fileList;
         final LocalDateTimeFormatter formatter;
-
-        CompressTask(int index, String location, String outputPath, List<String> blacklist, LocalDateTimeFormatter formatter) {
+        final int fullBackupInterval;
+        final Storage storage;
+        final long volumeSize;
+        final Compression compression;
+        final Engine engine;
+        final long totalBytes;
+        /**
+         * 预测的压缩耗时（毫秒），没有历史耗时时为 -1
+         */
+        final long predictedMillis;
+        final long scannedAt;
+
+        CompressTask(int index, String location, String outputPath, BackupFileList fileList,
+                     LocalDateTimeFormatter formatter, BackupListEntry entry, long totalBytes, long predictedMillis) {
             this.index = index;
             this.location = location;
             this.outputPath = outputPath;
-            this.blacklist = blacklist;
+            this.fileList = fileList;
             this.formatter = formatter;
+            this.fullBackupInterval = entry.fullBackupInterval;
+            this.storage = entry.storage;
+            this.volumeSize = entry.volumeSize;
+            this.compression = entry.compression;
+            this.engine = ArchiveEngine.resolve(entry.engine, totalBytes, entry.volumeSize);
+            this.totalBytes = totalBytes;
+            this.predictedMillis = predictedMillis;
+            this.scannedAt = System.currentTimeMillis();
         }
     }
 
@@ -596,8 +868,6 @@ public class UploadThread implements Runnable {
         backupBackingUp = 0;
         backupCurrentLocation = "";
 
-        uploaders = new ArrayList<>(5);
-        ensureMethodsAuthenticated();
         uploadBackupFiles(uploaders);
         FileUtil.deleteFolder(new File("external-backups"));
         logger.info(intl("backup-upload-complete"));
@@ -635,26 +905,119 @@ public class UploadThread implements Runnable {
     }
 
     private void uploadBackupFiles(List<Uploader> uploaders) {
-        for (BackupListEntry set : backupList) {
+        for (Map.Entry<BackupListEntry, List<Path>> entry : locationPaths.entrySet()) {
+            BackupListEntry set = entry.getKey();
             backupBackingUp++;
             backupCurrentLocation = set.location.toString();
-            for (Path folder : set.location.getPaths()) {
-                uploadFile(folder.toString(), set.formatter, uploaders);
+            for (Path folder : entry.getValue()) {
+                if (set.storage == Storage.REPOSITORY) {
+                    uploadRepositoryFiles(folder.toString(), uploaders);
+                } else {
+                    uploadFile(folder.toString(), set.formatter, uploaders);
+                }
             }
         }
     }
 
+    /**
+     * 上传最新的备份；分卷备份只上传压缩期间尚未成功上传的分卷
+     */
     private void uploadFile(String location, LocalDateTimeFormatter formatter, List<Uploader> uploaders) {
         try {
             if (FileUtil.isBaseFolder(location)) {
                 location = "root";
             }
-            TreeMap<Long, File> localBackups = fileUtil.getLocalBackups(location, formatter);
+            List<File> localBackups = fileUtil.getLocalBackups(location, formatter);
             if (localBackups.isEmpty()) {
                 logger.info(intl("location-empty"), "location", location);
                 return;
             }
-            File file = localBackups.descendingMap().firstEntry().getValue();
+            String backupName = BackupChain.getBackupName(localBackups.get(localBackups.size() - 1).getName());
+            Set<File> uploaded = uploadedVolumes.getOrDefault(location, Collections.emptySet());
+            List<File> files = new ArrayList<>();
+            for (File file : localBackups) {
+                if (BackupChain.getBackupName(file.getName()).equals(backupName) && !uploaded.contains(file)) {
+                    files.add(file);
+                }
+            }
+            // 第一个分卷最后上传，远程存在第一个分卷即表示整个分卷组已上传，保留策略据此识别未完成的备份
+            String firstVolume = BackupChain.getVolumePath(backupName, 1);
+            files.sort(Comparator.comparing((File file) -> file.getName().equals(firstVolume)).thenComparing(File::getName));
+            Timer timer = new Timer();
+            for (Uploader uploader : uploaders) {
+                logger.info(
+                        intl("backup-method-uploading"),
+                        "upload-method",
+                        uploader.getName());
+                for (File file : files) {
+                    timer.start();
+                    uploader.uploadFile(file, location);
+                    timer.end();
+                    if (!uploader.isErrorWhileUploading()) {
+                        logger.info(timer.getUploadTimeMessage(file));
+                    } else {
+                        logger.info(intl("backup-method-upload-failed"));
+                    }
+                }
+            }
+            logger.info(intl("backup-file-upload-complete"), "file-name", backupName);
+        } catch (Exception e) {
+            logger.info(intl("backup-method-upload-failed"));
+            MessageUtil.sendConsoleException(e);
+        }
+    }
+
+    /**
+     * 在压缩期间上传一个已写完的分卷。所有上传方式都成功后记录该分卷，失败的分卷在上传阶段重试
+     */
+    private void uploadVolume(String location, File volume) {
+        if (FileUtil.isBaseFolder(location)) {
+            location = "root";
+        }
+        boolean succeeded = true;
+        Timer timer = new Timer();
+        for (Uploader uploader : uploaders) {
+            try {
+                timer.start();
+                uploader.uploadFile(volume, location);
+                timer.end();
+                if (uploader.isErrorWhileUploading()) {
+                    succeeded = false;
+                } else {
+                    logger.info(timer.getUploadTimeMessage(volume));
+                }
+            } catch (Exception e) {
+                succeeded = false;
+                MessageUtil.sendConsoleException(e);
+            }
+        }
+        if (succeeded) {
+            uploadedVolumes.computeIfAbsent(location, key -> ConcurrentHashMap.newKeySet()).add(volume);
+        } else {
+            logger.info("分卷 " + volume.getName() + " 上传失败，将在压缩完成后重试");
+        }
+    }
+
+    /**
+     * 上传仓库中尚未上传的数据包与快照。只有所有上传方式都成功的文件才会从待上传列表中移除，
+     * 其余文件在下次备份时重试
+     */
+    private void uploadRepositoryFiles(String location, List<Uploader> uploaders) {
+        try {
+            ChunkRepository repository = ChunkRepository.forLocation(logger, location);
+            if (FileUtil.isBaseFolder(location)) {
+                location = "root";
+            }
+            List<File> files = repository.getPendingUploads();
+            if (files.isEmpty()) {
+                logger.info(intl("location-empty"), "location", location);
+                return;
+            }
+            List<File> uploaded = new ArrayList<>(files);
+            long totalBytes = 0;
+            for (File file : files) {
+                totalBytes += file.length();
+            }
             Timer timer = new Timer();
             for (Uploader uploader : uploaders) {
                 logger.info(
@@ -662,15 +1025,22 @@ public class UploadThread implements Runnable {
                         "upload-method",
                         uploader.getName());
                 timer.start();
-                uploader.uploadFile(file, location);
+                for (File file : files) {
+                    uploader.uploadFile(file, location);
+                    if (uploader.isErrorWhileUploading()) {
+                        uploaded.remove(file);
+                    }
+                }
                 timer.end();
                 if (!uploader.isErrorWhileUploading()) {
-                    logger.info(timer.getUploadTimeMessage(file));
+                    logger.info("已上传 " + files.size() + " 个仓库文件（" + totalBytes / (1024 * 1024) + " MB），耗时 "
+                            + timer.getTime() / 1000 + " 秒");
                 } else {
                     logger.info(intl("backup-method-upload-failed"));
                 }
             }
-            logger.info(intl("backup-file-upload-complete"), "file-name", file.getName());
+            repository.markUploaded(uploaded);
+            logger.info(intl("backup-file-upload-complete"), "file-name", repository.getDirectory().toString());
         } catch (Exception e) {
             logger.info(intl("backup-method-upload-failed"));
             MessageUtil.sendConsoleException(e);
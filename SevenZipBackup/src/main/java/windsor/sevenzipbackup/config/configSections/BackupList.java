@@ -13,13 +13,17 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 import static windsor.sevenzipbackup.config.Localization.intl;
 
 public class BackupList {
     
     public static final String ENTRY = "entry";
+    private static final Pattern DICTIONARY_SIZE = Pattern.compile("\\d+[bkmg]?");
+    private static final Pattern SOLID_BLOCK_SIZE = Pattern.compile("on|off|e|(?=.)(\\d+[bkmgt]?)?(\\d+f)?e?");
     
     public static class BackupListEntry {
         public interface BackupLocation {
@@ -63,6 +67,17 @@ public class BackupList {
         public final LocalDateTimeFormatter formatter;
         public final boolean create;
         public final String[] blacklist;
+        /**
+         * 每隔多少次备份创建一次完整备份，其间只创建相对于该完整备份的差异备份；1 表示每次都是完整备份
+         */
+        public final int fullBackupInterval;
+        public final Storage storage;
+        /**
+         * 分卷大小（MB），0 表示不分卷；每个写完的分卷会立即上传
+         */
+        public final long volumeSize;
+        public final Compression compression;
+        public final Engine engine;
         
         public BackupListEntry(
             BackupLocation location,
@@ -71,10 +86,196 @@ public class BackupList {
             String[] blacklist
             ) {
 
+            this(location, formatter, create, blacklist, 1, Storage.ARCHIVE, 0, Compression.DEFAULT, Engine.SEVEN_ZIP);
+        }
+
+        public BackupListEntry(
+            BackupLocation location,
+            LocalDateTimeFormatter formatter,
+            boolean create,
+            String[] blacklist,
+            int fullBackupInterval,
+            Storage storage,
+            long volumeSize,
+            Compression compression,
+            Engine engine
+            ) {
+
             this.location = location;
             this.formatter = formatter;
             this.create = create;
             this.blacklist = blacklist;
+            this.fullBackupInterval = fullBackupInterval;
+            this.storage = storage;
+            this.volumeSize = volumeSize;
+            this.compression = compression;
+            this.engine = engine;
+        }
+
+        /**
+         * 备份的存储格式
+         */
+        public enum Storage {
+            /**
+             * 每次备份生成一个 7z 压缩文件
+             */
+            ARCHIVE("7z"),
+            /**
+             * 写入按内容分块去重的仓库，每次备份生成一个快照
+             */
+            REPOSITORY("repository");
+
+            private final String configName;
+
+            Storage(String configName) {
+                this.configName = configName;
+            }
+
+            public static Storage fromConfigName(String configName) {
+                for (Storage storage : values()) {
+                    if (storage.configName.equalsIgnoreCase(configName)) {
+                        return storage;
+                    }
+                }
+                throw new IllegalArgumentException(configName);
+            }
+        }
+
+        /**
+         * 生成 7z 压缩文件使用的压缩引擎
+         */
+        public enum Engine {
+            /**
+             * 外部 7zr 进程
+             */
+            SEVEN_ZIP("7zr"),
+            /**
+             * 插件进程内的流式压缩
+             */
+            JAVA("java"),
+            /**
+             * 小位置使用内置引擎，其余使用 7zr
+             */
+            AUTO("auto");
+
+            private final String configName;
+
+            Engine(String configName) {
+                this.configName = configName;
+            }
+
+            public String getConfigName() {
+                return configName;
+            }
+
+            public static Engine fromConfigName(String configName) {
+                for (Engine engine : values()) {
+                    if (engine.configName.equalsIgnoreCase(configName)) {
+                        return engine;
+                    }
+                }
+                throw new IllegalArgumentException(configName);
+            }
+        }
+
+        /**
+         * 备份策略的压缩设置；未设置的项为 {@code null}，使用全局设置或 7zr 的默认值
+         */
+        public static class Compression {
+            public static final Compression DEFAULT = new Compression(null, null, null, null, null, false, true);
+
+            /**
+             * 7zr 支持的压缩方法
+             */
+            private static final String[] METHODS = {"LZMA2", "LZMA", "PPMd", "Copy"};
+
+            /**
+             * 压缩方法，如 LZMA2
+             */
+            public final String method;
+            /**
+             * 压缩等级（0-9）
+             */
+            public final Integer level;
+            /**
+             * 字典大小，如 64m
+             */
+            public final String dictionarySize;
+            /**
+             * 固实块大小，对应 {@code -ms=}，如 on、off、1g、e
+             */
+            public final String solidBlockSize;
+            /**
+             * 压缩线程数上限（{@code -mmt}），0 表示由核心预算决定
+             */
+            public final Integer threads;
+            /**
+             * 仅存储，不压缩
+             */
+            public final boolean store;
+            /**
+             * 按内容规划压缩：已经过压缩的文件只存储，其余文件按类型排列
+             */
+            public final boolean contentAware;
+
+            public Compression(String method, Integer level, String dictionarySize, String solidBlockSize,
+                               Integer threads, boolean store, boolean contentAware) {
+                this.method = method;
+                this.level = level;
+                this.dictionarySize = dictionarySize;
+                this.solidBlockSize = solidBlockSize;
+                this.threads = threads;
+                this.store = store;
+                this.contentAware = contentAware;
+            }
+
+            /**
+             * 实际使用的压缩等级；仅存储时为 0
+             *
+             * @param defaultLevel 全局压缩等级
+             */
+            public int getLevel(int defaultLevel) {
+                if (store) return 0;
+                return level == null ? defaultLevel : level;
+            }
+
+            /**
+             * 生成 7zr 的压缩参数，线程数由 {@link windsor.sevenzipbackup.util.CoreBudget} 分配后另行添加
+             *
+             * @param defaultLevel 全局压缩等级
+             */
+            @NotNull
+            public List<String> toArguments(int defaultLevel) {
+                List<String> arguments = new ArrayList<>();
+                arguments.add("-mx" + getLevel(defaultLevel));
+                if (!store) {
+                    if (method != null) {
+                        arguments.add("-m0=" + method);
+                    }
+                    if (dictionarySize != null) {
+                        arguments.add("-md=" + dictionarySize);
+                    }
+                    // 按扩展名排序，使同类文件在固实流中相邻
+                    if (contentAware) {
+                        arguments.add("-mqs=on");
+                    }
+                }
+                arguments.add("-ms=" + (solidBlockSize == null ? "on" : solidBlockSize));
+                return arguments;
+            }
+
+            /**
+             * 按 7zr 的写法返回压缩方法名，不支持时抛出 {@link IllegalArgumentException}
+             */
+            @NotNull
+            public static String normalizeMethod(@NotNull String method) {
+                for (String supported : METHODS) {
+                    if (supported.equalsIgnoreCase(method)) {
+                        return supported;
+                    }
+                }
+                throw new IllegalArgumentException(method);
+            }
         }
     }
 
@@ -134,8 +335,129 @@ public class BackupList {
                     logger.log(intl("backup-list-blacklist-invalid"), ENTRY, entryIndex);
                 }
             }
-            list.add(new BackupListEntry(location, formatter, create, blacklist));
+            int fullBackupInterval = 1;
+            if (rawListEntry.containsKey("full-backup-interval")) {
+                try {
+                    fullBackupInterval = (Integer) rawListEntry.get("full-backup-interval");
+                } catch (ClassCastException e) {
+                    logger.log(intl("backup-list-full-backup-interval-invalid"), ENTRY, entryIndex);
+                }
+                if (fullBackupInterval < 1) {
+                    logger.log(intl("backup-list-full-backup-interval-invalid"), ENTRY, entryIndex);
+                    fullBackupInterval = 1;
+                }
+            }
+            BackupListEntry.Storage storage = BackupListEntry.Storage.ARCHIVE;
+            if (rawListEntry.containsKey("storage")) {
+                try {
+                    storage = BackupListEntry.Storage.fromConfigName((String) rawListEntry.get("storage"));
+                } catch (IllegalArgumentException | ClassCastException e) {
+                    logger.log(intl("backup-list-storage-invalid"), ENTRY, entryIndex);
+                }
+            }
+            long volumeSize = 0;
+            if (rawListEntry.containsKey("volume-size")) {
+                try {
+                    volumeSize = ((Number) rawListEntry.get("volume-size")).longValue();
+                } catch (ClassCastException e) {
+                    logger.log(intl("backup-list-volume-size-invalid"), ENTRY, entryIndex);
+                }
+                if (volumeSize < 0) {
+                    logger.log(intl("backup-list-volume-size-invalid"), ENTRY, entryIndex);
+                    volumeSize = 0;
+                }
+            }
+            BackupListEntry.Compression compression = BackupListEntry.Compression.DEFAULT;
+            Object rawCompression = rawListEntry.get("compression");
+            // 空的 compression 段等同于未设置
+            if (rawCompression instanceof Map) {
+                compression = parseCompression((Map<?, ?>) rawCompression, logger, entryIndex);
+            } else if (rawCompression != null) {
+                logger.log(intl("backup-list-compression-invalid"), ENTRY, entryIndex, "setting", "compression");
+            }
+            BackupListEntry.Engine engine = BackupListEntry.Engine.SEVEN_ZIP;
+            if (rawListEntry.containsKey("engine")) {
+                try {
+                    engine = BackupListEntry.Engine.fromConfigName((String) rawListEntry.get("engine"));
+                } catch (IllegalArgumentException | ClassCastException e) {
+                    logger.log(intl("backup-list-engine-invalid"), ENTRY, entryIndex);
+                }
+            }
+            list.add(new BackupListEntry(location, formatter, create, blacklist, fullBackupInterval, storage,
+                    volumeSize, compression, engine));
         }
         return new BackupList(list.toArray(new BackupListEntry[0]));
     }
+
+    /**
+     * 解析备份策略中的 {@code compression} 设置，无效的项记录日志后使用全局设置
+     */
+    @NotNull
+    private static BackupListEntry.Compression parseCompression(@NotNull Map<?, ?> raw, Logger logger, String entryIndex) {
+        String method = null;
+        if (raw.containsKey("method")) {
+            try {
+                method = BackupListEntry.Compression.normalizeMethod((String) raw.get("method"));
+            } catch (IllegalArgumentException | ClassCastException | NullPointerException e) {
+                logger.log(intl("backup-list-compression-invalid"), ENTRY, entryIndex, "setting", "method");
+            }
+        }
+        Integer level = null;
+        if (raw.containsKey("level")) {
+            Object value = raw.get("level");
+            if (value instanceof Integer && (Integer) value >= 0 && (Integer) value <= 9) {
+                level = (Integer) value;
+            } else {
+                logger.log(intl("backup-list-compression-invalid"), ENTRY, entryIndex, "setting", "level");
+            }
+        }
+        String dictionarySize = null;
+        if (raw.containsKey("dictionary")) {
+            String value = String.valueOf(raw.get("dictionary")).trim().toLowerCase(Locale.ROOT);
+            if (DICTIONARY_SIZE.matcher(value).matches()) {
+                dictionarySize = value;
+            } else {
+                logger.log(intl("backup-list-compression-invalid"), ENTRY, entryIndex, "setting", "dictionary");
+            }
+        }
+        String solidBlockSize = null;
+        if (raw.containsKey("solid-block")) {
+            Object value = raw.get("solid-block");
+            // YAML 会将 on/off 解析为布尔值
+            String text = value instanceof Boolean ? ((Boolean) value ? "on" : "off")
+                    : String.valueOf(value).trim().toLowerCase(Locale.ROOT);
+            if (SOLID_BLOCK_SIZE.matcher(text).matches()) {
+                solidBlockSize = text;
+            } else {
+                logger.log(intl("backup-list-compression-invalid"), ENTRY, entryIndex, "setting", "solid-block");
+            }
+        }
+        Integer threads = null;
+        if (raw.containsKey("threads")) {
+            Object value = raw.get("threads");
+            if (value instanceof Integer && (Integer) value >= 0) {
+                threads = (Integer) value;
+            } else {
+                logger.log(intl("backup-list-compression-invalid"), ENTRY, entryIndex, "setting", "threads");
+            }
+        }
+        boolean store = false;
+        if (raw.containsKey("store")) {
+            if (raw.get("store") instanceof Boolean) {
+                store = (Boolean) raw.get("store");
+            } else {
+                logger.log(intl("backup-list-compression-invalid"), ENTRY, entryIndex, "setting", "store");
+            }
+        }
+        boolean contentAware = true;
+        if (raw.containsKey("content-aware")) {
+            if (raw.get("content-aware") instanceof Boolean) {
+                contentAware = (Boolean) raw.get("content-aware");
+            } else {
+                logger.log(intl("backup-list-compression-invalid"), ENTRY, entryIndex, "setting", "content-aware");
+            }
+        }
+        return new BackupListEntry.Compression(method, level, dictionarySize, solidBlockSize, threads, store,
+                contentAware);
+    }
 }
@@ -6,6 +6,7 @@ import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import windsor.sevenzipbackup.util.Logger;
 
+import java.util.Locale;
 import java.util.Objects;
 
 import static windsor.sevenzipbackup.config.Localization.intl;
@@ -13,40 +14,121 @@ import static windsor.sevenzipbackup.config.Localization.intl;
 public class BackupStorage {
     public final long delay;
     public final int threadCounts;
+    public final int scanParallelism;
+    public final boolean dirtyTracking;
+    public final long scanMemoryLimit;
     public final int keepCount;
     public final int localKeepCount;
     public final int zipCompression;
     public final boolean backupsRequirePlayers;
     public final boolean disableSavingDuringBackups;
+    /**
+     * 保存后为包含世界文件的备份位置创建快照，从快照压缩并提前恢复自动保存
+     */
+    public final boolean snapshotStaging;
+    /**
+     * 计划备份前分散保存各世界的时间（秒），0 为不预刷新
+     */
+    public final long preBackupFlush;
     public final String localDirectory;
     public final String remoteDirectory;
     public final boolean enableSpecifyCpuCores;
     public final String cpuCoresList;
+    /**
+     * 7zr 进程的 nice 值，0 表示不调整
+     */
+    public final int compressionNice;
+    /**
+     * 7zr 进程的 I/O 调度类别：idle、best-effort 或 none（不调整）
+     */
+    public final String compressionIoClass;
+    /**
+     * best-effort 类别中的优先级（0 最高，7 最低）
+     */
+    public final int compressionIoPriority;
+    /**
+     * 是否在临时的 cgroup（systemd scope）中运行 7zr
+     */
+    public final boolean compressionCgroup;
+    /**
+     * cgroup 的 CPU 上限（对应 cpu.max），如 200%；空字符串表示不限制
+     */
+    public final String compressionCpuQuota;
+    /**
+     * cgroup 的读写带宽上限（对应 io.max），格式为 "设备 带宽"；空字符串表示不限制
+     */
+    public final String compressionIoMax;
+    /**
+     * 是否在服务器 MSPT 过高时暂停压缩
+     */
+    public final boolean throttleEnabled;
+    /**
+     * 平均 tick 耗时达到此值（毫秒）时暂停压缩
+     */
+    public final double throttlePauseMspt;
+    /**
+     * 平均 tick 耗时降到此值（毫秒）以下时恢复压缩
+     */
+    public final double throttleResumeMspt;
+    /**
+     * 一次备份最多累计暂停的秒数，0 表示不限制
+     */
+    public final long throttleMaxPause;
 
     public BackupStorage(
             long delay,
             int threadCounts,
+            int scanParallelism,
+            boolean dirtyTracking,
+            long scanMemoryLimit,
             int keepCount,
             int localKeepCount,
             int zipCompression,
             boolean backupsRequirePlayers,
             boolean disableSavingDuringBackups,
+            boolean snapshotStaging,
+            long preBackupFlush,
             String localDirectory,
             String remoteDirectory,
             boolean enableSpecifyCpuCores,
-            String cpuCoresList
+            String cpuCoresList,
+            int compressionNice,
+            String compressionIoClass,
+            int compressionIoPriority,
+            boolean compressionCgroup,
+            String compressionCpuQuota,
+            String compressionIoMax,
+            boolean throttleEnabled,
+            double throttlePauseMspt,
+            double throttleResumeMspt,
+            long throttleMaxPause
     ) {
         this.delay = delay;
         this.threadCounts = threadCounts;
+        this.scanParallelism = scanParallelism;
+        this.dirtyTracking = dirtyTracking;
+        this.scanMemoryLimit = scanMemoryLimit;
         this.keepCount = keepCount;
         this.localKeepCount = localKeepCount;
         this.zipCompression = zipCompression;
         this.backupsRequirePlayers = backupsRequirePlayers;
         this.disableSavingDuringBackups = disableSavingDuringBackups;
+        this.snapshotStaging = snapshotStaging;
+        this.preBackupFlush = preBackupFlush;
         this.localDirectory = localDirectory;
         this.remoteDirectory = remoteDirectory;
         this.enableSpecifyCpuCores = enableSpecifyCpuCores;
         this.cpuCoresList = cpuCoresList;
+        this.compressionNice = compressionNice;
+        this.compressionIoClass = compressionIoClass;
+        this.compressionIoPriority = compressionIoPriority;
+        this.compressionCgroup = compressionCgroup;
+        this.compressionCpuQuota = compressionCpuQuota;
+        this.compressionIoMax = compressionIoMax;
+        this.throttleEnabled = throttleEnabled;
+        this.throttlePauseMspt = throttlePauseMspt;
+        this.throttleResumeMspt = throttleResumeMspt;
+        this.throttleMaxPause = throttleMaxPause;
     }
 
     @NotNull
@@ -64,6 +146,18 @@ public class BackupStorage {
             logger.log(intl("thread-counts-too-low"));
             threadCounts = 1;
         }
+        // 文件扫描并行度，0 表示使用全部核心，1 表示单线程递归扫描
+        int scanParallelism = config.getInt("scan-parallelism", 0);
+        if (scanParallelism < 0) {
+            scanParallelism = 0;
+        }
+        // 在两次备份之间监视文件夹变化，只重新扫描变化的文件夹
+        boolean dirtyTracking = config.getBoolean("dirty-tracking", false);
+        // 每个文件列表在堆上占用的最大内存（MB），超出部分映射到临时文件
+        long scanMemoryLimit = config.getLong("scan-memory-limit", 64);
+        if (scanMemoryLimit < 0) {
+            scanMemoryLimit = 0;
+        }
         int keepCount = config.getInt("keep-count");
         if (keepCount < 1 && keepCount != -1) {
             logger.log(intl("keep-count-invalid"));
@@ -85,6 +179,12 @@ public class BackupStorage {
 
         boolean backupsRequirePlayers = config.getBoolean("backups-require-players");
         boolean disableSavingDuringBackups = config.getBoolean("disable-saving-during-backups");
+        boolean snapshotStaging = config.getBoolean("snapshot-staging", false);
+        long preBackupFlush = config.getLong("pre-backup-flush", 0);
+        if (preBackupFlush < 0) {
+            logger.log(intl("pre-backup-flush-invalid"));
+            preBackupFlush = 0;
+        }
         String localDirectory = config.getString("local-save-directory");
         if (Objects.requireNonNull(localDirectory).startsWith("/")) {
             logger.log(intl("local-save-directory-not-relative"));
@@ -94,8 +194,56 @@ public class BackupStorage {
         // CPU 亲和性配置
         boolean enableSpecifyCpuCores = config.getBoolean("enable-specify-cpu-cores", false);
         String cpuCoresList = config.getString("cpu-cores-list", "-1");
-        return new BackupStorage(delay, threadCounts, keepCount, localKeepCount, zipCompression,
-                backupsRequirePlayers, disableSavingDuringBackups, localDirectory, remoteDirectory,
-                enableSpecifyCpuCores, cpuCoresList);
+        // 7zr 进程的 CPU 与 I/O 优先级（仅 Linux）
+        int compressionNice = config.getInt("compression-priority.nice", 10);
+        if (compressionNice < 0 || compressionNice > 19) {
+            logger.log(intl("compression-priority-invalid"), "setting", "nice");
+            compressionNice = 10;
+        }
+        String compressionIoClass = config.getString("compression-priority.io-class", "best-effort")
+                .trim().toLowerCase(Locale.ROOT);
+        if (!compressionIoClass.equals("idle") && !compressionIoClass.equals("best-effort")
+                && !compressionIoClass.equals("none")) {
+            logger.log(intl("compression-priority-invalid"), "setting", "io-class");
+            compressionIoClass = "best-effort";
+        }
+        int compressionIoPriority = config.getInt("compression-priority.io-priority", 7);
+        if (compressionIoPriority < 0 || compressionIoPriority > 7) {
+            logger.log(intl("compression-priority-invalid"), "setting", "io-priority");
+            compressionIoPriority = 7;
+        }
+        boolean compressionCgroup = config.getBoolean("compression-priority.cgroup.enabled", false);
+        String compressionCpuQuota = config.getString("compression-priority.cgroup.cpu-max", "").trim();
+        if (!compressionCpuQuota.isEmpty() && !compressionCpuQuota.matches("\\d+%")) {
+            logger.log(intl("compression-priority-invalid"), "setting", "cgroup.cpu-max");
+            compressionCpuQuota = "";
+        }
+        String compressionIoMax = config.getString("compression-priority.cgroup.io-max", "").trim();
+        if (!compressionIoMax.isEmpty() && !compressionIoMax.matches("/\\S+\\s+\\d+[KMGT]?")) {
+            logger.log(intl("compression-priority-invalid"), "setting", "cgroup.io-max");
+            compressionIoMax = "";
+        }
+        // 服务器 MSPT 过高时暂停压缩，恢复阈值低于暂停阈值
+        boolean throttleEnabled = config.getBoolean("compression-throttle.enabled", true);
+        double throttlePauseMspt = config.getDouble("compression-throttle.pause-mspt", 45);
+        if (throttlePauseMspt <= 0) {
+            logger.log(intl("compression-throttle-invalid"), "setting", "pause-mspt");
+            throttlePauseMspt = 45;
+        }
+        double throttleResumeMspt = config.getDouble("compression-throttle.resume-mspt", 35);
+        if (throttleResumeMspt <= 0 || throttleResumeMspt >= throttlePauseMspt) {
+            logger.log(intl("compression-throttle-invalid"), "setting", "resume-mspt");
+            throttleResumeMspt = throttlePauseMspt * 0.75;
+        }
+        long throttleMaxPause = config.getLong("compression-throttle.max-pause", 600);
+        if (throttleMaxPause < 0) {
+            logger.log(intl("compression-throttle-invalid"), "setting", "max-pause");
+            throttleMaxPause = 600;
+        }
+        return new BackupStorage(delay, threadCounts, scanParallelism, dirtyTracking, scanMemoryLimit, keepCount,
+                localKeepCount, zipCompression, backupsRequirePlayers, disableSavingDuringBackups, snapshotStaging,
+                preBackupFlush, localDirectory, remoteDirectory, enableSpecifyCpuCores, cpuCoresList, compressionNice,
+                compressionIoClass, compressionIoPriority, compressionCgroup, compressionCpuQuota, compressionIoMax,
+                throttleEnabled, throttlePauseMspt, throttleResumeMspt, throttleMaxPause);
     }
 }
\ No newline at end of file
@@ -5,9 +5,12 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabCompleter;
 import org.jetbrains.annotations.NotNull;
 import windsor.sevenzipbackup.config.ConfigParser;
+import windsor.sevenzipbackup.config.configSections.BackupList.BackupListEntry;
 import windsor.sevenzipbackup.config.configSections.BackupMethods;
 import windsor.sevenzipbackup.constants.Permission;
+import windsor.sevenzipbackup.util.ChunkRepository;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -52,6 +55,8 @@ public class CommandTabComplete implements TabCompleter {
                 if (hasPerm(player, Permission.BACKUP)) {
                     commandList.add("backup");
                     commandList.add("test");
+                    commandList.add("restore");
+                    commandList.add("benchmark");
                     commandList.add("update");
                 }
                 return commandList;
@@ -69,6 +74,26 @@ public class CommandTabComplete implements TabCompleter {
                     return Collections.emptyList();
                 }
                 return getStrings();
+            } else if (args[0].equalsIgnoreCase("benchmark") && args.length == 2) {
+                if (!hasPerm(player, Permission.BACKUP)) {
+                    return Collections.emptyList();
+                }
+                List<String> commandList = new ArrayList<>();
+                for (BackupListEntry entry : ConfigParser.getConfig().backupList.list) {
+                    if (!entry.create) continue;
+                    for (Path folder : entry.location.getPaths()) {
+                        commandList.add(folder.toString());
+                    }
+                }
+                return commandList;
+            } else if (args[0].equalsIgnoreCase("restore") && (args.length == 2 || args.length == 3)) {
+                if (!hasPerm(player, Permission.BACKUP)) {
+                    return Collections.emptyList();
+                }
+                if (args.length == 2) {
+                    return ChunkRepository.findRepositoryLocations();
+                }
+                return ChunkRepository.forLocation(null, args[1]).listSnapshots();
             }
         }
         return Collections.emptyList();
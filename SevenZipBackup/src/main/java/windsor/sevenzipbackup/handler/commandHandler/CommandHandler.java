@@ -5,6 +5,8 @@ import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.jetbrains.annotations.NotNull;
+import windsor.sevenzipbackup.BenchmarkThread;
+import windsor.sevenzipbackup.RestoreThread;
 import windsor.sevenzipbackup.TestThread;
 import windsor.sevenzipbackup.UploadThread;
 import windsor.sevenzipbackup.config.PermissionHandler;
@@ -133,6 +135,22 @@ public class CommandHandler implements CommandExecutor {
                 Runnable testThread = new TestThread(sender, args);
                 new Thread(testThread).start();
                 break;
+            case "restore":
+                if (!PermissionHandler.hasPerm(sender, Permission.BACKUP)) {
+                    BasicCommands.sendNoPerms(sender);
+                    break;
+                }
+                Runnable restoreThread = new RestoreThread(sender, args);
+                new Thread(restoreThread).start();
+                break;
+            case "benchmark":
+                if (!PermissionHandler.hasPerm(sender, Permission.BACKUP)) {
+                    BasicCommands.sendNoPerms(sender);
+                    break;
+                }
+                Runnable benchmarkThread = new BenchmarkThread(sender, args);
+                new Thread(benchmarkThread).start();
+                break;
             case "update":
                 if (!PermissionHandler.hasPerm(sender, Permission.BACKUP)) {
                     BasicCommands.sendNoPerms(sender);
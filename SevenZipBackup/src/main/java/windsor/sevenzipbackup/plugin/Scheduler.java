@@ -28,6 +28,7 @@ import windsor.sevenzipbackup.config.ConfigParser;
 import windsor.sevenzipbackup.config.ConfigParser.Config;
 import windsor.sevenzipbackup.config.configSections.BackupScheduling.BackupScheduleEntry;
 import windsor.sevenzipbackup.util.MessageUtil;
+import windsor.sevenzipbackup.util.PreBackupFlush;
 import windsor.sevenzipbackup.util.SchedulerUtil;
 
 import static windsor.sevenzipbackup.config.Localization.intl;
@@ -87,6 +88,9 @@ public class Scheduler {
         // 先取消所有旧任务
         cancelAll();
 
+        // 计划备份前分散保存各世界的提前量
+        long flushLeadTicks = SchedulerUtil.sToTicks(config.backupStorage.preBackupFlush);
+
         if (config.backupScheduling.enabled) {
             for (BackupScheduleEntry entry : config.backupScheduling.schedule) {
                 ZoneId timezone = config.advanced.dateTimezone;
@@ -114,6 +118,13 @@ public class Scheduler {
                     // 异步重复任务
                     Cancellable task = runAsyncTimer(new UploadThread(), initialDelayTicks, periodTicks);
                     backupTasks.add(task);
+                    if (flushLeadTicks > 0 && flushLeadTicks < periodTicks) {
+                        long flushDelayTicks = initialDelayTicks - flushLeadTicks;
+                        if (flushDelayTicks < 0) {
+                            flushDelayTicks += periodTicks;
+                        }
+                        backupTasks.add(runAsyncTimer(new PreBackupFlush(), flushDelayTicks, periodTicks));
+                    }
                 }
                 // 调度提醒消息
                 ZonedDateTime scheduleMessageTime = ZonedDateTime.now(timezone)
@@ -150,6 +161,9 @@ public class Scheduler {
             long intervalTicks = SchedulerUtil.sToTicks(config.backupStorage.delay * 60L);
             Cancellable task = runAsyncTimer(new UploadThread(), intervalTicks, intervalTicks);
             backupTasks.add(task);
+            if (flushLeadTicks > 0 && flushLeadTicks < intervalTicks) {
+                backupTasks.add(runAsyncTimer(new PreBackupFlush(), intervalTicks - flushLeadTicks, intervalTicks));
+            }
             UploadThread.updateNextIntervalBackupTime();
         }
     }
@@ -286,6 +300,21 @@ public class Scheduler {
         return runAsyncTimer(task, initialDelayTicks, periodTicks);
     }
 
+    /**
+     * 延迟执行一次性异步任务（兼容 Paper 和 Folia）
+     * @param task 要执行的任务
+     * @param delayTicks 延迟（tick）
+     */
+    public static void runAsyncTaskLater(Runnable task, long delayTicks) {
+        SevenZipBackup plugin = SevenZipBackup.getInstance();
+        if (HAS_ASYNC_SCHEDULER) {
+            Bukkit.getAsyncScheduler().runDelayed(plugin, scheduledTask -> task.run(), delayTicks * 50,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            Bukkit.getScheduler().runTaskLaterAsynchronously(plugin, task, delayTicks);
+        }
+    }
+
     /**
      * 在服务器主线程（Folia 的全局区域线程）执行任务，并阻塞当前线程直到任务完成。
      * 仅用于从异步线程调用同步 API 的场景，注意避免死锁。
@@ -321,33 +350,52 @@ public class Scheduler {
     }
 
     /**
-     * 在指定世界的一个区域线程（Folia）或主线程（Paper）中执行任务，
-     * 并阻塞当前线程直到任务完成。
+     * 在指定世界的一个区域线程（Folia）或主线程（Paper）中执行任务，不等待任务完成。
+     * Folia 上不同世界的任务可以在各自的区域线程中同时执行；Paper 上同一 tick 提交的任务在主线程中依次执行。
      *
      * @param world 目标世界
      * @param task  要执行的任务
+     * @return 任务完成或抛出异常时完成的 future
      */
-    public static void runWorldTaskAndWait(World world, Runnable task) throws ExecutionException, InterruptedException {
+    public static CompletableFuture<Void> runWorldTask(World world, Runnable task) {
         SevenZipBackup plugin = SevenZipBackup.getInstance();
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        Runnable completing = () -> {
+            try {
+                task.run();
+                future.complete(null);
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        };
 
         if (IS_FOLIA) {
             // 使用出生点区块坐标，确保区域处于活跃状态
             Location spawn = world.getSpawnLocation();
             int chunkX = spawn.getBlockX() >> 4;
             int chunkZ = spawn.getBlockZ() >> 4;
+            Bukkit.getRegionScheduler().run(plugin, world, chunkX, chunkZ, scheduled -> completing.run());
+        } else if (Bukkit.isPrimaryThread()) {
+            completing.run();
+        } else {
+            Bukkit.getScheduler().runTask(plugin, completing);
+        }
+        return future;
+    }
 
-            CompletableFuture<Void> future = new CompletableFuture<>();
-            Bukkit.getRegionScheduler().run(plugin, world, chunkX, chunkZ, scheduled -> {
-                try {
-                    task.run();
-                    future.complete(null);
-                } catch (Exception e) {
-                    future.completeExceptionally(e);
-                }
-            });
+    /**
+     * 在指定世界的一个区域线程（Folia）或主线程（Paper）中执行任务，
+     * 并阻塞当前线程直到任务完成。
+     *
+     * @param world 目标世界
+     * @param task  要执行的任务
+     */
+    public static void runWorldTaskAndWait(World world, Runnable task) throws ExecutionException, InterruptedException {
+        SevenZipBackup plugin = SevenZipBackup.getInstance();
 
+        if (IS_FOLIA) {
             try {
-                future.get(30, TimeUnit.SECONDS); // 等待最多30秒
+                runWorldTask(world, task).get(30, TimeUnit.SECONDS); // 等待最多30秒
             } catch (InterruptedException | ExecutionException | TimeoutException e) {
                 throw new RuntimeException("World task execution failed", e);
             }
@@ -114,6 +114,8 @@ public class SevenZipBackup extends JavaPlugin {
     @Override
     public void onDisable() {
         Scheduler.stopBackupThread();
+        UploadThread.cancelRunningCompressions();
+        DirtyTracker.closeAll();
         UploadThread.cleanupBossBar(); // 清理BossBar
         SevenZipBackupApi.shutdown();
         MessageUtil.Builder().mmText(intl("plugin-stop")).send();
@@ -137,6 +139,9 @@ public class SevenZipBackup extends JavaPlugin {
      */
     public static void reloadLocalConfig() {
         Scheduler.stopBackupThread();
+        UploadThread.cancelRunningCompressions();
+        // 备份位置与黑名单可能改变，下一次备份重新进行完整扫描
+        DirtyTracker.closeAll();
         List<CommandSender> players = PermissionHandler.getPlayersWithPerm(Permission.RELOAD_CONFIG);
         getInstance().reloadConfig();
         FileConfiguration configFile = getInstance().getConfig();
@@ -17,6 +17,7 @@ import windsor.sevenzipbackup.uploaders.Authenticator;
 import windsor.sevenzipbackup.uploaders.Authenticator.AuthenticationProvider;
 import windsor.sevenzipbackup.uploaders.Obfusticate;
 import windsor.sevenzipbackup.uploaders.Uploader;
+import windsor.sevenzipbackup.util.BackupChain;
 import windsor.sevenzipbackup.util.MessageUtil;
 import windsor.sevenzipbackup.util.NetUtil;
 
@@ -24,8 +25,10 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Objects;
-import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 
 import static windsor.sevenzipbackup.config.Localization.intl;
@@ -221,15 +224,16 @@ public class DropboxUploader extends Uploader {
         if (fileLimit == -1) {
             return;
         }
-        TreeMap<Instant, String> files = getZipFiles(destination, type);
-        if (files.size() > fileLimit) {
+        List<String> files = getZipFiles(destination, type);
+        int backupCount = BackupChain.countBackups(files, name -> name);
+        if (backupCount > fileLimit) {
             logger.info(intl("backup-method-limit-reached"),
-                "file-count", String.valueOf(files.size()),
+                "file-count", String.valueOf(backupCount),
                 "upload-method", getName(),
                 "file-limit", String.valueOf(fileLimit));
-            while (files.size() > fileLimit) {
+            for (String file : BackupChain.selectForDeletion(files, name -> name, fileLimit)) {
                 JSONObject deleteJson = new JSONObject();
-                deleteJson.put("path", "/" + destination + "/" + type + "/" + files.firstEntry().getValue());
+                deleteJson.put("path", "/" + destination + "/" + type + "/" + file);
                 RequestBody deleteRequestBody = RequestBody.create(deleteJson.toString(),
                                                         MediaType.parse("application/json"));
                 Request deleteRequest = new Request.Builder()
@@ -239,18 +243,17 @@ public class DropboxUploader extends Uploader {
                     .build();
                 Response deleteResponse = SevenZipBackup.httpClient.newCall(deleteRequest).execute();
                 deleteResponse.close();
-                files.remove(files.firstKey());
             }
         }
     }
 
     /**
-     * Returns a list of ZIP files, and their modification dates inside the given folder.
-     * @return a map of files, and their modification dates
+     * Returns the names of the ZIP files inside the given folder, sorted from oldest to newest.
+     * @return a list of file names
      */
     @NotNull
-    private TreeMap<Instant, String> getZipFiles(String destination, String type) throws Exception {
-        TreeMap<Instant, String> files = new TreeMap<>();
+    private List<String> getZipFiles(String destination, String type) throws Exception {
+        List<JSONObject> files = new ArrayList<>();
         JSONObject json = new JSONObject();
         json.put("path", "/" + destination + "/" + type);
         RequestBody requestBody = RequestBody.create(json.toString(), MediaType.parse("application/json"));
@@ -265,11 +268,18 @@ public class DropboxUploader extends Uploader {
         response.close();
         for (int i = 0; i < resFiles.length(); i++) {
             JSONObject file = resFiles.getJSONObject(i);
-            if (file.getString("name").endsWith(".7z")) {
-                files.put(Instant.parse(file.getString("server_modified")), file.getString("name"));
+            if (BackupChain.isBackupFile(file.getString("name"))) {
+                files.add(file);
             }
         }
-        return files;
+        // 同一秒内上传的分卷按名称排序，不会相互覆盖
+        files.sort(Comparator.comparing((JSONObject file) -> Instant.parse(file.getString("server_modified")))
+                .thenComparing(file -> file.getString("name")));
+        List<String> names = new ArrayList<>(files.size());
+        for (JSONObject file : files) {
+            names.add(file.getString("name"));
+        }
+        return names;
     }
 
     /**
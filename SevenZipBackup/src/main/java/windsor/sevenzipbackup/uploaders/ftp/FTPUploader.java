@@ -11,6 +11,7 @@ import windsor.sevenzipbackup.UploadThread.UploadLogger;
 import windsor.sevenzipbackup.config.ConfigParser;
 import windsor.sevenzipbackup.config.configSections.BackupMethods.FTPBackupMethod;
 import windsor.sevenzipbackup.uploaders.Uploader;
+import windsor.sevenzipbackup.util.BackupChain;
 import windsor.sevenzipbackup.util.MessageUtil;
 import windsor.sevenzipbackup.util.NetUtil;
 
@@ -20,8 +21,8 @@ import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.TreeMap;
+import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static windsor.sevenzipbackup.config.Localization.intl;
@@ -279,32 +280,34 @@ public class FTPUploader extends Uploader {
         if (fileLimit == -1) {
             return;
         }
-        TreeMap<Date, FTPFile> files = getZipFiles();
-        if (files.size() > fileLimit) {
+        List<FTPFile> files = getZipFiles();
+        int backupCount = BackupChain.countBackups(files, FTPFile::getName);
+        if (backupCount > fileLimit) {
             logger.info(
                 intl("backup-method-limit-reached"), 
-                "file-count", String.valueOf(files.size()),
+                "file-count", String.valueOf(backupCount),
                 "upload-method", getName(),
                 "file-limit", String.valueOf(fileLimit));
-            while (files.size() > fileLimit) {
-                ftpClient.deleteFile(files.firstEntry().getValue().getName());
-                files.remove(files.firstKey());
+            for (FTPFile file : BackupChain.selectForDeletion(files, FTPFile::getName, fileLimit)) {
+                ftpClient.deleteFile(file.getName());
             }
         }
     }
 
     /**
-     * Returns a list of ZIP files, and their modification dates inside the current working directory.
-     * @return a map of ZIP files, and their modification dates
+     * Returns a list of ZIP files inside the current working directory, sorted from oldest to newest.
+     * @return a list of ZIP files
      */
     @NotNull
-    private TreeMap<Date, FTPFile> getZipFiles() throws Exception {
-        TreeMap<Date, FTPFile> files = new TreeMap<>();
+    private List<FTPFile> getZipFiles() throws Exception {
+        List<FTPFile> files = new ArrayList<>();
         for (FTPFile file : ftpClient.mlistDir()) {
-            if (file.getName().endsWith(".7z")) {
-                files.put(file.getTimestamp().getTime(), file);
+            if (BackupChain.isBackupFile(file.getName())) {
+                files.add(file);
             }
         }
+        // 同一秒内上传的分卷按名称排序，不会相互覆盖
+        files.sort(Comparator.comparing(FTPFile::getTimestamp).thenComparing(FTPFile::getName));
         return files;
     }
 
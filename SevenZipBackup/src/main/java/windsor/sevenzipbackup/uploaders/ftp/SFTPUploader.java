@@ -7,6 +7,7 @@ import windsor.sevenzipbackup.config.ConfigParser;
 import windsor.sevenzipbackup.config.ConfigParser.Config;
 import windsor.sevenzipbackup.config.configSections.BackupMethods.FTPBackupMethod;
 import windsor.sevenzipbackup.plugin.SevenZipBackup;
+import windsor.sevenzipbackup.util.BackupChain;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -202,32 +203,35 @@ public class SFTPUploader {
         if (fileLimit == -1) {
             return;
         }
-        TreeMap<Date, RemoteResourceInfo> files = getZipFiles();
-        if (files.size() > fileLimit) {
+        List<RemoteResourceInfo> files = getZipFiles();
+        int backupCount = BackupChain.countBackups(files, RemoteResourceInfo::getName);
+        if (backupCount > fileLimit) {
             logger.info(
                 intl("backup-method-limit-reached"), 
-                "file-count", String.valueOf(files.size()),
+                "file-count", String.valueOf(backupCount),
                 "upload-method", "(S)FTP",
                 "file-limit", String.valueOf(fileLimit));
-            while (files.size() > fileLimit) {
-                sftpClient.rm(files.firstEntry().getValue().getName());
-                files.remove(files.firstEntry().getKey());
+            for (RemoteResourceInfo file : BackupChain.selectForDeletion(files, RemoteResourceInfo::getName, fileLimit)) {
+                sftpClient.rm(file.getName());
             }
         }
     }
 
     /**
-     * Returns a list of ZIP files, and their modification dates inside the current working directory.
-     * @return a map of the files and their modification dates
+     * Returns a list of ZIP files inside the current working directory, sorted from oldest to newest.
+     * @return a list of the files
      */
     @NotNull
-    private TreeMap<Date, RemoteResourceInfo> getZipFiles() throws Exception {
-        TreeMap<Date, RemoteResourceInfo> files = new TreeMap<>();
+    private List<RemoteResourceInfo> getZipFiles() throws Exception {
+        List<RemoteResourceInfo> files = new ArrayList<>();
         for (RemoteResourceInfo file : sftpClient.ls()) {
-            if (file.getName().endsWith(".7z")) {
-                files.put(new Date(file.getAttributes().getMtime()), file);
+            if (BackupChain.isBackupFile(file.getName())) {
+                files.add(file);
             }
         }
+        // 修改时间精度为 1 秒，同一秒内上传的分卷按名称排序，不会相互覆盖
+        files.sort(Comparator.comparingLong((RemoteResourceInfo file) -> file.getAttributes().getMtime())
+                .thenComparing(RemoteResourceInfo::getName));
         return files;
     }
 
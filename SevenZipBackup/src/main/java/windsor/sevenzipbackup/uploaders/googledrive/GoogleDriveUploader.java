@@ -11,8 +11,6 @@ import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.client.util.Strings;
 import com.google.api.services.drive.Drive;
-import com.google.api.services.drive.model.ChildList;
-import com.google.api.services.drive.model.ChildReference;
 import com.google.api.services.drive.model.File;
 import com.google.api.services.drive.model.FileList;
 import com.google.api.services.drive.model.ParentReference;
@@ -33,6 +31,7 @@ import windsor.sevenzipbackup.uploaders.Authenticator;
 import windsor.sevenzipbackup.uploaders.Authenticator.AuthenticationProvider;
 import windsor.sevenzipbackup.uploaders.Obfusticate;
 import windsor.sevenzipbackup.uploaders.Uploader;
+import windsor.sevenzipbackup.util.BackupChain;
 import windsor.sevenzipbackup.util.MessageUtil;
 import windsor.sevenzipbackup.util.NetUtil;
 
@@ -444,20 +443,33 @@ public class GoogleDriveUploader extends Uploader {
     }
 
     /**
-     * Returns a list of files in the specified folder in the authenticated user's Google Drive, ordered by creation date.
+     * Returns a list of backup archives in the specified folder in the authenticated user's Google Drive, ordered by creation date.
      * @param folder the folder containing the files
      * @return a list of files
      */
     @NotNull
-    private List<ChildReference> getFiles(@NotNull File folder) throws Exception {
+    private List<File> getFiles(@NotNull File folder) throws Exception {
         //Create a List to store results
-        List<ChildReference> result = new ArrayList<>();
-        Drive.Children.List request = service.children().list(folder.getId()).setOrderBy("createdDate");
+        List<File> result = new ArrayList<>();
+        Drive.Files.List request = service.files().list()
+            .setSupportsAllDrives(true)
+            .setIncludeItemsFromAllDrives(true)
+            .setQ("trashed=false and '" + folder.getId() + "' in parents")
+            .setOrderBy("createdDate,title");
+        String sharedDriveId = ConfigParser.getConfig().backupMethods.googleDrive.sharedDriveId;
+        if (!Strings.isNullOrEmpty(sharedDriveId)) {
+            request.setCorpora("drive").setDriveId(sharedDriveId);
+        }
         //While there is a page available, request files and add them to the Result List.
         do {
             try {
-                ChildList files = request.execute();
-                result.addAll(files.getItems());
+                FileList files = request.execute();
+                // 只保留备份压缩文件，去重仓库的数据包与快照不参与按数量清理
+                for (File file : files.getItems()) {
+                    if (BackupChain.isBackupFile(file.getTitle())) {
+                        result.add(file);
+                    }
+                }
                 request.setPageToken(files.getNextPageToken());
             } catch (IOException e) {
                 MessageUtil.sendConsoleException(e);
@@ -479,21 +491,17 @@ public class GoogleDriveUploader extends Uploader {
         if (fileLimit == -1) {
             return;
         }
-        List<ChildReference> files = getFiles(folder);
-        if (files.size() > fileLimit) {
+        List<File> files = getFiles(folder);
+        int backupCount = BackupChain.countBackups(files, File::getTitle);
+        if (backupCount > fileLimit) {
             logger.info(
                 intl("backup-method-limit-reached"), 
-                "file-count", String.valueOf(files.size()),
+                "file-count", String.valueOf(backupCount),
                 "upload-method", getName(),
                 "file-limit", String.valueOf(fileLimit));
-            for (Iterator<ChildReference> iterator = files.iterator(); iterator.hasNext(); ) {
-                if (files.size() == fileLimit) {
-                    break;
-                }
-                ChildReference file = iterator.next();
+            for (File file : BackupChain.selectForDeletion(files, File::getTitle, fileLimit)) {
                 Drive.Files.Delete removeItem = service.files().delete(file.getId()).setSupportsAllDrives(true);
                 removeItem.execute();
-                iterator.remove();
             }
         }
     }
@@ -17,6 +17,7 @@ import windsor.sevenzipbackup.uploaders.Authenticator;
 import windsor.sevenzipbackup.uploaders.Authenticator.AuthenticationProvider;
 import windsor.sevenzipbackup.uploaders.Obfusticate;
 import windsor.sevenzipbackup.uploaders.Uploader;
+import windsor.sevenzipbackup.util.BackupChain;
 import windsor.sevenzipbackup.util.MessageUtil;
 import windsor.sevenzipbackup.util.NetUtil;
 
@@ -543,20 +544,23 @@ public class OneDriveUploader extends Uploader {
         if (fileLimit == -1) {
             return;
         }
-        List<JSONObject> childItems = getChildren(parent, "?$select=id,createdDateTime");
-        if(fileLimit >= childItems.size()) {
+        List<JSONObject> childItems = getChildren(parent, "?$select=id,name,createdDateTime");
+        // 只保留备份压缩文件，去重仓库的数据包与快照不参与按数量清理
+        childItems.removeIf(item -> !BackupChain.isBackupFile(item.getString("name")));
+        int backupCount = BackupChain.countBackups(childItems, item -> item.getString("name"));
+        if(fileLimit >= backupCount) {
             return;
         }
         logger.info(
             intl("backup-method-limit-reached"),
-            "file-count", String.valueOf(childItems.size()),
+            "file-count", String.valueOf(backupCount),
             "upload-method", getName(),
             "file-limit", String.valueOf(fileLimit));
-        childItems.sort(Comparator.comparing(item -> item.getString("createdDateTime")));
-        int itemsToDelete = childItems.size() - fileLimit;
-        for (int i = 0; i < itemsToDelete; i++) {
-            String itemId = childItems.get(i).getString("id");
-            recycleItem(parent.driveId, itemId);
+        // 同一时刻上传的分卷按名称排序
+        childItems.sort(Comparator.comparing((JSONObject item) -> item.getString("createdDateTime"))
+                .thenComparing(item -> item.getString("name")));
+        for (JSONObject item : BackupChain.selectForDeletion(childItems, child -> child.getString("name"), fileLimit)) {
+            recycleItem(parent.driveId, item.getString("id"));
         }
     }
 
@@ -12,14 +12,15 @@ import windsor.sevenzipbackup.config.ConfigParser;
 import windsor.sevenzipbackup.config.configSections.BackupMethods.S3BackupMethod;
 import windsor.sevenzipbackup.uploaders.Authenticator;
 import windsor.sevenzipbackup.uploaders.Uploader;
+import windsor.sevenzipbackup.util.BackupChain;
 import windsor.sevenzipbackup.util.MessageUtil;
 import windsor.sevenzipbackup.util.NetUtil;
 
 import java.io.File;
 import java.net.URL;
-import java.time.ZonedDateTime;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 
 import static windsor.sevenzipbackup.config.Localization.intl;
 
@@ -107,30 +108,33 @@ public class S3Uploader extends Uploader {
         if (fileLimit == -1) {
             return;
         }
-        TreeMap<ZonedDateTime, Item> files = getZipFiles(type);
-        if (files.size() > fileLimit) {
+        List<Item> files = getZipFiles(type);
+        int backupCount = BackupChain.countBackups(files, Item::objectName);
+        if (backupCount > fileLimit) {
             logger.info(
                     intl("backup-method-limit-reached"),
-                    "file-count", String.valueOf(files.size()),
+                    "file-count", String.valueOf(backupCount),
                     "upload-method", getName(),
                     "file-limit", String.valueOf(fileLimit));
-            while (files.size() > fileLimit) {
-                Map.Entry<ZonedDateTime, Item> firstEntry = files.firstEntry();
-                minioClient.removeObject(RemoveObjectArgs.builder().bucket(_bucket).object(firstEntry.getValue().objectName()).build());
-                files.remove(firstEntry.getKey());
+            for (Item item : BackupChain.selectForDeletion(files, Item::objectName, fileLimit)) {
+                minioClient.removeObject(RemoveObjectArgs.builder().bucket(_bucket).object(item.objectName()).build());
             }
         }
     }
 
     @NotNull
-    private TreeMap<ZonedDateTime, Item> getZipFiles(String type) throws Exception {
+    private List<Item> getZipFiles(String type) throws Exception {
         type = normalizeType(type);
         String prefix = type + "/";
-        TreeMap<ZonedDateTime, Item> files = new TreeMap<>();
+        List<Item> files = new ArrayList<>();
         for (Result<Item> result : minioClient.listObjects(ListObjectsArgs.builder().bucket(_bucket).prefix(prefix).build())) {
             Item item = result.get();
-            files.put(item.lastModified(), item);
+            if (BackupChain.isBackupFile(item.objectName())) {
+                files.add(item);
+            }
         }
+        // 同一时刻上传的分卷按名称排序，不会相互覆盖
+        files.sort(Comparator.comparing(Item::lastModified).thenComparing(Item::objectName));
         return files;
     }
 
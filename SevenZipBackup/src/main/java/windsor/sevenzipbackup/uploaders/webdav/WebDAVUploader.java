@@ -5,6 +5,7 @@ import windsor.sevenzipbackup.uploaders.Uploader;
 import windsor.sevenzipbackup.UploadThread.UploadLogger;
 import windsor.sevenzipbackup.config.ConfigParser;
 import windsor.sevenzipbackup.config.configSections.BackupMethods.WebDAVBackupMethod;
+import windsor.sevenzipbackup.util.BackupChain;
 import windsor.sevenzipbackup.util.MessageUtil;
 import windsor.sevenzipbackup.util.NetUtil;
 
@@ -184,33 +185,35 @@ public class WebDAVUploader extends Uploader {
         if (fileLimit == -1) {
             return;
         }
-        TreeMap<Date, DavResource> files = getZipFiles(type);
-        if (files.size() > fileLimit) {
+        List<DavResource> files = getZipFiles(type);
+        int backupCount = BackupChain.countBackups(files, DavResource::getName);
+        if (backupCount > fileLimit) {
             logger.info(
                 intl("backup-method-limit-reached"), 
-                "file-count", String.valueOf(files.size()),
+                "file-count", String.valueOf(backupCount),
                 "upload-method", getName(),
                 "file-limit", String.valueOf(fileLimit));
-            while (files.size() > fileLimit) {
-                sardine.delete(new URL(_remoteBaseFolder + "/" + type + "/" + files.firstEntry().getValue().getName()).toString());
-                files.remove(files.firstKey());
+            for (DavResource file : BackupChain.selectForDeletion(files, DavResource::getName, fileLimit)) {
+                sardine.delete(new URL(_remoteBaseFolder + "/" + type + "/" + file.getName()).toString());
             }
         }
     }
 
     /**
-     * Returns a list of ZIP files, and their modification dates inside the current working directory.
-     * @return a map of ZIP files, and their modification dates
+     * Returns a list of ZIP files inside the current working directory, sorted from oldest to newest.
+     * @return a list of ZIP files
      */
     @NotNull
-    private TreeMap<Date, DavResource> getZipFiles(String type) throws Exception {
-        TreeMap<Date, DavResource> files = new TreeMap<>();
+    private List<DavResource> getZipFiles(String type) throws Exception {
+        List<DavResource> files = new ArrayList<>();
         List<DavResource> resources = sardine.list(new URL(_remoteBaseFolder + "/" + type).toString());
         for (DavResource resource : resources) {
-            if (resource.getName().endsWith(".7z")) {
-                files.put(resource.getModified(), resource);
+            if (BackupChain.isBackupFile(resource.getName())) {
+                files.add(resource);
             }
         }
+        // 同一秒内上传的分卷按名称排序，不会相互覆盖
+        files.sort(Comparator.comparing(DavResource::getModified).thenComparing(DavResource::getName));
         return files;
     }
 
@@ -0,0 +1,148 @@
+package windsor.sevenzipbackup.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import windsor.sevenzipbackup.BackupProgressCallback;
+import windsor.sevenzipbackup.UploadThread.UploadLogger;
+import windsor.sevenzipbackup.config.configSections.BackupList.BackupListEntry.Compression;
+import windsor.sevenzipbackup.config.configSections.BackupList.BackupListEntry.Engine;
+import windsor.sevenzipbackup.util.FileUtil.BackupFileList;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+
+/**
+ * 将文件列表压缩为 7z 压缩文件的压缩引擎。
+ * <p>
+ * 每个实例一次只执行一个 {@link #compress} 调用，{@link #cancel} 可以从其他线程中止它。
+ * 不同引擎生成的都是 7z 格式，备份链、清理与上传不区分引擎。
+ */
+public interface ArchiveEngine {
+    /**
+     * 数据量不超过此值的位置在 {@code engine: "auto"} 下使用内置引擎，
+     * 此时启动 7zr 进程与写入列表文件的开销占了压缩耗时的大部分
+     */
+    long SMALL_LOCATION_BYTES = 16L * 1024 * 1024;
+
+    /**
+     * 引擎名称，用于日志与测速结果
+     */
+    @NotNull
+    String getName();
+
+    /**
+     * 压缩任务中选中的文件
+     *
+     * @return 因无法读取而被跳过的文件（相对于输入文件夹）
+     * @throws java.util.concurrent.CancellationException 压缩被 {@link #cancel} 中止
+     */
+    @NotNull
+    List<String> compress(@NotNull Job job, @Nullable BackupProgressCallback callback) throws Exception;
+
+    /**
+     * 中止正在进行的压缩并删除未写完的输出；没有正在进行的压缩时，下一次压缩会立即中止
+     */
+    void cancel();
+
+    /**
+     * 暂停正在进行的压缩直到 {@link #resume}，暂停期间开始的压缩步骤同样保持暂停
+     *
+     * @return 是否已暂停；无法暂停时压缩照常进行
+     */
+    boolean pause();
+
+    /**
+     * 恢复被 {@link #pause} 暂停的压缩
+     */
+    void resume();
+
+    /**
+     * 创建指定的引擎，{@link Engine#AUTO} 需要先用 {@link #resolve} 确定
+     */
+    @NotNull
+    static ArchiveEngine create(@NotNull Engine engine, @NotNull UploadLogger logger) {
+        if (engine == Engine.JAVA) {
+            return new JavaArchiveEngine(logger);
+        }
+        return new SevenZipProcessEngine(logger);
+    }
+
+    /**
+     * 确定一个位置实际使用的引擎：{@link Engine#AUTO} 对小位置使用内置引擎，其余使用 7zr；
+     * 内置引擎不支持分卷，设置了分卷大小时总是使用 7zr
+     *
+     * @param totalBytes 位置的数据量
+     */
+    @NotNull
+    static Engine resolve(@NotNull Engine configured, long totalBytes, long volumeSize) {
+        if (volumeSize > 0) {
+            return Engine.SEVEN_ZIP;
+        }
+        if (configured == Engine.AUTO) {
+            return totalBytes <= SMALL_LOCATION_BYTES ? Engine.JAVA : Engine.SEVEN_ZIP;
+        }
+        return configured;
+    }
+
+    /**
+     * 一次压缩的输入与设置
+     */
+    final class Job {
+        final String inputFolderPath;
+        final File outputFile;
+        final BackupFileList fileList;
+        final IntPredicate selection;
+        final List<Path> extraFiles;
+        final int progressTotal;
+        final long progressBytes;
+        final Compression compression;
+        final CoreBudget.Slice cores;
+        final long volumeSize;
+        final Consumer<File> volumeListener;
+
+        /**
+         * @param selection      要压缩的条目
+         * @param extraFiles     附加在压缩文件根目录的其他文件
+         * @param progressTotal  进度回调使用的文件总数
+         * @param progressBytes  选中文件的总字节数，用于换算已处理字节数
+         * @param cores          分配给该任务的 CPU 核心
+         * @param volumeSize     分卷大小（MB），0 表示不分卷
+         * @param volumeListener 接收已写完的分卷，可为 {@code null}；第一个分卷在压缩成功后最后交出
+         */
+        public Job(@NotNull String inputFolderPath, @NotNull String outputFilePath, @NotNull BackupFileList fileList,
+                   @NotNull IntPredicate selection, @NotNull List<Path> extraFiles, int progressTotal,
+                   long progressBytes, @NotNull Compression compression, @NotNull CoreBudget.Slice cores,
+                   long volumeSize, @Nullable Consumer<File> volumeListener) {
+            this.inputFolderPath = inputFolderPath;
+            this.outputFile = new File(outputFilePath).getAbsoluteFile();
+            this.fileList = fileList;
+            this.selection = selection;
+            this.extraFiles = extraFiles;
+            this.progressTotal = progressTotal;
+            this.progressBytes = progressBytes;
+            this.compression = compression;
+            this.cores = cores;
+            this.volumeSize = volumeSize;
+            this.volumeListener = volumeListener;
+        }
+
+        /**
+         * 压缩列表中的全部文件，不分卷
+         */
+        @NotNull
+        public static Job of(@NotNull String inputFolderPath, @NotNull String outputFilePath,
+                             @NotNull BackupFileList fileList, @NotNull Compression compression,
+                             @NotNull CoreBudget.Slice cores) {
+            return new Job(inputFolderPath, outputFilePath, fileList, index -> true, List.of(), fileList.size(),
+                    fileList.getTotalSize(), compression, cores, 0, null);
+        }
+
+        @NotNull
+        public File getOutputFile() {
+            return outputFile;
+        }
+    }
+}
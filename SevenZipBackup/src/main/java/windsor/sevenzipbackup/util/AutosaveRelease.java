@@ -0,0 +1,126 @@
+package windsor.sevenzipbackup.util;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.jetbrains.annotations.NotNull;
+import windsor.sevenzipbackup.UploadThread.UploadLogger;
+
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 按世界恢复自动保存：每个世界记录与其世界文件夹重叠的备份位置（位置在世界文件夹中，或世界文件夹在位置中），
+ * 这些位置都已创建快照或压缩结束后立即恢复该世界的自动保存，不必等待插件文件夹、外部备份等其他位置。
+ * 没有与任何备份位置重叠的世界在 {@link #start()} 时即恢复。
+ */
+public final class AutosaveRelease {
+    private final UploadLogger logger;
+    private final long disabledAt;
+    private final Map<World, Path> worldFolders = new LinkedHashMap<>();
+    /**
+     * 尚未恢复自动保存的世界，及其尚未完成的备份位置
+     */
+    private final Map<World, Set<Integer>> pending = new LinkedHashMap<>();
+
+    /**
+     * @param disabledAt 暂停自动保存的时间（{@link System#nanoTime()}）
+     */
+    public AutosaveRelease(@NotNull UploadLogger logger, long disabledAt) {
+        this.logger = logger;
+        this.disabledAt = disabledAt;
+        for (World world : Bukkit.getWorlds()) {
+            worldFolders.put(world, normalize(world.getWorldFolder().toPath()));
+            pending.put(world, new HashSet<>());
+        }
+    }
+
+    /**
+     * 登记备份位置，所有位置须在 {@link #start()} 之前登记
+     *
+     * @param key 位置在本次备份中的序号
+     */
+    public synchronized void track(int key, @NotNull Path location) {
+        Path folder = normalize(location);
+        for (Map.Entry<World, Path> world : worldFolders.entrySet()) {
+            if (overlaps(world.getValue(), folder)) {
+                Set<Integer> keys = pending.get(world.getKey());
+                if (keys != null) {
+                    keys.add(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * 备份位置是否包含世界文件，这些位置应最先扫描与压缩
+     */
+    public boolean coversWorld(@NotNull Path location) {
+        Path folder = normalize(location);
+        for (Path world : worldFolders.values()) {
+            if (overlaps(world, folder)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 登记结束，恢复没有与任何备份位置重叠的世界
+     */
+    public synchronized void start() {
+        releaseFinished();
+    }
+
+    /**
+     * 备份位置已创建快照或压缩结束，不再读取其中的世界文件
+     */
+    public synchronized void release(int key) {
+        for (Set<Integer> keys : pending.values()) {
+            keys.remove(key);
+        }
+        releaseFinished();
+    }
+
+    /**
+     * 恢复所有世界的自动保存，备份结束或失败时调用
+     */
+    public synchronized void releaseAll() {
+        if (pending.isEmpty()) return;
+        for (Set<Integer> keys : pending.values()) {
+            keys.clear();
+        }
+        releaseFinished();
+    }
+
+    private void releaseFinished() {
+        Iterator<Map.Entry<World, Set<Integer>>> iterator = pending.entrySet().iterator();
+        boolean released = false;
+        while (iterator.hasNext()) {
+            Map.Entry<World, Set<Integer>> entry = iterator.next();
+            if (!entry.getValue().isEmpty()) continue;
+            iterator.remove();
+            entry.getKey().setAutoSave(true);
+            released = true;
+            logger.info("世界 " + entry.getKey().getName() + " 的自动保存已恢复，暂停了 " + elapsed() + " 秒");
+        }
+        if (released && pending.isEmpty()) {
+            logger.info("自动保存暂停了 " + elapsed() + " 秒");
+        }
+    }
+
+    private String elapsed() {
+        return String.format("%.1f", (System.nanoTime() - disabledAt) / 1e9);
+    }
+
+    private static boolean overlaps(Path world, Path location) {
+        return world.startsWith(location) || location.startsWith(world);
+    }
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+}
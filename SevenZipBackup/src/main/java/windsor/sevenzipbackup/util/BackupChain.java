@@ -0,0 +1,194 @@
+package windsor.sevenzipbackup.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * 完整备份与差异备份组成的备份链。
+ * <p>
+ * 每个差异备份只包含自最近一次完整备份（基准）以来新增或修改的文件，以及一份已删除文件列表，
+ * 恢复时只需要基准与该差异备份。按时间排列时，一条链由一个完整备份及其后的若干差异备份组成。
+ * <p>
+ * 启用分卷时，一个备份由 {@code 名称.7z.001}、{@code 名称.7z.002}……组成的分卷组构成，
+ * 保留策略按分卷组计数并整体删除。第一个分卷只在压缩成功后最后上传（见 {@link VolumeWatcher}），
+ * 因此缺少第一个分卷的分卷组是未完成的备份：它不计入保留数量；不是最新的备份时（压缩失败或被取消后留下的分卷）
+ * 会被整体删除，最新的则可能仍在上传，保持不动。
+ * <p>
+ * 本地与远程的保留策略共用 {@link #selectForDeletion}，保证仍被差异备份依赖的基准不会被删除。
+ */
+public final class BackupChain {
+    public static final String ARCHIVE_SUFFIX = ".7z";
+    public static final String DIFFERENTIAL_SUFFIX = ".diff.7z";
+    /**
+     * 差异备份中记录已删除文件（相对路径，每行一个）的条目名
+     */
+    public static final String DELETION_LIST = ".deleted-files";
+    /**
+     * 7z 分卷编号的位数
+     */
+    private static final int VOLUME_DIGITS = 3;
+
+    private BackupChain() {
+    }
+
+    public static boolean isDifferential(@NotNull String fileName) {
+        return getBackupName(fileName).endsWith(DIFFERENTIAL_SUFFIX);
+    }
+
+    /**
+     * 是否为备份文件（完整的压缩文件或其中一个分卷）
+     */
+    public static boolean isBackupFile(@NotNull String fileName) {
+        return fileName.endsWith(ARCHIVE_SUFFIX) || isVolume(fileName);
+    }
+
+    /**
+     * 是否为分卷（{@code .7z.001} 等）
+     */
+    public static boolean isVolume(@NotNull String fileName) {
+        int length = fileName.length();
+        if (length < ARCHIVE_SUFFIX.length() + VOLUME_DIGITS + 1 || fileName.charAt(length - VOLUME_DIGITS - 1) != '.') {
+            return false;
+        }
+        for (int i = length - VOLUME_DIGITS; i < length; i++) {
+            if (!Character.isDigit(fileName.charAt(i))) return false;
+        }
+        return fileName.startsWith(ARCHIVE_SUFFIX, length - VOLUME_DIGITS - 1 - ARCHIVE_SUFFIX.length());
+    }
+
+    /**
+     * 去掉分卷编号，得到分卷组共用的备份名称
+     */
+    @NotNull
+    public static String getBackupName(@NotNull String fileName) {
+        return isVolume(fileName) ? fileName.substring(0, fileName.length() - VOLUME_DIGITS - 1) : fileName;
+    }
+
+    /**
+     * 获取分卷的路径
+     *
+     * @param archivePath 压缩文件路径（不含分卷编号）
+     * @param volume      分卷编号，从 1 开始
+     */
+    @NotNull
+    public static String getVolumePath(@NotNull String archivePath, int volume) {
+        return archivePath + "." + String.format("%0" + VOLUME_DIGITS + "d", volume);
+    }
+
+    /**
+     * 由完整备份的输出路径得到对应的差异备份路径
+     */
+    @NotNull
+    public static String toDifferentialPath(@NotNull String outputPath) {
+        if (outputPath.endsWith(ARCHIVE_SUFFIX)) {
+            outputPath = outputPath.substring(0, outputPath.length() - ARCHIVE_SUFFIX.length());
+        }
+        return outputPath + DIFFERENTIAL_SUFFIX;
+    }
+
+    /**
+     * 统计备份数，同一分卷组的文件计为一个备份，缺少第一个分卷的分卷组不计入
+     */
+    public static <T> int countBackups(@NotNull Collection<T> files, @NotNull Function<T, String> nameOf) {
+        Set<String> names = new HashSet<>();
+        Set<String> complete = new HashSet<>();
+        for (T file : files) {
+            String name = nameOf.apply(file);
+            String backupName = getBackupName(name);
+            names.add(backupName);
+            if (isFirstOrOnlyFile(name)) {
+                complete.add(backupName);
+            }
+        }
+        names.retainAll(complete);
+        return names.size();
+    }
+
+    /**
+     * 是否为单个压缩文件或分卷组的第一个分卷
+     */
+    private static boolean isFirstOrOnlyFile(@NotNull String fileName) {
+        return !isVolume(fileName) || fileName.equals(getVolumePath(getBackupName(fileName), 1));
+    }
+
+    /**
+     * 选择超出保留数量时应删除的备份文件。同一分卷组的文件视为一个备份，按组内最早的文件排序并整体删除。
+     * 缺少第一个分卷的分卷组不计入保留数量，除最新的一个外最先被删除。
+     *
+     * @param files     按创建时间从旧到新排列的备份文件
+     * @param nameOf    获取备份文件名
+     * @param keepCount 要保留的备份数
+     * @return 要删除的文件，按删除顺序排列
+     */
+    @NotNull
+    public static <T> List<T> selectForDeletion(@NotNull List<T> files, @NotNull Function<T, String> nameOf, int keepCount) {
+        Map<String, List<T>> volumeSets = new LinkedHashMap<>();
+        for (T file : files) {
+            volumeSets.computeIfAbsent(getBackupName(nameOf.apply(file)), name -> new ArrayList<>()).add(file);
+        }
+        List<T> selected = new ArrayList<>();
+        List<List<T>> complete = new ArrayList<>(volumeSets.size());
+        int index = 0;
+        for (List<T> volumeSet : volumeSets.values()) {
+            boolean newest = ++index == volumeSets.size();
+            if (volumeSet.stream().anyMatch(file -> isFirstOrOnlyFile(nameOf.apply(file)))) {
+                complete.add(volumeSet);
+            } else if (!newest) {
+                selected.addAll(volumeSet);
+            }
+        }
+        for (List<T> volumeSet : selectBackupsForDeletion(complete,
+                volumeSet -> nameOf.apply(volumeSet.get(0)), keepCount)) {
+            selected.addAll(volumeSet);
+        }
+        return selected;
+    }
+
+    /**
+     * 选择超出保留数量时应删除的备份。
+     * <p>
+     * 从最旧的链开始：先删除其差异备份，再删除其基准；最新的一条链始终保留基准与最新的差异备份，
+     * 因此当依赖关系不允许时，保留的备份数可能多于 {@code keepCount}。
+     * 位于第一个完整备份之前的差异备份已失去基准，最先被删除。
+     *
+     * @param backups   按创建时间从旧到新排列的备份
+     * @param nameOf    获取备份文件名
+     * @param keepCount 要保留的备份数
+     * @return 要删除的备份，按删除顺序排列
+     */
+    @NotNull
+    private static <T> List<T> selectBackupsForDeletion(@NotNull List<T> backups, @NotNull Function<T, String> nameOf, int keepCount) {
+        List<T> selected = new ArrayList<>();
+        int total = backups.size();
+        int remaining = total;
+        int start = 0;
+        while (remaining > keepCount && start < total) {
+            int end = start + 1;
+            while (end < total && isDifferential(nameOf.apply(backups.get(end)))) {
+                end++;
+            }
+            boolean hasBase = !isDifferential(nameOf.apply(backups.get(start)));
+            boolean newest = end == total;
+            int firstDifferential = hasBase ? start + 1 : start;
+            int lastDeletable = newest ? end - 1 : end;
+            for (int i = firstDifferential; i < lastDeletable && remaining > keepCount; i++) {
+                selected.add(backups.get(i));
+                remaining--;
+            }
+            if (hasBase && !newest && remaining > keepCount) {
+                selected.add(backups.get(start));
+                remaining--;
+            }
+            start = end;
+        }
+        return selected;
+    }
+}
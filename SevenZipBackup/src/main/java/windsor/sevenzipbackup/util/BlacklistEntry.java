@@ -1,20 +1,27 @@
 package windsor.sevenzipbackup.util;
 
 import java.nio.file.PathMatcher;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class BlacklistEntry {
     private final String globPattern;
     private final PathMatcher pathMatcher;
-    private int blacklistedFiles;
+    private final AtomicInteger blacklistedFiles;
+    private final AtomicInteger blacklistedFolders;
 
     public BlacklistEntry(String globPattern, PathMatcher pathMatcher) {
         this.globPattern = globPattern;
         this.pathMatcher = pathMatcher;
-        this.blacklistedFiles = 0;
+        this.blacklistedFiles = new AtomicInteger();
+        this.blacklistedFolders = new AtomicInteger();
     }
 
     public void incBlacklistedFiles() {
-        blacklistedFiles++;
+        blacklistedFiles.incrementAndGet();
+    }
+
+    public void incBlacklistedFolders() {
+        blacklistedFolders.incrementAndGet();
     }
 
     public String getGlobPattern() {
@@ -26,6 +33,10 @@ public class BlacklistEntry {
     }
 
     public int getBlacklistedFiles() {
-        return blacklistedFiles;
+        return blacklistedFiles.get();
+    }
+
+    public int getBlacklistedFolders() {
+        return blacklistedFolders.get();
     }
 }
@@ -0,0 +1,278 @@
+package windsor.sevenzipbackup.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 将备份黑名单编译为一个匹配器。
+ * <p>
+ * 所有 glob 被转换为同一个正则表达式（每个条目一个分组），文件只需匹配一次即可得知命中的条目，
+ * 无需为每个文件分配相对 {@link Path}。目录在进入之前即可判断是否整体排除：
+ * <ul>
+ *   <li>以 {@code /**} 结尾的 glob，其前缀匹配该目录时排除整个目录</li>
+ *   <li>以 {@code /} 结尾的 glob（如 {@code cache/}）匹配目录的相对路径时，排除整个目录</li>
+ *   <li>其他 glob 只匹配文件，{@code *} 不跨越 {@code /}（如 {@code *cache*} 不排除 {@code cache/} 中的文件）</li>
+ *   <li>本地备份目录只在构造时解析一次，遍历时按文件键或绝对路径比较</li>
+ * </ul>
+ * 内置的数据库文件与 {@code session.lock} 规则也在此统一处理。
+ */
+public class BlacklistMatcher {
+    private static final String[] DATABASE_SUFFIXES = {".db", ".mv.db", ".sqlite", ".db-shm", ".db-wal"};
+    private static final String LOCK_FILE = "session.lock";
+    private static final String SUBTREE_SUFFIX = "/**";
+    private static final String DIRECTORY_SUFFIX = "/";
+    private static final String NEVER_MATCH = "(?!)";
+    private static final String REGEX_META_CHARS = ".^$+{[]|()";
+    private static final String GLOB_META_CHARS = "\\*?[{";
+    private static final char EOL = 0;
+    private static final boolean CASE_INSENSITIVE = File.separatorChar == '\\';
+
+    private final List<BlacklistEntry> entries;
+    private final Pattern filePattern;
+    private final Pattern directoryPattern;
+    private final Path backupFolder;
+    private final Object backupFolderKey;
+
+    public BlacklistMatcher(@NotNull List<BlacklistEntry> entries, @NotNull String backupFolderPath) {
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+        if (entries.isEmpty()) {
+            filePattern = null;
+            directoryPattern = null;
+        } else {
+            StringBuilder fileRegex = new StringBuilder();
+            StringBuilder directoryRegex = new StringBuilder();
+            for (BlacklistEntry entry : entries) {
+                String glob = entry.getGlobPattern();
+                String regex = toRegex(glob);
+                appendAlternative(fileRegex, regex);
+                // 只有以 / 或 /** 结尾的 glob 才排除整个目录，其余 glob 与 PathMatcher 一致，只匹配文件
+                String directoryAlternatives = NEVER_MATCH;
+                if (glob.endsWith(SUBTREE_SUFFIX) && glob.length() > SUBTREE_SUFFIX.length()) {
+                    directoryAlternatives = regex + "|" + toRegex(glob.substring(0, glob.length() - SUBTREE_SUFFIX.length()));
+                } else if (glob.endsWith(DIRECTORY_SUFFIX) && glob.length() > DIRECTORY_SUFFIX.length()) {
+                    directoryAlternatives = toRegex(glob.substring(0, glob.length() - DIRECTORY_SUFFIX.length()));
+                }
+                appendAlternative(directoryRegex, directoryAlternatives);
+            }
+            int flags = CASE_INSENSITIVE ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0;
+            filePattern = Pattern.compile(fileRegex.toString(), flags);
+            directoryPattern = Pattern.compile(directoryRegex.toString(), flags);
+        }
+
+        Path backupFolder = Paths.get(backupFolderPath).toAbsolutePath().normalize();
+        Object backupFolderKey = null;
+        try {
+            backupFolder = backupFolder.toRealPath();
+            backupFolderKey = Files.readAttributes(backupFolder, BasicFileAttributes.class).fileKey();
+        } catch (IOException ignored) {
+            // 备份目录尚不存在，仅按路径比较
+        }
+        this.backupFolder = backupFolder;
+        this.backupFolderKey = backupFolderKey;
+    }
+
+    public List<BlacklistEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * 检查文件是否被排除，命中的黑名单条目计数加一
+     *
+     * @param fileName     文件名
+     * @param relativePath 相对于备份位置的路径
+     */
+    public boolean excludesFile(@NotNull String fileName, @NotNull String relativePath) {
+        String lowerName = fileName.toLowerCase();
+        // 跳过所有 SQLite / H2 等嵌入式数据库文件，它们常被插件以独占模式打开
+        for (String suffix : DATABASE_SUFFIXES) {
+            if (lowerName.endsWith(suffix)) return true;
+        }
+        // 跳过 session.lock
+        if (lowerName.equals(LOCK_FILE)) return true;
+
+        BlacklistEntry entry = match(filePattern, relativePath);
+        if (entry != null) {
+            entry.incBlacklistedFiles();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 检查目录是否被黑名单整体排除，命中的黑名单条目的目录计数加一
+     *
+     * @param relativePath 相对于备份位置的路径
+     */
+    public boolean excludesDirectory(@NotNull String relativePath) {
+        BlacklistEntry entry = match(directoryPattern, relativePath);
+        if (entry != null) {
+            entry.incBlacklistedFolders();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 检查目录是否为本地备份目录（或位于其中）
+     *
+     * @param directory  目录
+     * @param attributes 目录属性，用于比较文件键；为 {@code null} 时仅比较路径
+     */
+    public boolean isBackupFolder(@NotNull File directory, @Nullable BasicFileAttributes attributes) {
+        if (backupFolderKey != null && attributes != null && backupFolderKey.equals(attributes.fileKey())) {
+            return true;
+        }
+        return directory.toPath().toAbsolutePath().normalize().startsWith(backupFolder);
+    }
+
+    @Nullable
+    private BlacklistEntry match(@Nullable Pattern pattern, @NotNull String relativePath) {
+        if (pattern == null || relativePath.isEmpty()) return null;
+        if (File.separatorChar != '/') {
+            relativePath = relativePath.replace(File.separatorChar, '/');
+        }
+        Matcher matcher = pattern.matcher(relativePath);
+        if (!matcher.matches()) return null;
+        for (int i = 0; i < entries.size(); i++) {
+            if (matcher.group(i + 1) != null) {
+                return entries.get(i);
+            }
+        }
+        return null;
+    }
+
+    private static void appendAlternative(@NotNull StringBuilder regex, @NotNull String alternative) {
+        if (regex.length() > 0) {
+            regex.append('|');
+        }
+        regex.append('(').append(alternative).append(')');
+    }
+
+    private static char next(@NotNull String glob, int i) {
+        return i < glob.length() ? glob.charAt(i) : EOL;
+    }
+
+    /**
+     * 将 glob 转换为正则表达式，语义与 {@code FileSystem.getPathMatcher("glob:...")} 在 Unix 下一致，
+     * 生成的表达式只使用非捕获分组
+     */
+    @NotNull
+    static String toRegex(@NotNull String glob) {
+        boolean inGroup = false;
+        StringBuilder regex = new StringBuilder();
+        int i = 0;
+        while (i < glob.length()) {
+            char c = glob.charAt(i++);
+            switch (c) {
+                case '\\':
+                    if (i == glob.length()) {
+                        throw new PatternSyntaxException("No character to escape", glob, i - 1);
+                    }
+                    char escaped = glob.charAt(i++);
+                    if (GLOB_META_CHARS.indexOf(escaped) != -1 || REGEX_META_CHARS.indexOf(escaped) != -1) {
+                        regex.append('\\');
+                    }
+                    regex.append(escaped);
+                    break;
+                case '[':
+                    regex.append("[[^/]&&[");
+                    if (next(glob, i) == '^') {
+                        regex.append("\\^");
+                        i++;
+                    } else {
+                        if (next(glob, i) == '!') {
+                            regex.append('^');
+                            i++;
+                        }
+                        if (next(glob, i) == '-') {
+                            regex.append('-');
+                            i++;
+                        }
+                    }
+                    boolean hasRangeStart = false;
+                    char last = 0;
+                    while (i < glob.length()) {
+                        c = glob.charAt(i++);
+                        if (c == ']') break;
+                        if (c == '/') {
+                            throw new PatternSyntaxException("Explicit 'name separator' in class", glob, i - 1);
+                        }
+                        if (c == '\\' || c == '[' || (c == '&' && next(glob, i) == '&')) {
+                            regex.append('\\');
+                        }
+                        regex.append(c);
+                        if (c == '-') {
+                            if (!hasRangeStart) {
+                                throw new PatternSyntaxException("Invalid range", glob, i - 1);
+                            }
+                            if ((c = next(glob, i++)) == EOL || c == ']') break;
+                            if (c < last) {
+                                throw new PatternSyntaxException("Invalid range", glob, i - 3);
+                            }
+                            regex.append(c);
+                            hasRangeStart = false;
+                        } else {
+                            hasRangeStart = true;
+                            last = c;
+                        }
+                    }
+                    if (c != ']') {
+                        throw new PatternSyntaxException("Missing ']", glob, i - 1);
+                    }
+                    regex.append("]]");
+                    break;
+                case '{':
+                    if (inGroup) {
+                        throw new PatternSyntaxException("Cannot nest groups", glob, i - 1);
+                    }
+                    regex.append("(?:(?:");
+                    inGroup = true;
+                    break;
+                case '}':
+                    if (inGroup) {
+                        regex.append("))");
+                        inGroup = false;
+                    } else {
+                        regex.append('}');
+                    }
+                    break;
+                case ',':
+                    regex.append(inGroup ? ")|(?:" : ",");
+                    break;
+                case '*':
+                    if (next(glob, i) == '*') {
+                        regex.append(".*");
+                        i++;
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                default:
+                    if (REGEX_META_CHARS.indexOf(c) != -1) {
+                        regex.append('\\');
+                    }
+                    regex.append(c);
+            }
+        }
+        if (inGroup) {
+            throw new PatternSyntaxException("Missing '}", glob, i - 1);
+        }
+        return regex.toString();
+    }
+}
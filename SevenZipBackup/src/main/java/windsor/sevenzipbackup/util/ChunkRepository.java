@@ -0,0 +1,1113 @@
+package windsor.sevenzipbackup.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import windsor.sevenzipbackup.BackupProgressCallback;
+import windsor.sevenzipbackup.UploadThread.UploadLogger;
+import windsor.sevenzipbackup.config.ConfigParser;
+import windsor.sevenzipbackup.util.FileUtil.BackupFileList;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static windsor.sevenzipbackup.config.Localization.intl;
+
+/**
+ * 去重备份仓库，作为 7z 压缩文件之外的另一种备份格式。
+ * <p>
+ * 文件按内容切分为块（{@link ContentDefinedChunker}），以 SHA-256 标识，每个不同的块只压缩存储一次。
+ * 仓库位于备份位置的本地备份文件夹中：
+ * <pre>
+ * repository/packs/*.pack          数据包：压缩后的块，末尾附带块索引
+ * repository/snapshots/*.snapshot  快照：每个文件的路径、属性与块列表
+ * repository/pending-uploads       尚未上传的数据包与快照
+ * </pre>
+ * 数据包与快照写入后不再修改，因此上传时只需传输新产生的文件。未变化的文件（大小、修改时间与文件键均相同）
+ * 直接沿用上一快照中的块列表，无需重新读取。区域文件（{@code .mca}）按区块切分，只读取时间戳或位置发生变化的区块（{@link RegionFile}）。
+ * <p>
+ * 数据包格式（大端序）：int 魔数, int 版本, 块数据……, 索引记录（32 字节 ID, long 偏移, int 存储长度, int 原始长度）……,
+ * int 块数, long 索引偏移, int 魔数。存储长度等于原始长度时块未压缩。
+ */
+public class ChunkRepository {
+    public static final String FOLDER_NAME = "repository";
+    public static final String PACK_SUFFIX = ".pack";
+    public static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    private static final String PACKS = "packs";
+    private static final String SNAPSHOTS = "snapshots";
+    private static final String PENDING_UPLOADS = "pending-uploads";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int PACK_MAGIC = 0x375A4250; // "7ZBP"
+    private static final int SNAPSHOT_MAGIC = 0x375A4253; // "7ZBS"
+    private static final int VERSION = 1;
+    private static final int PACK_HEADER_SIZE = 4 + 4;
+    private static final int INDEX_RECORD_SIZE = ChunkId.SIZE + 8 + 4 + 4;
+    private static final int TRAILER_SIZE = 4 + 8 + 4;
+    private static final long TARGET_PACK_SIZE = 32L * 1024 * 1024;
+    /**
+     * 被引用的数据低于此比例的数据包在回收时重写
+     */
+    private static final int COMPACT_LIVE_PERCENT = 50;
+    private static final long PROGRESS_INTERVAL_MILLIS = 200;
+
+    private final UploadLogger logger;
+    private final Path directory;
+    private final List<String> packNames = new ArrayList<>();
+    private final Map<ChunkId, ChunkLocation> index = new HashMap<>();
+    private int packSequence;
+
+    public ChunkRepository(UploadLogger logger, Path directory) {
+        this.logger = logger;
+        this.directory = directory;
+    }
+
+    /**
+     * 获取备份位置的仓库，与该位置的本地备份存放在同一文件夹中
+     */
+    @NotNull
+    public static ChunkRepository forLocation(UploadLogger logger, String location) {
+        return new ChunkRepository(logger, FileUtil.getManifestPath(location).resolveSibling(FOLDER_NAME));
+    }
+
+    /**
+     * 列出本地备份文件夹中包含仓库的备份位置
+     */
+    @NotNull
+    public static List<String> findRepositoryLocations() {
+        List<String> locations = new ArrayList<>();
+        File[] folders = new File(ConfigParser.getConfig().backupStorage.localDirectory).listFiles(File::isDirectory);
+        if (folders == null) {
+            return locations;
+        }
+        for (File folder : folders) {
+            if (new File(folder, FOLDER_NAME).isDirectory()) {
+                locations.add(folder.getName());
+            }
+        }
+        locations.sort(null);
+        return locations;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public boolean exists() {
+        return Files.isDirectory(directory.resolve(SNAPSHOTS));
+    }
+
+    /**
+     * 将文件列表写入仓库并创建快照。每个数据包完成后立即加入待上传列表，备份中途失败时已写入并索引的块仍会上传；
+     * 快照最后加入
+     *
+     * @param inputFolderPath  备份位置
+     * @param snapshotName     快照名称
+     * @param compressionLevel 块的压缩级别（0-9），0 表示不压缩
+     */
+    public void backup(String inputFolderPath, BackupFileList fileList, String snapshotName,
+                       int compressionLevel, BackupProgressCallback callback) throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(directory.resolve(PACKS));
+        Files.createDirectories(directory.resolve(SNAPSHOTS));
+        deleteTemporaryFiles();
+        loadIndex();
+        Map<String, SnapshotEntry> previous = new HashMap<>();
+        String latest = getLatestSnapshot();
+        if (latest != null) {
+            try {
+                for (SnapshotEntry entry : readSnapshot(latest)) {
+                    previous.put(entry.path, entry);
+                }
+            } catch (IOException e) {
+                // 上一快照损坏时重新读取所有文件，已存在的块仍会被去重
+                logger.info("读取快照失败，将重新读取所有文件: " + latest);
+                MessageUtil.sendConsoleException(e);
+            }
+        }
+
+        List<SnapshotEntry> entries = new ArrayList<>(fileList.size());
+        int total = fileList.size();
+        int unchangedFiles = 0;
+        int skippedFiles = 0;
+        long lastProgressUpdate = 0;
+        BackupSession session = new BackupSession(compressionLevel);
+        try {
+            for (int i = 0; i < total; i++) {
+                String path = toSnapshotPath(fileList.getPath(i));
+                long size = fileList.getSize(i);
+                long lastModified = fileList.getLastModified(i);
+                int fileKey = fileList.getFileKey(i);
+
+                SnapshotEntry old = previous.get(path);
+                if (old != null && old.size == size && old.lastModified == lastModified
+                        && old.fileKey == fileKey && isIndexed(old.chunks)) {
+                    entries.add(old);
+                    unchangedFiles++;
+                    session.reusedChunks += old.chunks.size();
+                } else {
+                    Path file = Paths.get(inputFolderPath, fileList.getPath(i));
+                    List<ChunkId> chunks = null;
+                    try {
+                        if (RegionFile.isRegionFile(path)) {
+                            chunks = session.storeRegionFile(file, old);
+                        }
+                        if (chunks == null) {
+                            chunks = session.storeFile(file);
+                        }
+                    } catch (IOException e) {
+                        // 与 7zr 的 -ssw 一致：跳过无法读取的文件，不中断整个备份
+                        logger.info("跳过无法读取的文件: " + fileList.getPath(i));
+                        skippedFiles++;
+                        continue;
+                    }
+                    entries.add(new SnapshotEntry(path, size, lastModified, fileKey, chunks));
+                }
+
+                long now = System.currentTimeMillis();
+                if (callback != null && now - lastProgressUpdate >= PROGRESS_INTERVAL_MILLIS) {
+                    callback.onProgress(i + 1, total);
+                    lastProgressUpdate = now;
+                }
+            }
+            session.finish();
+        } finally {
+            session.close();
+        }
+
+        addPendingUploads(List.of(writeSnapshot(snapshotName, entries)), false);
+
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logger.info("去重备份 " + inputFolderPath + " 完成：" + entries.size() + " 个文件（其中 " + unchangedFiles
+                + " 个未变化，跳过 " + skippedFiles + " 个），读取 " + toMegabytes(session.bytesRead) + " MB；新增数据块 "
+                + session.newChunks + " 个（原始 " + toMegabytes(session.newBytes) + " MB，存储 "
+                + toMegabytes(session.storedBytes) + " MB），复用数据块 " + session.reusedChunks + " 个，耗时 " + elapsed + " ms");
+        if (session.regionFiles > 0) {
+            logger.info("区块级增量：区域文件 " + session.regionFiles + " 个，复用未变化的区块 "
+                    + session.reusedRegionChunks + " 个，读取区块 " + session.readRegionChunks + " 个");
+        }
+        if (callback != null) {
+            callback.onProgress(total, total);
+            callback.onBackupComplete();
+        }
+    }
+
+    /**
+     * 将快照还原到目标文件夹，每个块在写出前校验 SHA-256
+     *
+     * @return 还原的文件数
+     */
+    public int restore(String snapshotName, Path target) throws IOException {
+        loadIndex();
+        List<SnapshotEntry> entries = readSnapshot(snapshotName);
+        target = target.toAbsolutePath().normalize();
+        Files.createDirectories(target);
+
+        byte[] data = new byte[ContentDefinedChunker.MAX_SIZE];
+        try (ChunkReader reader = new ChunkReader()) {
+            for (SnapshotEntry entry : entries) {
+                Path file = target.resolve(entry.path.replace('/', File.separatorChar)).normalize();
+                if (!file.startsWith(target)) {
+                    throw new IOException("Invalid path in snapshot: " + entry.path);
+                }
+                Files.createDirectories(file.getParent());
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+                    for (ChunkId id : entry.chunks) {
+                        out.write(data, 0, reader.read(id, data));
+                    }
+                }
+                Files.setLastModifiedTime(file, FileTime.fromMillis(entry.lastModified));
+            }
+        }
+        return entries.size();
+    }
+
+    /**
+     * 列出快照名称，按创建时间从旧到新排列
+     */
+    @NotNull
+    public List<String> listSnapshots() {
+        File[] files = directory.resolve(SNAPSHOTS).toFile().listFiles((dir, name) -> name.endsWith(SNAPSHOT_SUFFIX));
+        List<String> snapshots = new ArrayList<>();
+        if (files == null) {
+            return snapshots;
+        }
+        List<File> sorted = new ArrayList<>(List.of(files));
+        sorted.sort(Comparator.comparingLong(File::lastModified).thenComparing(File::getName));
+        for (File file : sorted) {
+            String name = file.getName();
+            snapshots.add(name.substring(0, name.length() - SNAPSHOT_SUFFIX.length()));
+        }
+        return snapshots;
+    }
+
+    /**
+     * 删除超出保留数量的最旧快照，然后回收不再被保留的快照引用的数据包（{@link #collectGarbage}）
+     */
+    public void pruneSnapshots(int keepCount) {
+        List<String> snapshots = listSnapshots();
+        for (int i = 0; i < snapshots.size() - keepCount; i++) {
+            String name = snapshots.get(i) + SNAPSHOT_SUFFIX;
+            try {
+                Files.delete(directory.resolve(SNAPSHOTS).resolve(name));
+                logger.info(intl("local-backup-file-deleted"), "local-backup-name", name);
+            } catch (IOException e) {
+                logger.log(intl("local-backup-file-failed-to-delete"), "local-backup-name", name);
+            }
+        }
+        try {
+            collectGarbage();
+        } catch (IOException e) {
+            logger.info("回收仓库 " + directory + " 中的数据包失败");
+            MessageUtil.sendConsoleException(e);
+        }
+    }
+
+    /**
+     * 回收本地仓库的空间：没有任何块被保留的快照引用的数据包直接删除；被引用的数据少于
+     * {@value #COMPACT_LIVE_PERCENT}% 的数据包将被引用的块原样复制到新的数据包后删除。
+     * 备份中途失败后留下的、未被任何快照引用的数据包同样被回收。
+     * <p>
+     * 远程的数据包与快照不会被删除，因此远程仓库始终可以还原所有上传过的快照。重写产生的数据包只在其来源
+     * 尚未上传时加入待上传列表，否则远程的旧数据包中已有这些块。
+     */
+    void collectGarbage() throws IOException {
+        Path packs = directory.resolve(PACKS);
+        if (!Files.isDirectory(packs)) {
+            return;
+        }
+        Set<ChunkId> live = new HashSet<>();
+        for (String snapshot : listSnapshots()) {
+            // 无法读取的快照可能仍引用任何数据包，此时不回收
+            for (SnapshotEntry entry : readSnapshot(snapshot)) {
+                live.addAll(entry.chunks);
+            }
+        }
+        List<Path> packFiles = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(packs, "*" + PACK_SUFFIX)) {
+            for (Path pack : stream) {
+                packFiles.add(pack);
+            }
+        }
+        packFiles.sort(null);
+
+        // 先确定保留的数据包，其中的块不再复制；重复存储的块只复制一次
+        Set<ChunkId> kept = new HashSet<>();
+        List<Path> compact = new ArrayList<>();
+        List<Path> delete = new ArrayList<>();
+        for (Path pack : packFiles) {
+            long liveBytes = 0;
+            long totalBytes = 0;
+            List<ChunkId> liveIds = new ArrayList<>();
+            try (FileChannel channel = FileChannel.open(pack, StandardOpenOption.READ)) {
+                ByteBuffer records = readPackRecords(pack.getFileName().toString(), channel);
+                for (int position = 0; position < records.limit(); position += INDEX_RECORD_SIZE) {
+                    ChunkId id = readChunkId(records, position);
+                    int storedLength = records.getInt(position + 40);
+                    totalBytes += storedLength;
+                    if (live.contains(id)) {
+                        liveBytes += storedLength;
+                        liveIds.add(id);
+                    }
+                }
+            } catch (IOException e) {
+                // 损坏的数据包不会被索引，保留以便手动检查
+                continue;
+            }
+            if (liveIds.isEmpty()) {
+                delete.add(pack);
+            } else if (liveBytes * 100 < totalBytes * COMPACT_LIVE_PERCENT) {
+                compact.add(pack);
+            } else {
+                kept.addAll(liveIds);
+            }
+        }
+        if (delete.isEmpty() && compact.isEmpty()) {
+            return;
+        }
+
+        Set<String> pending = readPendingUploads();
+        List<Path> pendingPacks = new ArrayList<>();
+        List<Path> uploadedPacks = new ArrayList<>();
+        long freedBytes = 0;
+        long copiedChunks = 0;
+        byte[] stored = new byte[ContentDefinedChunker.MAX_SIZE];
+        for (boolean sourcePending : new boolean[]{true, false}) {
+            PackWriter writer = null;
+            try {
+                for (Path pack : compact) {
+                    if (pending.contains(toRelativeName(pack)) != sourcePending) continue;
+                    try (FileChannel channel = FileChannel.open(pack, StandardOpenOption.READ)) {
+                        ByteBuffer records = readPackRecords(pack.getFileName().toString(), channel);
+                        for (int position = 0; position < records.limit(); position += INDEX_RECORD_SIZE) {
+                            ChunkId id = readChunkId(records, position);
+                            if (!live.contains(id) || !kept.add(id)) continue;
+                            int storedLength = records.getInt(position + 40);
+                            readFully(channel, records.getLong(position + 32), stored, storedLength);
+                            if (writer == null) {
+                                writer = new PackWriter();
+                            }
+                            writer.copy(id, stored, storedLength, records.getInt(position + 44));
+                            copiedChunks++;
+                            if (writer.size() >= TARGET_PACK_SIZE) {
+                                (sourcePending ? pendingPacks : uploadedPacks).add(writer.finish());
+                                writer = null;
+                            }
+                        }
+                    }
+                }
+                if (writer != null) {
+                    (sourcePending ? pendingPacks : uploadedPacks).add(writer.finish());
+                    writer = null;
+                }
+            } finally {
+                if (writer != null) {
+                    writer.abort();
+                }
+            }
+        }
+        // 新数据包写入并登记后才删除旧数据包，中断时最多留下重复的块
+        if (!pendingPacks.isEmpty()) {
+            addPendingUploads(pendingPacks, true);
+        }
+        List<Path> obsolete = new ArrayList<>(delete);
+        obsolete.addAll(compact);
+        Set<String> removed = new HashSet<>();
+        for (Path pack : obsolete) {
+            freedBytes += Files.size(pack);
+            Files.delete(pack);
+            removed.add(toRelativeName(pack));
+        }
+        pendingPacks.addAll(uploadedPacks);
+        for (Path pack : pendingPacks) {
+            freedBytes -= Files.size(pack);
+        }
+        pending = readPendingUploads();
+        if (pending.removeAll(removed)) {
+            writePendingUploads(pending);
+        }
+        logger.info("回收仓库 " + directory + "：删除数据包 " + delete.size() + " 个，重写 " + compact.size()
+                + " 个（复制数据块 " + copiedChunks + " 个），释放 " + toMegabytes(freedBytes) + " MB");
+    }
+
+    /**
+     * 获取尚未上传的数据包与快照，数据包总在引用它们的快照之前
+     */
+    @NotNull
+    public List<File> getPendingUploads() throws IOException {
+        List<File> files = new ArrayList<>();
+        for (String name : readPendingUploads()) {
+            File file = directory.resolve(name).toFile();
+            if (file.exists()) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * 从待上传列表中移除已上传的文件
+     */
+    public void markUploaded(@NotNull Collection<File> uploaded) throws IOException {
+        Set<String> names = new HashSet<>();
+        for (File file : uploaded) {
+            names.add(toRelativeName(file.toPath()));
+        }
+        Set<String> pending = readPendingUploads();
+        pending.removeAll(names);
+        writePendingUploads(pending);
+    }
+
+    /**
+     * @param first 加入列表开头，使数据包在已待上传的快照之前上传
+     */
+    private void addPendingUploads(List<Path> files, boolean first) throws IOException {
+        Set<String> pending = new LinkedHashSet<>();
+        if (!first) {
+            pending.addAll(readPendingUploads());
+        }
+        for (Path file : files) {
+            pending.add(toRelativeName(file));
+        }
+        if (first) {
+            pending.addAll(readPendingUploads());
+        }
+        writePendingUploads(pending);
+    }
+
+    @NotNull
+    private Set<String> readPendingUploads() throws IOException {
+        try {
+            return new LinkedHashSet<>(Files.readAllLines(directory.resolve(PENDING_UPLOADS), StandardCharsets.UTF_8));
+        } catch (NoSuchFileException e) {
+            return new LinkedHashSet<>();
+        }
+    }
+
+    private void writePendingUploads(Set<String> pending) throws IOException {
+        Path file = directory.resolve(PENDING_UPLOADS);
+        Path tempFile = file.resolveSibling(PENDING_UPLOADS + TEMP_SUFFIX);
+        Files.write(tempFile, pending, StandardCharsets.UTF_8);
+        move(tempFile, file);
+    }
+
+    @NotNull
+    private String toRelativeName(Path file) {
+        return directory.toAbsolutePath().normalize().relativize(file.toAbsolutePath().normalize()).toString()
+                .replace(File.separatorChar, '/');
+    }
+
+    /**
+     * 读取所有数据包末尾的索引
+     */
+    private void loadIndex() throws IOException {
+        index.clear();
+        packNames.clear();
+        Path packs = directory.resolve(PACKS);
+        if (!Files.isDirectory(packs)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(packs, "*" + PACK_SUFFIX)) {
+            for (Path pack : stream) {
+                try (FileChannel channel = FileChannel.open(pack, StandardOpenOption.READ)) {
+                    loadPackIndex(pack.getFileName().toString(), channel);
+                } catch (IOException e) {
+                    logger.info("读取数据包索引失败，已忽略: " + pack);
+                    MessageUtil.sendConsoleException(e);
+                }
+            }
+        }
+    }
+
+    private void loadPackIndex(String name, FileChannel channel) throws IOException {
+        ByteBuffer records = readPackRecords(name, channel);
+        int pack = packNames.size();
+        packNames.add(name);
+        for (int position = 0; position < records.limit(); position += INDEX_RECORD_SIZE) {
+            index.put(readChunkId(records, position), new ChunkLocation(pack, records.getLong(position + 32),
+                    records.getInt(position + 40), records.getInt(position + 44)));
+        }
+    }
+
+    /**
+     * 读取数据包末尾的索引记录
+     */
+    @NotNull
+    private static ByteBuffer readPackRecords(String name, FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < PACK_HEADER_SIZE + TRAILER_SIZE) {
+            throw new IOException("Pack too small: " + name);
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        readFully(channel, size - TRAILER_SIZE, trailer);
+        int count = trailer.getInt(0);
+        long indexOffset = trailer.getLong(4);
+        if (trailer.getInt(12) != PACK_MAGIC || count < 0
+                || indexOffset + (long) count * INDEX_RECORD_SIZE != size - TRAILER_SIZE) {
+            throw new IOException("Invalid pack trailer: " + name);
+        }
+        ByteBuffer records = ByteBuffer.allocate(count * INDEX_RECORD_SIZE);
+        readFully(channel, indexOffset, records);
+        records.flip();
+        return records;
+    }
+
+    @NotNull
+    private static ChunkId readChunkId(ByteBuffer records, int position) {
+        return new ChunkId(records.getLong(position), records.getLong(position + 8),
+                records.getLong(position + 16), records.getLong(position + 24));
+    }
+
+    private boolean isIndexed(List<ChunkId> chunks) {
+        for (ChunkId id : chunks) {
+            if (!index.containsKey(id)) return false;
+        }
+        return true;
+    }
+
+    @Nullable
+    private String getLatestSnapshot() {
+        List<String> snapshots = listSnapshots();
+        return snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+    }
+
+    @NotNull
+    private Path writeSnapshot(String snapshotName, List<SnapshotEntry> entries) throws IOException {
+        Path file = directory.resolve(SNAPSHOTS).resolve(snapshotName + SNAPSHOT_SUFFIX);
+        Path tempFile = file.resolveSibling(file.getFileName() + TEMP_SUFFIX);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new DeflaterOutputStream(Files.newOutputStream(tempFile)), 1 << 16))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(entries.size());
+            for (SnapshotEntry entry : entries) {
+                out.writeUTF(entry.path);
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+                out.writeInt(entry.fileKey);
+                out.writeInt(entry.chunks.size());
+                for (ChunkId id : entry.chunks) {
+                    id.write(out);
+                }
+            }
+        }
+        move(tempFile, file);
+        return file;
+    }
+
+    @NotNull
+    private List<SnapshotEntry> readSnapshot(String snapshotName) throws IOException {
+        Path file = directory.resolve(SNAPSHOTS).resolve(snapshotName + SNAPSHOT_SUFFIX);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(Files.newInputStream(file)), 1 << 16))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Invalid snapshot: " + file);
+            }
+            in.readLong();
+            int count = in.readInt();
+            List<SnapshotEntry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                int fileKey = in.readInt();
+                int chunkCount = in.readInt();
+                List<ChunkId> chunks = new ArrayList<>(chunkCount);
+                for (int j = 0; j < chunkCount; j++) {
+                    chunks.add(new ChunkId(in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+                }
+                entries.add(new SnapshotEntry(path, size, lastModified, fileKey, chunks));
+            }
+            return entries;
+        } catch (EOFException e) {
+            throw new IOException("Truncated snapshot: " + file, e);
+        }
+    }
+
+    /**
+     * 删除上次中断时残留的临时文件
+     */
+    private void deleteTemporaryFiles() throws IOException {
+        for (String folder : new String[]{PACKS, SNAPSHOTS}) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.resolve(folder), "*" + TEMP_SUFFIX)) {
+                for (Path file : stream) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    @NotNull
+    private Path getPackPath(String name) {
+        return directory.resolve(PACKS).resolve(name);
+    }
+
+    @NotNull
+    private static String toSnapshotPath(String path) {
+        return File.separatorChar == '/' ? path : path.replace(File.separatorChar, '/');
+    }
+
+    @NotNull
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void readFully(FileChannel channel, long position, byte[] bytes, int length) throws IOException {
+        readFully(channel, position, ByteBuffer.wrap(bytes, 0, length));
+    }
+
+    private static void readFully(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @NotNull
+    private static String toMegabytes(long bytes) {
+        return String.format("%.1f", bytes / (1024.0 * 1024.0));
+    }
+
+    /**
+     * 一次备份的写入状态：切分、去重并写入数据包，同时统计读取与新增的数据量
+     */
+    private final class BackupSession {
+        private final MessageDigest digest = newDigest();
+        private final Deflater deflater;
+        private final ChunkReader reader = new ChunkReader();
+        private final byte[] buffer = new byte[ContentDefinedChunker.MAX_SIZE];
+        private final byte[] header = new byte[RegionFile.HEADER_SIZE];
+        private final byte[] previousHeader = new byte[RegionFile.HEADER_SIZE];
+        private PackWriter pack;
+        private long bytesRead;
+        private long newChunks;
+        private long newBytes;
+        private long storedBytes;
+        private long reusedChunks;
+        private int regionFiles;
+        private long reusedRegionChunks;
+        private long readRegionChunks;
+
+        BackupSession(int compressionLevel) {
+            deflater = new Deflater(Math.max(0, Math.min(9, compressionLevel)));
+        }
+
+        /**
+         * 按内容切分并存储整个文件
+         */
+        List<ChunkId> storeFile(Path file) throws IOException {
+            List<ChunkId> chunks = new ArrayList<>();
+            try (InputStream in = Files.newInputStream(file)) {
+                ContentDefinedChunker chunker = new ContentDefinedChunker(in);
+                int length;
+                while ((length = chunker.next()) >= 0) {
+                    bytesRead += length;
+                    chunks.add(store(chunker.buffer(), chunker.offset(), length));
+                }
+            }
+            return chunks;
+        }
+
+        /**
+         * 按区块存储区域文件。
+         * <p>
+         * 头部中位置与时间戳均未变化的区块，其扇区内容与上一快照中相同偏移、相同长度的块一致，直接沿用该块而不读取；
+         * 其余区块与空隙按位置读取后存储。还原时按顺序拼接各块即可得到完整的区域文件。
+         *
+         * @param old 上一快照中的同一文件
+         * @return 块列表；头部无效时返回 {@code null}，由调用方按普通文件处理
+         */
+        @Nullable
+        List<ChunkId> storeRegionFile(Path file, @Nullable SnapshotEntry old) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long length = channel.size();
+                if (length < RegionFile.HEADER_SIZE) {
+                    return null;
+                }
+                readFully(channel, 0, header, RegionFile.HEADER_SIZE);
+                ByteBuffer current = ByteBuffer.wrap(header);
+                List<RegionFile.Segment> segments = RegionFile.segments(current, length, ContentDefinedChunker.MAX_SIZE);
+                if (segments == null) {
+                    return null;
+                }
+                ByteBuffer previous = readPreviousHeader(old);
+                Map<Long, ChunkId> previousBlocks = previous == null ? null : getBlockOffsets(old);
+                regionFiles++;
+
+                List<ChunkId> chunks = new ArrayList<>(segments.size());
+                for (RegionFile.Segment segment : segments) {
+                    int chunk = segment.chunk;
+                    if (chunk >= 0 && previousBlocks != null
+                            && RegionFile.getLocation(previous, chunk) == RegionFile.getLocation(current, chunk)
+                            && RegionFile.getTimestamp(previous, chunk) == RegionFile.getTimestamp(current, chunk)) {
+                        ChunkId id = previousBlocks.get(segment.start);
+                        if (id != null && index.get(id).length == segment.length) {
+                            chunks.add(id);
+                            reusedChunks++;
+                            reusedRegionChunks++;
+                            continue;
+                        }
+                    }
+                    if (segment.start == 0) {
+                        bytesRead += segment.length;
+                        chunks.add(store(header, 0, segment.length));
+                        continue;
+                    }
+                    readFully(channel, segment.start, buffer, segment.length);
+                    bytesRead += segment.length;
+                    if (chunk >= 0) {
+                        readRegionChunks++;
+                    }
+                    chunks.add(store(buffer, 0, segment.length));
+                }
+                return chunks;
+            }
+        }
+
+        /**
+         * 读取上一快照中文件的前 {@link RegionFile#HEADER_SIZE} 字节
+         *
+         * @return 头部；第一个块不是完整的头部或无法读取时返回 {@code null}
+         */
+        @Nullable
+        private ByteBuffer readPreviousHeader(@Nullable SnapshotEntry old) {
+            if (old == null || old.chunks.isEmpty()) {
+                return null;
+            }
+            ChunkLocation location = index.get(old.chunks.get(0));
+            if (location == null || location.length != RegionFile.HEADER_SIZE) {
+                return null;
+            }
+            try {
+                reader.read(old.chunks.get(0), previousHeader);
+            } catch (IOException e) {
+                return null;
+            }
+            return ByteBuffer.wrap(previousHeader);
+        }
+
+        /**
+         * 计算上一快照中各块在文件中的起始偏移
+         *
+         * @return 起始偏移到块的映射；含有未索引的块时返回 {@code null}
+         */
+        @Nullable
+        private Map<Long, ChunkId> getBlockOffsets(SnapshotEntry old) {
+            Map<Long, ChunkId> offsets = new HashMap<>();
+            long offset = 0;
+            for (ChunkId id : old.chunks) {
+                ChunkLocation location = index.get(id);
+                if (location == null) {
+                    return null;
+                }
+                offsets.put(offset, id);
+                offset += location.length;
+            }
+            return offsets;
+        }
+
+        /**
+         * 存储一个块；仓库中已有相同内容的块时只返回其 ID
+         */
+        ChunkId store(byte[] data, int offset, int length) throws IOException {
+            digest.update(data, offset, length);
+            ChunkId id = new ChunkId(digest.digest());
+            if (index.containsKey(id)) {
+                reusedChunks++;
+                return id;
+            }
+            if (pack == null) {
+                pack = new PackWriter();
+            }
+            ChunkLocation location = pack.write(id, data, offset, length, deflater);
+            index.put(id, location);
+            newChunks++;
+            newBytes += length;
+            storedBytes += location.storedLength;
+            if (pack.size() >= TARGET_PACK_SIZE) {
+                finishPack();
+            }
+            return id;
+        }
+
+        /**
+         * 完成最后一个数据包
+         */
+        void finish() throws IOException {
+            if (pack != null) {
+                finishPack();
+            }
+        }
+
+        /**
+         * 完成当前数据包并立即加入待上传列表，之后的块可能已在索引中找到它而不再存储
+         */
+        private void finishPack() throws IOException {
+            Path file = pack.finish();
+            pack = null;
+            addPendingUploads(List.of(file), false);
+        }
+
+        /**
+         * 释放资源，丢弃未完成的数据包
+         */
+        void close() {
+            deflater.end();
+            reader.close();
+            if (pack != null) {
+                pack.abort();
+            }
+        }
+    }
+
+    /**
+     * 从数据包中读取块，解压并校验 SHA-256
+     */
+    private final class ChunkReader implements Closeable {
+        private final MessageDigest digest = newDigest();
+        private final Inflater inflater = new Inflater();
+        private final Map<Integer, FileChannel> channels = new HashMap<>();
+        private final byte[] stored = new byte[ContentDefinedChunker.MAX_SIZE];
+
+        /**
+         * 读取块到 {@code target} 的开头
+         *
+         * @return 块的原始长度
+         */
+        int read(ChunkId id, byte[] target) throws IOException {
+            ChunkLocation location = index.get(id);
+            if (location == null) {
+                throw new IOException("Missing chunk " + id);
+            }
+            FileChannel channel = channels.get(location.pack);
+            if (channel == null) {
+                channel = FileChannel.open(getPackPath(packNames.get(location.pack)), StandardOpenOption.READ);
+                channels.put(location.pack, channel);
+            }
+            if (location.storedLength == location.length) {
+                readFully(channel, location.offset, target, location.length);
+            } else {
+                readFully(channel, location.offset, stored, location.storedLength);
+                inflater.reset();
+                inflater.setInput(stored, 0, location.storedLength);
+                int inflated = 0;
+                try {
+                    while (inflated < location.length && !inflater.finished()) {
+                        int count = inflater.inflate(target, inflated, location.length - inflated);
+                        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                        inflated += count;
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt chunk " + id + " in " + packNames.get(location.pack), e);
+                }
+            }
+            digest.update(target, 0, location.length);
+            if (!id.equals(new ChunkId(digest.digest()))) {
+                throw new IOException("Checksum mismatch for chunk " + id + " in " + packNames.get(location.pack));
+            }
+            return location.length;
+        }
+
+        @Override
+        public void close() {
+            inflater.end();
+            for (FileChannel channel : channels.values()) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 写入中的数据包；完成前以临时文件存在，不会被索引或上传
+     */
+    private final class PackWriter {
+        private final String name;
+        private final int pack;
+        private final Path tempFile;
+        private final DataOutputStream out;
+        private final List<ChunkId> ids = new ArrayList<>();
+        private final List<ChunkLocation> locations = new ArrayList<>();
+        private byte[] compressed = new byte[ContentDefinedChunker.MAX_SIZE];
+        private long size;
+
+        PackWriter() throws IOException {
+            name = Long.toHexString(System.currentTimeMillis()) + "-" + (packSequence++) + PACK_SUFFIX;
+            pack = packNames.size();
+            packNames.add(name);
+            tempFile = getPackPath(name + TEMP_SUFFIX);
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16));
+            out.writeInt(PACK_MAGIC);
+            out.writeInt(VERSION);
+            size = PACK_HEADER_SIZE;
+        }
+
+        long size() {
+            return size;
+        }
+
+        /**
+         * 压缩并写入一个块；压缩后不小于原始长度时直接存储原始数据
+         */
+        ChunkLocation write(ChunkId id, byte[] data, int offset, int length, Deflater deflater) throws IOException {
+            deflater.reset();
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            int compressedLength = 0;
+            while (!deflater.finished() && compressedLength < length) {
+                compressedLength += deflater.deflate(compressed, compressedLength, length - compressedLength);
+            }
+            ChunkLocation location;
+            if (deflater.finished() && compressedLength < length) {
+                out.write(compressed, 0, compressedLength);
+                location = new ChunkLocation(pack, size, compressedLength, length);
+            } else {
+                out.write(data, offset, length);
+                location = new ChunkLocation(pack, size, length, length);
+            }
+            size += location.storedLength;
+            ids.add(id);
+            locations.add(location);
+            return location;
+        }
+
+        /**
+         * 原样写入另一个数据包中已压缩的块
+         */
+        void copy(ChunkId id, byte[] stored, int storedLength, int length) throws IOException {
+            out.write(stored, 0, storedLength);
+            ChunkLocation location = new ChunkLocation(pack, size, storedLength, length);
+            size += storedLength;
+            ids.add(id);
+            locations.add(location);
+        }
+
+        /**
+         * 写入索引与尾部并将临时文件替换为正式文件
+         *
+         * @return 数据包路径
+         */
+        Path finish() throws IOException {
+            long indexOffset = size;
+            for (int i = 0; i < ids.size(); i++) {
+                ChunkLocation location = locations.get(i);
+                ids.get(i).write(out);
+                out.writeLong(location.offset);
+                out.writeInt(location.storedLength);
+                out.writeInt(location.length);
+            }
+            out.writeInt(ids.size());
+            out.writeLong(indexOffset);
+            out.writeInt(PACK_MAGIC);
+            out.close();
+            Path file = getPackPath(name);
+            move(tempFile, file);
+            return file;
+        }
+
+        void abort() {
+            try {
+                out.close();
+                Files.deleteIfExists(tempFile);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 块的 SHA-256
+     */
+    private static final class ChunkId {
+        static final int SIZE = 32;
+
+        private final long a;
+        private final long b;
+        private final long c;
+        private final long d;
+
+        ChunkId(long a, long b, long c, long d) {
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.d = d;
+        }
+
+        ChunkId(byte[] digest) {
+            ByteBuffer buffer = ByteBuffer.wrap(digest);
+            this.a = buffer.getLong();
+            this.b = buffer.getLong();
+            this.c = buffer.getLong();
+            this.d = buffer.getLong();
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(a);
+            out.writeLong(b);
+            out.writeLong(c);
+            out.writeLong(d);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ChunkId)) return false;
+            ChunkId other = (ChunkId) o;
+            return a == other.a && b == other.b && c == other.c && d == other.d;
+        }
+
+        @Override
+        public int hashCode() {
+            // SHA-256 的各位已均匀分布，直接取前 32 位
+            return (int) (a >>> 32);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%016x%016x%016x%016x", a, b, c, d);
+        }
+    }
+
+    private static final class ChunkLocation {
+        final int pack;
+        final long offset;
+        final int storedLength;
+        final int length;
+
+        ChunkLocation(int pack, long offset, int storedLength, int length) {
+            this.pack = pack;
+            this.offset = offset;
+            this.storedLength = storedLength;
+            this.length = length;
+        }
+    }
+
+    private static final class SnapshotEntry {
+        final String path;
+        final long size;
+        final long lastModified;
+        final int fileKey;
+        final List<ChunkId> chunks;
+
+        SnapshotEntry(String path, long size, long lastModified, int fileKey, List<ChunkId> chunks) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+            this.chunks = chunks;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package windsor.sevenzipbackup.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import windsor.sevenzipbackup.UploadThread.UploadLogger;
+import windsor.sevenzipbackup.config.ConfigParser;
+import windsor.sevenzipbackup.util.FileUtil.BackupFileList;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 按内容规划压缩：找出已经过压缩、再用 LZMA 压缩几乎不会变小的文件，让压缩引擎只存储它们。
+ * <p>
+ * 判断依据依次为：扩展名（压缩包、图片、音频等）；区域文件第一个区块的压缩方式
+ * （服务器关闭了区块压缩时区域文件仍然可以压缩）；其余文件读取开头 {@value #SAMPLE_SIZE} 字节，
+ * 检查常见压缩格式的文件头与字节熵。小于 {@value #MIN_SAMPLED_SIZE} 字节的文件不读取，
+ * 它们对压缩耗时的影响可以忽略。
+ */
+final class CompressionPlanner {
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "jar", "zip", "gz", "tgz", "xz", "7z", "bz2", "zst", "lz4", "rar", "mcc",
+            "png", "jpg", "jpeg", "gif", "webp", "ogg", "mp3", "m4a", "flac", "opus", "mp4", "webm");
+    private static final int SAMPLE_SIZE = 1024;
+    private static final int MIN_SAMPLED_SIZE = 16 * 1024;
+    /**
+     * 开头样本的字节熵（比特/字节）超过此值时视为已压缩；1 KiB 的随机数据约为 7.8
+     */
+    private static final double ENTROPY_THRESHOLD = 7.5;
+    private static final byte[][] COMPRESSED_MAGIC = {
+            {0x1f, (byte) 0x8b},                                     // gzip
+            {0x50, 0x4b, 0x03, 0x04},                                // zip / jar
+            {0x37, 0x7a, (byte) 0xbc, (byte) 0xaf},                  // 7z
+            {(byte) 0xfd, 0x37, 0x7a, 0x58},                         // xz
+            {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd},                  // zstd
+            {(byte) 0x89, 0x50, 0x4e, 0x47},                         // png
+            {(byte) 0xff, (byte) 0xd8, (byte) 0xff},                 // jpeg
+            {0x4f, 0x67, 0x67, 0x53},                                // ogg
+    };
+
+    private CompressionPlanner() {
+    }
+
+    /**
+     * 规划选中的文件
+     *
+     * @return 规划结果；备份策略关闭了内容规划或只存储时返回 {@code null}
+     */
+    @Nullable
+    static Plan plan(@NotNull ArchiveEngine.Job job) {
+        if (!job.compression.contentAware
+                || job.compression.getLevel(ConfigParser.getConfig().backupStorage.zipCompression) == 0) {
+            return null;
+        }
+        long start = System.nanoTime();
+        BackupFileList fileList = job.fileList;
+        Path root = Paths.get(job.inputFolderPath);
+        BitSet stored = new BitSet(fileList.size());
+        int compressedFiles = 0;
+        int storedFiles = 0;
+        long compressedBytes = 0;
+        long storedBytes = 0;
+        ByteBuffer sample = ByteBuffer.allocate(SAMPLE_SIZE);
+        for (int i = 0; i < fileList.size(); i++) {
+            if (!job.selection.test(i)) continue;
+            long size = fileList.getSize(i);
+            if (isCompressed(root, fileList.getPath(i), size, sample)) {
+                stored.set(i);
+                storedFiles++;
+                storedBytes += size;
+            } else {
+                compressedFiles++;
+                compressedBytes += size;
+            }
+        }
+        return new Plan(stored, compressedFiles, compressedBytes, storedFiles, storedBytes, System.nanoTime() - start);
+    }
+
+    private static boolean isCompressed(Path root, String path, long size, ByteBuffer sample) {
+        int dot = path.lastIndexOf('.');
+        String extension = dot < 0 ? "" : path.substring(dot + 1).toLowerCase(Locale.ROOT);
+        if (COMPRESSED_EXTENSIONS.contains(extension)) {
+            return true;
+        }
+        if (size < MIN_SAMPLED_SIZE) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(root.resolve(path), StandardOpenOption.READ)) {
+            if (RegionFile.isRegionFile(path)) {
+                return isCompressedRegionFile(channel, size);
+            }
+            sample.clear();
+            while (sample.hasRemaining() && channel.read(sample) >= 0) {
+                // 读满样本或到达文件末尾
+            }
+            sample.flip();
+            return hasCompressedMagic(sample) || entropy(sample) > ENTROPY_THRESHOLD;
+        } catch (IOException e) {
+            // 无法读取的文件交给压缩引擎按原来的方式处理
+            return false;
+        }
+    }
+
+    /**
+     * 区域文件的区块通常以 Zlib 压缩；只有第一个区块未压缩时才认为整个文件可以压缩
+     */
+    private static boolean isCompressedRegionFile(FileChannel channel, long size) throws IOException {
+        ByteBuffer locations = ByteBuffer.allocate(RegionFile.SECTOR_SIZE);
+        while (locations.hasRemaining() && channel.read(locations) >= 0) {
+            // 读取位置表
+        }
+        for (int index = 0; index < RegionFile.CHUNK_COUNT; index++) {
+            int location = RegionFile.getLocation(locations, index);
+            if (location == 0) continue;
+            long offset = (long) (location >>> 8) * RegionFile.SECTOR_SIZE + RegionFile.COMPRESSION_TYPE_OFFSET;
+            if (offset >= size) return true;
+            ByteBuffer type = ByteBuffer.allocate(1);
+            channel.read(type, offset);
+            return (type.get(0) & 0x7F) != RegionFile.COMPRESSION_NONE;
+        }
+        return true;
+    }
+
+    private static boolean hasCompressedMagic(ByteBuffer sample) {
+        for (byte[] magic : COMPRESSED_MAGIC) {
+            if (sample.remaining() < magic.length) continue;
+            boolean matches = true;
+            for (int i = 0; i < magic.length && matches; i++) {
+                matches = sample.get(i) == magic[i];
+            }
+            if (matches) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 样本的字节熵（比特/字节）
+     */
+    private static double entropy(ByteBuffer sample) {
+        int length = sample.remaining();
+        if (length == 0) return 0;
+        int[] counts = new int[256];
+        for (int i = 0; i < length; i++) {
+            counts[sample.get(i) & 0xFF]++;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count == 0) continue;
+            double p = (double) count / length;
+            entropy -= p * Math.log(p);
+        }
+        return entropy / Math.log(2);
+    }
+
+    /**
+     * 规划结果
+     */
+    static final class Plan {
+        private final BitSet stored;
+        final int compressedFiles;
+        final long compressedBytes;
+        final int storedFiles;
+        final long storedBytes;
+        final long planningNanos;
+
+        private Plan(BitSet stored, int compressedFiles, long compressedBytes, int storedFiles, long storedBytes,
+                     long planningNanos) {
+            this.stored = stored;
+            this.compressedFiles = compressedFiles;
+            this.compressedBytes = compressedBytes;
+            this.storedFiles = storedFiles;
+            this.storedBytes = storedBytes;
+            this.planningNanos = planningNanos;
+        }
+
+        /**
+         * 该条目是否只存储
+         */
+        boolean isStored(int index) {
+            return stored.get(index);
+        }
+
+        /**
+         * 报告规划节省的 CPU 时间：已存储的数据若用压缩部分的单位 CPU 耗时压缩所需的时间，
+         * 减去实际存储它们与规划本身的耗时
+         *
+         * @param compressCpuNanos 压缩其余文件的 CPU 时间
+         * @param storeCpuNanos    存储已压缩文件的 CPU 时间
+         */
+        void report(@NotNull UploadLogger logger, @NotNull String location, long compressCpuNanos, long storeCpuNanos) {
+            if (storedFiles == 0) return;
+            String message = "备份位置 " + location + " 的内容规划：" + storedFiles + " 个文件（"
+                    + String.format("%.1f", storedBytes / (1024.0 * 1024.0)) + " MB）已经过压缩，仅存储；"
+                    + compressedFiles + " 个文件按类型排列后压缩，规划耗时 "
+                    + String.format("%.2f", planningNanos / 1e9) + " 秒";
+            if (compressedBytes > 0 && compressCpuNanos > 0) {
+                double nanosPerByte = (double) compressCpuNanos / compressedBytes;
+                double saved = storedBytes * nanosPerByte - storeCpuNanos - planningNanos;
+                message += "，估计节省 CPU 时间 " + String.format("%.1f", saved / 1e9) + " 秒";
+            }
+            logger.info(message);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package windsor.sevenzipbackup.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 基于内容的分块器（FastCDC）。
+ * <p>
+ * 使用 Gear 滚动哈希寻找切分点：切分点只取决于附近的内容，因此文件中间插入或修改数据后，
+ * 其余位置的块边界保持不变，可以与上次备份的块去重。块长度介于 {@link #MIN_SIZE} 与 {@link #MAX_SIZE} 之间，
+ * 低于平均长度时使用更严格的掩码、高于平均长度时使用更宽松的掩码，使块长度集中在 {@link #AVERAGE_SIZE} 附近。
+ * <p>
+ * Gear 表由固定种子生成，修改种子或长度参数会改变所有块边界，导致已有仓库无法去重。
+ */
+final class ContentDefinedChunker {
+    static final int MIN_SIZE = 64 * 1024;
+    static final int AVERAGE_SIZE = 256 * 1024;
+    static final int MAX_SIZE = 1024 * 1024;
+
+    private static final int AVERAGE_BITS = Integer.numberOfTrailingZeros(AVERAGE_SIZE);
+    // 使用哈希的高位：左移的 Gear 哈希中，高位受最近 64 个字节影响
+    private static final long MASK_SMALL = -1L << (64 - (AVERAGE_BITS + 2));
+    private static final long MASK_LARGE = -1L << (64 - (AVERAGE_BITS - 2));
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // SplitMix64，保证各版本 JDK 生成的表完全一致
+        long seed = 0x375A4243444346L;
+        for (int i = 0; i < GEAR.length; i++) {
+            seed += 0x9E3779B97F4A7C15L;
+            long z = seed;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[MAX_SIZE * 2];
+    private int position;
+    private int limit;
+    private boolean eof;
+    private int chunkOffset;
+
+    ContentDefinedChunker(@NotNull InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * 读取下一个块，块内容位于 {@link #buffer()} 的 {@link #offset()} 处
+     *
+     * @return 块长度；输入结束时返回 -1
+     */
+    int next() throws IOException {
+        if (limit - position < MAX_SIZE && !eof) {
+            fill();
+        }
+        int available = limit - position;
+        if (available == 0) {
+            return -1;
+        }
+        int length = cut(buffer, position, available);
+        chunkOffset = position;
+        position += length;
+        return length;
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    int offset() {
+        return chunkOffset;
+    }
+
+    private void fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        while (limit < buffer.length) {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                eof = true;
+                break;
+            }
+            limit += read;
+        }
+    }
+
+    /**
+     * 在 {@code data[offset, offset + length)} 中寻找切分点
+     *
+     * @return 块长度
+     */
+    static int cut(byte[] data, int offset, int length) {
+        if (length <= MIN_SIZE) {
+            return length;
+        }
+        int normal = Math.min(length, AVERAGE_SIZE);
+        int max = Math.min(length, MAX_SIZE);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xFF];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < max; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xFF];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,150 @@
+package windsor.sevenzipbackup.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * 并行压缩任务之间的 CPU 核心预算。
+ * <p>
+ * 每个 7zr 进程启动时从可用核心中分得互不重叠的一组核心，以 {@code -mmt} 指定线程数、以 {@code -stm}
+ * 绑定到这些核心，多个进程同时运行时总线程数不超过配置的核心数。运行中的进程无法调整线程数，
+ * 因此在每个任务启动时重新分配：空闲核心按剩余任务的数据量分配给即将同时启动的任务，
+ * 任务结束后释放的核心由之后启动的任务取得，最后剩下的大任务可以获得全部空闲核心。
+ * 没有空闲核心时任务等待其他任务结束。
+ */
+public final class CoreBudget {
+    private final int[] cores;
+    private final boolean[] allocated;
+    private final int maxParallel;
+    /**
+     * 尚未启动的任务数，包括还没有登记的任务
+     */
+    private int remainingTasks;
+    /**
+     * 已登记但尚未启动的任务，按提交顺序排列
+     */
+    private final Set<Ticket> waiting = new LinkedHashSet<>();
+    private int free;
+    private int running;
+
+    /**
+     * @param cores       可分配的核心编号
+     * @param maxParallel 同时运行的最大任务数
+     * @param taskCount   本次要执行的任务总数
+     */
+    public CoreBudget(@NotNull int[] cores, int maxParallel, int taskCount) {
+        this.cores = cores.clone();
+        this.allocated = new boolean[cores.length];
+        this.maxParallel = Math.max(1, maxParallel);
+        this.remainingTasks = taskCount;
+        this.free = cores.length;
+    }
+
+    /**
+     * 登记一个将要执行的任务
+     *
+     * @param weight 任务的数据量，决定分得的核心比例
+     */
+    @NotNull
+    public synchronized Ticket register(long weight) {
+        Ticket ticket = new Ticket(Math.max(1, weight));
+        waiting.add(ticket);
+        return ticket;
+    }
+
+    /**
+     * 为任务分配核心，没有空闲核心时等待
+     *
+     * @param maxThreads 任务最多使用的线程数，0 表示不限制
+     */
+    @NotNull
+    public synchronized Slice acquire(@NotNull Ticket ticket, int maxThreads) throws InterruptedException {
+        while (free == 0) {
+            wait();
+        }
+        waiting.remove(ticket);
+        remainingTasks = Math.max(0, remainingTasks - 1);
+        // 与该任务一同分配空闲核心的是接下来可以同时启动的任务；尚未扫描完成、还没有登记的任务按与该任务相同的数据量估计
+        int concurrent = Math.max(0, Math.min(maxParallel - running - 1, remainingTasks));
+        long totalWeight = ticket.weight;
+        Iterator<Ticket> iterator = waiting.iterator();
+        for (int i = 0; i < concurrent; i++) {
+            totalWeight += iterator.hasNext() ? iterator.next().weight : ticket.weight;
+        }
+        int share = (int) Math.round((double) free * ticket.weight / totalWeight);
+        if (maxThreads > 0) {
+            share = Math.min(share, maxThreads);
+        }
+        share = Math.max(1, Math.min(share, free));
+
+        int[] slice = new int[share];
+        int count = 0;
+        for (int i = 0; i < cores.length && count < share; i++) {
+            if (!allocated[i]) {
+                allocated[i] = true;
+                slice[count++] = i;
+            }
+        }
+        free -= share;
+        running++;
+        int[] sliceCores = new int[share];
+        for (int i = 0; i < share; i++) {
+            sliceCores[i] = cores[slice[i]];
+        }
+        return new Slice(slice, sliceCores);
+    }
+
+    /**
+     * 任务结束后归还核心
+     */
+    public synchronized void release(@NotNull Slice slice) {
+        for (int index : slice.indexes) {
+            allocated[index] = false;
+        }
+        free += slice.indexes.length;
+        running--;
+        notifyAll();
+    }
+
+    /**
+     * 登记的任务
+     */
+    public static final class Ticket {
+        private final long weight;
+
+        private Ticket(long weight) {
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * 分配给一个任务的核心
+     */
+    public static final class Slice {
+        private final int[] indexes;
+        private final int[] cores;
+
+        private Slice(int[] indexes, int[] cores) {
+            this.indexes = indexes;
+            this.cores = cores;
+        }
+
+        public int getThreads() {
+            return cores.length;
+        }
+
+        @NotNull
+        public int[] getCores() {
+            return cores.clone();
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(cores);
+        }
+    }
+}
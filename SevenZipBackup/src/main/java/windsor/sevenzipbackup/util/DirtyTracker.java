@@ -0,0 +1,267 @@
+package windsor.sevenzipbackup.util;
+
+import org.jetbrains.annotations.NotNull;
+import windsor.sevenzipbackup.UploadThread.UploadLogger;
+import windsor.sevenzipbackup.config.ConfigParser;
+import windsor.sevenzipbackup.util.FileUtil.BackupFileList;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 备份位置的目录变化跟踪器。
+ * <p>
+ * 在两次备份之间通过 {@link WatchService}（Linux 下为 inotify）监视备份位置中的每个目录，
+ * 记录其中有文件被创建、删除或修改的目录。下一次扫描时沿用上次扫描的结果，只重新列举这些目录中的文件，
+ * 没有任何变化的位置完全不需要遍历。
+ * <p>
+ * 监视在完整扫描之前注册，扫描期间发生的变化也会被记录。新建的目录在收到事件时立即注册并标记为已变化；
+ * 事件溢出、目录被移动或黑名单改变时，下一次扫描回退为完整扫描并重新注册所有目录。
+ * 注册失败（如超出 {@code fs.inotify.max_user_watches}）后该位置不再跟踪，直到重新加载配置。
+ */
+public final class DirtyTracker {
+    private static final Map<Path, DirtyTracker> TRACKERS = new HashMap<>();
+    private static final WatchEvent.Kind<?>[] EVENT_KINDS = {
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_DELETE,
+            StandardWatchEventKinds.ENTRY_MODIFY
+    };
+
+    private final Path root;
+    private final Map<WatchKey, String> directories = new HashMap<>();
+    private final Set<String> dirty = new HashSet<>();
+    private WatchService watchService;
+    private BlacklistMatcher blacklist;
+    private List<String> blacklistGlobs;
+    private BackupFileList baseline;
+    private boolean fullScanRequired = true;
+    private boolean disabled;
+
+    private DirtyTracker(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * 获取备份位置的跟踪器，不存在时创建（尚未开始监视）
+     */
+    @NotNull
+    static DirtyTracker forLocation(@NotNull String inputFolderPath) {
+        Path root = Paths.get(inputFolderPath).toAbsolutePath().normalize();
+        synchronized (TRACKERS) {
+            return TRACKERS.computeIfAbsent(root, DirtyTracker::new);
+        }
+    }
+
+    /**
+     * 停止所有跟踪器，下一次备份时重新进行完整扫描
+     */
+    public static void closeAll() {
+        synchronized (TRACKERS) {
+            for (DirtyTracker tracker : TRACKERS.values()) {
+                tracker.close();
+            }
+            TRACKERS.clear();
+        }
+    }
+
+    /**
+     * 沿用上次扫描的结果，只重新列举发生变化的目录
+     *
+     * @param fileList       追加结果的文件列表
+     * @param blacklistGlobs 本次扫描的黑名单，与上次不同时需要完整扫描
+     * @return 重新列举的目录数；需要完整扫描时返回 -1，此时文件列表未被修改
+     */
+    int rescan(UploadLogger logger, @NotNull BackupFileList fileList, @NotNull List<String> blacklistGlobs) throws IOException {
+        Set<String> changed;
+        BackupFileList previous;
+        synchronized (this) {
+            if (disabled || fullScanRequired || baseline == null || !blacklistGlobs.equals(this.blacklistGlobs)) {
+                return -1;
+            }
+            changed = new HashSet<>(dirty);
+            dirty.clear();
+            previous = baseline;
+        }
+
+        boolean completed = false;
+        try {
+            for (int i = 0; i < previous.size(); i++) {
+                String path = previous.getPath(i);
+                int separator = path.lastIndexOf(File.separatorChar);
+                if (!changed.contains(separator < 0 ? "" : path.substring(0, separator))) {
+                    fileList.appendToList(path, previous.getSize(i), previous.getLastModified(i), previous.getFileKey(i));
+                }
+            }
+            FileScanner scanner = new FileScanner(logger, root.toString(), fileList);
+            for (String directory : changed) {
+                scanner.scanDirectory(directory);
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                synchronized (this) {
+                    dirty.addAll(changed);
+                }
+            }
+        }
+        setBaseline(fileList);
+        return changed.size();
+    }
+
+    /**
+     * 注册备份位置中所有目录的监视，应在完整扫描之前调用
+     */
+    synchronized void start(UploadLogger logger, @NotNull List<String> blacklistGlobs) {
+        if (disabled) return;
+        closeWatchService();
+        dirty.clear();
+        baseline = null;
+        this.blacklistGlobs = new ArrayList<>(blacklistGlobs);
+        List<BlacklistEntry> entries = new ArrayList<>();
+        for (String glob : blacklistGlobs) {
+            entries.add(new BlacklistEntry(glob, FileSystems.getDefault().getPathMatcher("glob:" + glob)));
+        }
+        blacklist = new BlacklistMatcher(entries, ConfigParser.getConfig().backupStorage.localDirectory);
+        if (!Files.isDirectory(root)) {
+            disabled = true;
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            WatchService service = root.getFileSystem().newWatchService();
+            watchService = service;
+            fullScanRequired = false;
+            register(root.toFile(), "", false);
+            Thread thread = new Thread(() -> processEvents(service), "7zbackup-dirty-tracker");
+            thread.setDaemon(true);
+            thread.start();
+            logger.info("开始监视备份位置 " + root + " 的 " + directories.size() + " 个文件夹，耗时 "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            logger.info("无法监视备份位置 " + root + " 的文件夹变化，将继续使用完整扫描: " + e.getMessage());
+            closeWatchService();
+            disabled = true;
+        }
+    }
+
+    /**
+     * 保存扫描结果，作为下一次扫描的基础。与文件列表共享同一存储，不再占用第二份内存；
+     * 压缩后移除被跳过的文件时文件列表换用新的存储，基础保持不变
+     */
+    void setBaseline(@NotNull BackupFileList fileList) {
+        BackupFileList shared = fileList.share();
+        synchronized (this) {
+            if (watchService != null) {
+                baseline = shared;
+            }
+        }
+    }
+
+    private void processEvents(WatchService service) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            synchronized (this) {
+                String directory = directories.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (directory == null) continue;
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        fullScanRequired = true;
+                        continue;
+                    }
+                    dirty.add(directory);
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                        String name = event.context().toString();
+                        String child = directory.isEmpty() ? name : directory + File.separator + name;
+                        File file = root.resolve(child).toFile();
+                        if (file.isDirectory()) {
+                            try {
+                                register(file, child, true);
+                            } catch (IOException | ClosedWatchServiceException e) {
+                                fullScanRequired = true;
+                            }
+                        }
+                    }
+                }
+                // 目录被删除后监视失效，其中原有的文件需要从结果中移除
+                if (!key.reset() && directory != null) {
+                    directories.remove(key);
+                    dirty.add(directory);
+                }
+            }
+        }
+    }
+
+    /**
+     * 递归注册目录的监视，跳过被黑名单整体排除的目录与本地备份目录
+     *
+     * @param markDirty 是否将注册的目录标记为已变化（用于扫描后新建的目录）
+     */
+    private void register(@NotNull File directory, @NotNull String relativePath, boolean markDirty) throws IOException {
+        if (!relativePath.isEmpty() && blacklist.excludesDirectory(relativePath)) return;
+        WatchKey key;
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(directory.toPath(), BasicFileAttributes.class);
+            if (!attributes.isDirectory() || blacklist.isBackupFolder(directory, attributes)) return;
+            key = directory.toPath().register(watchService, EVENT_KINDS);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        // inotify 的监视跟随 inode，被移动的目录会返回原有的监视，其中记录的路径已失效
+        String previous = directories.put(key, relativePath);
+        if (previous != null && !previous.equals(relativePath)) {
+            fullScanRequired = true;
+        }
+        if (markDirty) {
+            dirty.add(relativePath);
+        }
+        String[] children = directory.list();
+        if (children == null) return;
+        String prefix = relativePath.isEmpty() ? "" : relativePath + File.separator;
+        for (String name : children) {
+            File child = new File(directory, name);
+            if (child.isDirectory()) {
+                register(child, prefix + name, markDirty);
+            }
+        }
+    }
+
+    private synchronized void close() {
+        closeWatchService();
+        baseline = null;
+        dirty.clear();
+    }
+
+    private void closeWatchService() {
+        directories.clear();
+        if (watchService == null) return;
+        try {
+            watchService.close();
+        } catch (IOException ignored) {
+        }
+        watchService = null;
+        fullScanRequired = true;
+    }
+}
@@ -0,0 +1,297 @@
+package windsor.sevenzipbackup.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * 文件列表的紧凑存储。
+ * <p>
+ * 每个条目编码为一条记录：long 大小, long 修改时间, int 文件键哈希, 变长整数 共享前缀长度, 变长整数 后缀长度, 后缀字节。
+ * 路径以 UTF-8 存储，并与上一条目共享前缀（前端编码）；扫描按目录顺序追加，同一目录下的文件只存储文件名。
+ * 每 {@link #RESTART_INTERVAL} 条记录存储一次完整路径，随机访问时从最近的完整路径开始解码。
+ * <p>
+ * 记录存放在 1 MiB 的页中，不跨页。堆上的页总量不超过构造时给定的上限，超出后的页映射到临时文件，
+ * 由操作系统的页缓存管理，不占用 Java 堆。
+ */
+final class FileListArena {
+    private static final int PAGE_SIZE = 1 << 20;
+    private static final int PAGE_BITS = Integer.numberOfTrailingZeros(PAGE_SIZE);
+    private static final int RESTART_INTERVAL = 16;
+    private static final int ATTRIBUTES_SIZE = 8 + 8 + 4;
+    private static final int MAX_HEADER_SIZE = ATTRIBUTES_SIZE + 5 + 5;
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final long heapLimit;
+    private final List<ByteBuffer> pages = new ArrayList<>();
+    private long heapBytes;
+    private SpillFile spillFile;
+    private long[] restarts = new long[16];
+    private int[] pageStarts = new int[4];
+    private int size;
+    private long writePosition;
+    private byte[] lastPath = new byte[256];
+    private int lastPathLength;
+
+    // 最近解码的条目，顺序访问时每个条目只解码一次
+    private int cursorIndex = -1;
+    private long cursorPosition;
+    private long cursorNext;
+    private byte[] cursorPath = new byte[256];
+    private int cursorPathLength;
+    private String cursorString;
+
+    /**
+     * @param heapLimit 堆上页的最大总字节数
+     */
+    FileListArena(long heapLimit) {
+        this.heapLimit = heapLimit;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getMemoryUsage() {
+        return heapBytes;
+    }
+
+    long getSpilledBytes() {
+        return (long) pages.size() * PAGE_SIZE - heapBytes;
+    }
+
+    void append(@NotNull String path, long size, long lastModified, int fileKey) {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        int prefix = 0;
+        if (this.size % RESTART_INTERVAL != 0) {
+            int max = Math.min(bytes.length, lastPathLength);
+            while (prefix < max && bytes[prefix] == lastPath[prefix]) {
+                prefix++;
+            }
+        }
+        int suffix = bytes.length - prefix;
+        int recordSize = MAX_HEADER_SIZE + suffix;
+        if (recordSize > PAGE_SIZE) {
+            throw new IllegalArgumentException("Path too long: " + path);
+        }
+        int offset = (int) (writePosition & (PAGE_SIZE - 1));
+        if (pages.isEmpty() || offset + recordSize > PAGE_SIZE) {
+            addPage();
+            if (pages.size() > pageStarts.length) {
+                pageStarts = Arrays.copyOf(pageStarts, pageStarts.length * 2);
+            }
+            pageStarts[pages.size() - 1] = this.size;
+            writePosition = (long) (pages.size() - 1) << PAGE_BITS;
+        }
+        if (this.size % RESTART_INTERVAL == 0) {
+            int restart = this.size / RESTART_INTERVAL;
+            if (restart == restarts.length) {
+                restarts = Arrays.copyOf(restarts, restart * 2);
+            }
+            restarts[restart] = writePosition;
+        }
+
+        ByteBuffer page = pages.get(pages.size() - 1);
+        int position = (int) (writePosition & (PAGE_SIZE - 1));
+        page.putLong(position, size);
+        page.putLong(position + 8, lastModified);
+        page.putInt(position + 16, fileKey);
+        position = putVarInt(page, position + ATTRIBUTES_SIZE, prefix);
+        position = putVarInt(page, position, suffix);
+        page.put(position, bytes, prefix, suffix);
+        position += suffix;
+        writePosition = ((long) (pages.size() - 1) << PAGE_BITS) + position;
+
+        if (lastPath.length < bytes.length) {
+            lastPath = Arrays.copyOf(bytes, Math.max(bytes.length, lastPath.length * 2));
+        } else {
+            System.arraycopy(bytes, prefix, lastPath, prefix, suffix);
+        }
+        lastPathLength = bytes.length;
+        this.size++;
+    }
+
+    @NotNull
+    String getPath(int index) {
+        seek(index);
+        if (cursorString == null) {
+            cursorString = new String(cursorPath, 0, cursorPathLength, StandardCharsets.UTF_8);
+        }
+        return cursorString;
+    }
+
+    long getSize(int index) {
+        seek(index);
+        return page(cursorPosition).getLong(offset(cursorPosition));
+    }
+
+    long getLastModified(int index) {
+        seek(index);
+        return page(cursorPosition).getLong(offset(cursorPosition) + 8);
+    }
+
+    int getFileKey(int index) {
+        seek(index);
+        return page(cursorPosition).getInt(offset(cursorPosition) + 16);
+    }
+
+    /**
+     * 原地更新条目的属性，路径不变
+     */
+    void setAttributes(int index, long size, long lastModified, int fileKey) {
+        seek(index);
+        ByteBuffer page = page(cursorPosition);
+        int offset = offset(cursorPosition);
+        page.putLong(offset, size);
+        page.putLong(offset + 8, lastModified);
+        page.putInt(offset + 16, fileKey);
+    }
+
+    /**
+     * 按顺序将选中条目的路径以 UTF-8 写出，每行一个，不创建字符串
+     *
+     * @param selection 要写出的条目
+     */
+    void writePaths(@NotNull OutputStream out, @NotNull IntPredicate selection) throws IOException {
+        for (int i = 0; i < size; i++) {
+            seek(i);
+            if (!selection.test(i)) continue;
+            out.write(cursorPath, 0, cursorPathLength);
+            out.write('\n');
+        }
+    }
+
+    /**
+     * 定位到条目并解码其路径
+     */
+    private void seek(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+        if (index == cursorIndex) return;
+        int current;
+        long position;
+        if (cursorIndex >= 0 && index > cursorIndex && index / RESTART_INTERVAL == cursorIndex / RESTART_INTERVAL) {
+            current = cursorIndex + 1;
+            position = cursorNext;
+        } else {
+            current = index - index % RESTART_INTERVAL;
+            position = restarts[current / RESTART_INTERVAL];
+        }
+        while (true) {
+            // 记录不跨页：页内剩余空间不足时，下一条记录从下一页的开头开始
+            int nextPage = (int) (position >> PAGE_BITS) + 1;
+            if (nextPage < pages.size() && pageStarts[nextPage] == current) {
+                position = (long) nextPage << PAGE_BITS;
+            }
+            ByteBuffer page = page(position);
+            int offset = offset(position) + ATTRIBUTES_SIZE;
+            int prefix = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = page.get(offset++);
+                prefix |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            int suffix = 0;
+            shift = 0;
+            do {
+                b = page.get(offset++);
+                suffix |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            if (cursorPath.length < prefix + suffix) {
+                cursorPath = Arrays.copyOf(cursorPath, Math.max(prefix + suffix, cursorPath.length * 2));
+            }
+            page.get(offset, cursorPath, prefix, suffix);
+            cursorPathLength = prefix + suffix;
+            cursorPosition = position;
+            cursorNext = (position & ~(long) (PAGE_SIZE - 1)) + offset + suffix;
+            cursorIndex = current;
+            cursorString = null;
+            if (current == index) return;
+            current++;
+            position = cursorNext;
+        }
+    }
+
+    private ByteBuffer page(long position) {
+        return pages.get((int) (position >> PAGE_BITS));
+    }
+
+    private static int offset(long position) {
+        return (int) (position & (PAGE_SIZE - 1));
+    }
+
+    private static int putVarInt(ByteBuffer page, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            page.put(position++, (byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        page.put(position++, (byte) value);
+        return position;
+    }
+
+    private void addPage() {
+        if (heapBytes + PAGE_SIZE <= heapLimit) {
+            pages.add(ByteBuffer.allocate(PAGE_SIZE));
+            heapBytes += PAGE_SIZE;
+            return;
+        }
+        try {
+            if (spillFile == null) {
+                spillFile = new SpillFile();
+                CLEANER.register(this, spillFile);
+            }
+            pages.add(spillFile.map());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 映射页所在的临时文件；文件在创建后立即删除（Windows 下于退出时删除），映射在通道关闭后仍然有效
+     */
+    private static final class SpillFile implements Runnable {
+        private final FileChannel channel;
+        private long length;
+
+        SpillFile() throws IOException {
+            Path file = Files.createTempFile("7zfiles_", ".bin");
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                Files.delete(file);
+            } catch (IOException e) {
+                file.toFile().deleteOnExit();
+            }
+        }
+
+        ByteBuffer map() throws IOException {
+            ByteBuffer page = channel.map(FileChannel.MapMode.READ_WRITE, length, PAGE_SIZE);
+            length += PAGE_SIZE;
+            return page;
+        }
+
+        @Override
+        public void run() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package windsor.sevenzipbackup.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import windsor.sevenzipbackup.UploadThread.UploadLogger;
+import windsor.sevenzipbackup.util.FileUtil.BackupFileList;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static windsor.sevenzipbackup.config.Localization.intl;
+
+/**
+ * 备份文件列表扫描器。
+ * <p>
+ * 并行度为 1 时在调用线程上递归遍历，文件在发现时直接追加到 {@link BackupFileList}；
+ * 大于 1 时使用 {@link ForkJoinPool} 以工作窃取的方式并行遍历子目录。并行模式下每个目录任务将其文件
+ * 按列举顺序分段写入一个完全映射到临时文件的暂存存储（{@link FileListArena}），并记录各段与子目录任务的顺序；
+ * 遍历结束后按该顺序拼接到文件列表中，因此两种模式生成的 {@link BackupFileList} 完全一致，
+ * 且都不会为每个文件在堆上保留对象。
+ * <p>
+ * 相对路径随遍历逐级拼接；被 {@link BlacklistMatcher} 排除的目录及本地备份目录不会被进入。
+ */
+class FileScanner {
+    /**
+     * 目录任务在堆上暂存的最大文件数，达到后写入暂存存储
+     */
+    private static final int RUN_SIZE = 256;
+
+    private final UploadLogger logger;
+    private final File root;
+    private final BackupFileList fileList;
+    private final BlacklistMatcher blacklist;
+
+    FileScanner(UploadLogger logger, String inputFolderPath, BackupFileList fileList) {
+        this.logger = logger;
+        this.root = new File(inputFolderPath);
+        this.fileList = fileList;
+        this.blacklist = fileList.getBlacklist();
+    }
+
+    /**
+     * 遍历输入目录，将结果追加到文件列表中
+     *
+     * @param parallelism 并行度，1 表示单线程递归遍历
+     */
+    void scan(int parallelism) throws IOException {
+        if (!root.exists()) return;
+        try {
+            BasicFileAttributes attributes = readAttributes(root);
+            if (attributes == null) return;
+            if (!attributes.isDirectory()) {
+                if (visitFile(root, attributes, "")) {
+                    append("", attributes);
+                }
+                return;
+            }
+            if (isBackupFolder(root, attributes)) return;
+            if (parallelism > 1) {
+                // 暂存存储不占用堆，全部映射到临时文件
+                FileListArena staging = new FileListArena(0);
+                DirectoryScanTask task = new DirectoryScanTask(root, "", staging);
+                ForkJoinPool pool = new ForkJoinPool(parallelism);
+                try {
+                    pool.invoke(task);
+                } finally {
+                    pool.shutdown();
+                }
+                task.copyTo(fileList);
+            } else {
+                scanTree(root, "");
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 只列举一个目录中的文件，不进入子目录；供 {@link DirtyTracker} 重新扫描发生变化的目录
+     *
+     * @param relativePath 目录相对于输入目录的路径，空字符串表示输入目录本身
+     */
+    void scanDirectory(@NotNull String relativePath) throws IOException {
+        File directory = relativePath.isEmpty() ? root : new File(root, relativePath);
+        String[] children = directory.list();
+        if (children == null) return;
+        String prefix = relativePath.isEmpty() ? "" : relativePath + File.separator;
+        try {
+            for (String name : children) {
+                File child = new File(directory, name);
+                BasicFileAttributes attributes = readAttributes(child);
+                if (attributes == null || attributes.isDirectory()) continue;
+                String childPath = prefix + name;
+                if (visitFile(child, attributes, childPath)) {
+                    append(childPath, attributes);
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 单线程递归遍历目录，文件按列举顺序直接追加到文件列表
+     */
+    private void scanTree(@NotNull File directory, @NotNull String relativePath) {
+        String[] children = directory.list();
+        if (children == null) return;
+        String prefix = relativePath.isEmpty() ? "" : relativePath + File.separator;
+        for (String name : children) {
+            File child = new File(directory, name);
+            BasicFileAttributes attributes = readAttributes(child);
+            if (attributes == null) continue;
+            String childPath = prefix + name;
+            if (attributes.isDirectory()) {
+                // 在进入前剪除被排除的整个子树
+                if (!blacklist.excludesDirectory(childPath) && !isBackupFolder(child, attributes)) {
+                    scanTree(child, childPath);
+                }
+            } else if (visitFile(child, attributes, childPath)) {
+                append(childPath, attributes);
+            }
+        }
+    }
+
+    /**
+     * 检查单个常规文件是否应加入备份
+     *
+     * @param relativePath 相对于输入目录的路径
+     */
+    private boolean visitFile(@NotNull File file, @NotNull BasicFileAttributes attributes, @NotNull String relativePath) {
+        if (!attributes.isRegularFile()) {
+            logger.info(intl("local-backup-failed-to-include"),
+                    "file-path", file.getAbsolutePath());
+            return false;
+        }
+        // 内置规则与黑名单检查
+        if (blacklist.excludesFile(file.getName(), relativePath)) {
+            return false;
+        }
+        // 可读性检查：仅检查访问权限，不打开文件；扫描后才被锁定的文件由 7zr 跳过并报告
+        if (!file.canRead()) {
+            // 记录无法读取的文件，但不会中断整个列表生成
+            logger.info("跳过无法读取的文件: " + file.getAbsolutePath());
+            return false;
+        }
+        return true;
+    }
+
+    private void append(@NotNull String path, @NotNull BasicFileAttributes attributes) {
+        fileList.appendToList(path, attributes.size(), attributes.lastModifiedTime().toMillis(),
+                FileUtil.fileKeyHash(attributes));
+    }
+
+    /**
+     * 验证是否备份了本地备份目录，是则整体跳过
+     */
+    private boolean isBackupFolder(@NotNull File directory, @NotNull BasicFileAttributes attributes) {
+        if (blacklist.isBackupFolder(directory, attributes)) {
+            logger.info("已跳过本地备份目录: " + directory.getPath());
+            return true;
+        }
+        return false;
+    }
+
+    @Nullable
+    private static BasicFileAttributes readAttributes(@NotNull File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 目录任务尚未写入暂存存储的一段连续文件
+     */
+    private static final class PendingRun {
+        final String[] paths = new String[RUN_SIZE];
+        final long[] sizes = new long[RUN_SIZE];
+        final long[] lastModified = new long[RUN_SIZE];
+        final int[] fileKeys = new int[RUN_SIZE];
+        int count;
+
+        void add(String path, BasicFileAttributes attributes) {
+            paths[count] = path;
+            sizes[count] = attributes.size();
+            lastModified[count] = attributes.lastModifiedTime().toMillis();
+            fileKeys[count] = FileUtil.fileKeyHash(attributes);
+            count++;
+        }
+    }
+
+    /**
+     * 扫描单个目录；子目录作为子任务派发，本目录的文件分段写入暂存存储。
+     * 各段在暂存存储中的下标范围（{@code int[]}）与子目录任务按列举顺序记录在 {@link #parts} 中
+     */
+    private final class DirectoryScanTask extends RecursiveAction {
+        private final File directory;
+        private final String relativePath;
+        private final FileListArena staging;
+        private final List<Object> parts = new ArrayList<>();
+
+        DirectoryScanTask(File directory, String relativePath, FileListArena staging) {
+            this.directory = directory;
+            this.relativePath = relativePath;
+            this.staging = staging;
+        }
+
+        @Override
+        protected void compute() {
+            String[] children = directory.list();
+            if (children == null) return;
+            List<DirectoryScanTask> subtasks = new ArrayList<>();
+            PendingRun run = new PendingRun();
+            String prefix = relativePath.isEmpty() ? "" : relativePath + File.separator;
+            for (String name : children) {
+                File child = new File(directory, name);
+                BasicFileAttributes attributes = readAttributes(child);
+                if (attributes == null) continue;
+                String childPath = prefix + name;
+                if (attributes.isDirectory()) {
+                    // 在进入前剪除被排除的整个子树
+                    if (blacklist.excludesDirectory(childPath) || isBackupFolder(child, attributes)) {
+                        continue;
+                    }
+                    flush(run);
+                    DirectoryScanTask subtask = new DirectoryScanTask(child, childPath, staging);
+                    subtasks.add(subtask);
+                    parts.add(subtask);
+                } else if (visitFile(child, attributes, childPath)) {
+                    run.add(childPath, attributes);
+                    if (run.count == RUN_SIZE) {
+                        flush(run);
+                    }
+                }
+            }
+            flush(run);
+            if (!subtasks.isEmpty()) {
+                invokeAll(subtasks);
+            }
+        }
+
+        /**
+         * 将暂存的文件作为连续的一段写入暂存存储
+         */
+        private void flush(@NotNull PendingRun run) {
+            if (run.count == 0) return;
+            synchronized (staging) {
+                int start = staging.size();
+                for (int i = 0; i < run.count; i++) {
+                    staging.append(run.paths[i], run.sizes[i], run.lastModified[i], run.fileKeys[i]);
+                }
+                parts.add(new int[]{start, staging.size()});
+            }
+            Arrays.fill(run.paths, 0, run.count, null);
+            run.count = 0;
+        }
+
+        /**
+         * 遍历结束后，按列举顺序将本目录及其子目录的文件追加到文件列表
+         */
+        void copyTo(@NotNull BackupFileList fileList) {
+            for (Object part : parts) {
+                if (part instanceof DirectoryScanTask) {
+                    ((DirectoryScanTask) part).copyTo(fileList);
+                    continue;
+                }
+                int[] range = (int[]) part;
+                for (int i = range[0]; i < range[1]; i++) {
+                    fileList.appendToList(staging.getPath(i), staging.getSize(i), staging.getLastModified(i),
+                            staging.getFileKey(i));
+                }
+            }
+        }
+    }
+}
@@ -1,32 +1,28 @@
 package windsor.sevenzipbackup.util;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.List;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import windsor.sevenzipbackup.BackupProgressCallback;
 import windsor.sevenzipbackup.UploadThread.UploadLogger;
 import windsor.sevenzipbackup.config.ConfigParser;
 import windsor.sevenzipbackup.config.ConfigParser.Config;
+import windsor.sevenzipbackup.config.configSections.BackupList.BackupListEntry.Compression;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.time.ZonedDateTime;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
 
 import static windsor.sevenzipbackup.config.Localization.intl;
 
 public class FileUtil {
     private static final String NAME_KEYWORD = "%NAME";
-    private static final Pattern PROGRESS_PERCENT = Pattern.compile("(?<!\\d)(\\d{1,3})%");
+    private static final int MAX_LOGGED_SKIPPED_FILES = 20;
 
     private final UploadLogger logger;
 
@@ -35,21 +31,25 @@ public class FileUtil {
     }
 
     /**
-     * Gets the local backups in the specified folder as a {@code TreeMap} with their creation date and a reference to them.
+     * Gets the local backup files in the specified folder, sorted from oldest to newest.
+     * <p>
+     * 分卷备份的每个分卷都单独列出，可以用 {@link BackupChain#getBackupName} 归为同一个备份。
      */
-    public TreeMap<Long, File> getLocalBackups(String location, LocalDateTimeFormatter formatter) {
+    public List<File> getLocalBackups(String location, LocalDateTimeFormatter formatter) {
         location = escapeBackupLocation(location);
-        TreeMap<Long, File> backupList = new TreeMap<>();
+        List<File> backupList = new ArrayList<>();
         String path = new File(ConfigParser.getConfig().backupStorage.localDirectory).getAbsolutePath() + "/" + location;
         File[] files = new File(path).listFiles();
         if (files == null) {
             return backupList;
         }
         for (File file : files) {
-            if (file.getName().endsWith(".7z")) {
-                backupList.put((file.lastModified() / 1000), file);
+            if (BackupChain.isBackupFile(file.getName())) {
+                backupList.add(file);
             }
         }
+        // 同一秒内写入的分卷按名称排序，不会相互覆盖
+        backupList.sort(Comparator.comparingLong(File::lastModified).thenComparing(File::getName));
         return backupList;
     }
 
@@ -66,11 +66,16 @@ public class FileUtil {
         if (localKeepCount == -1) {
             logger.info(intl("local-backup-no-limit"));
         } else {
+            ChunkRepository repository = ChunkRepository.forLocation(logger, location);
+            if (repository.exists()) {
+                repository.pruneSnapshots(localKeepCount);
+            }
             try {
-                TreeMap<Long, File> backupList = getLocalBackups(location, formatter);
-                String size = String.valueOf(backupList.size());
+                List<File> backupList = getLocalBackups(location, formatter);
+                int backupCount = BackupChain.countBackups(backupList, File::getName);
+                String size = String.valueOf(backupCount);
                 String keepCount = String.valueOf(localKeepCount);
-                if (backupList.size() > localKeepCount) {
+                if (backupCount > localKeepCount) {
                     logger.info(intl("local-backup-limit-reached"),
                             "backup-count", size,
                             "backup-limit", keepCount);
@@ -80,9 +85,9 @@ public class FileUtil {
                             "backup-limit", keepCount);
                     return;
                 }
-                while (backupList.size() > localKeepCount) {
-                    File fileToDelete = backupList.descendingMap().lastEntry().getValue();
-                    long dateOfFile = backupList.descendingMap().lastKey();
+                // 按备份链选择要删除的文件，仍被差异备份依赖的完整备份不会被删除
+                List<File> filesToDelete = BackupChain.selectForDeletion(backupList, File::getName, localKeepCount);
+                for (File fileToDelete : filesToDelete) {
                     if (!fileToDelete.delete()) {
                         logger.log(intl("local-backup-file-failed-to-delete"),
                                 "local-backup-name", fileToDelete.getName());
@@ -90,7 +95,10 @@ public class FileUtil {
                         logger.info(intl("local-backup-file-deleted"),
                                 "local-backup-name", fileToDelete.getName());
                     }
-                    backupList.remove(dateOfFile);
+                }
+                int retained = backupCount - BackupChain.countBackups(filesToDelete, File::getName) - localKeepCount;
+                if (retained > 0) {
+                    logger.info("为保持备份链完整，额外保留了 " + retained + " 个备份");
                 }
                 logger.log(intl("local-backup-pruning-complete"), "location", location);
             } catch (Exception e) {
@@ -101,206 +109,197 @@ public class FileUtil {
     }
 
     /**
-     * 创建 7z 压缩文件
+     * 使用压缩引擎创建 7z 压缩文件，报告被跳过的文件并将进度补全到 100%
+     *
+     * @return 因无法读取而被跳过的文件
      */
-    private void ZipIt(String inputFolderPath, String outputFilePath,
-                       BackupFileList fileList, BackupProgressCallback callback) throws Exception {
-        if (ConfigParser.getConfig().advanced.debugEnabled)
-            logger.info("正在为" + inputFolderPath + "创建压缩文件 (使用外部 7zr)");
-
-        File outputFile = new File(outputFilePath).getAbsoluteFile();
-        File parentDir = outputFile.getParentFile();
-        if (parentDir != null && !parentDir.exists()) {
-            parentDir.mkdirs();
-        }
-
-        List<String> files = fileList.getList();
-        files.removeIf(file -> {
-            File f = new File(inputFolderPath, file);
-            return !isFileReadable(f);
-        });
-        Path listFile = Files.createTempFile("7zlist_", ".txt");
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(listFile.toFile()))) {
-            for (String file : files) {
-                writer.write(file);
-                writer.newLine();
+    private List<String> compress(ArchiveEngine engine, ArchiveEngine.Job job,
+                                  BackupProgressCallback callback) throws Exception {
+        List<String> skippedFiles = engine.compress(job, callback);
+        if (!skippedFiles.isEmpty()) {
+            logger.info("备份完成，但有 " + skippedFiles.size() + " 个文件无法读取（已跳过）。");
+            int shown = Math.min(skippedFiles.size(), MAX_LOGGED_SKIPPED_FILES);
+            for (int i = 0; i < shown; i++) {
+                logger.info("跳过无法读取的文件: " + skippedFiles.get(i));
             }
-        }
-
-        Path exePath = SevenZipExecutable.getExecutablePath();
-        String level = "-mx" + ConfigParser.getConfig().backupStorage.zipCompression;
-        List<String> command = new ArrayList<>(List.of(
-                exePath.toString(),
-                "a", "-t7z", level, "-ms=on", "-ssw", "-sccUTF-8", "-bsp1"
-        ));
-        // CPU 亲和性：如果启用，附加 -stm{HexMask} 参数以绑定到指定 CPU 核心
-        String affinityArg = buildCpuAffinityArg();
-        if (affinityArg != null) {
-            command.add(affinityArg);
-        }
-        command.add(outputFile.getAbsolutePath());
-        command.add("@" + listFile.toAbsolutePath());
-
-        if (ConfigParser.getConfig().advanced.debugEnabled) {
-            logger.info("执行命令: " + String.join(" ", command));
-            logger.info("工作目录: " + inputFolderPath);
-        }
-
-        ProcessBuilder pb = new ProcessBuilder(command);
-        pb.directory(new File(inputFolderPath));
-        pb.redirectErrorStream(true);
-        Process process = pb.start();
-
-        // 用于速率限制（每秒最多5次 ≈ 200ms 间隔）
-        long lastProgressUpdate = 0;
-        int totalFiles = files.size();
-        int lastReportedPercent = -1;
-
-        StringBuilder outputBuilder = new StringBuilder();
-        StringBuilder progressBuffer = new StringBuilder();
-        try (InputStreamReader reader = new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)) {
-            char[] chars = new char[1024];
-            int read;
-            while ((read = reader.read(chars)) != -1) {
-                String output = new String(chars, 0, read);
-                outputBuilder.append(output);
-                progressBuffer.append(output);
-
-                Matcher matcher = PROGRESS_PERCENT.matcher(progressBuffer);
-                int consumed = 0;
-                while (matcher.find()) {
-                    int percent = Integer.parseInt(matcher.group(1));
-                    consumed = matcher.end();
-                    if (percent > 100 || percent == lastReportedPercent) {
-                        continue;
-                    }
-
-                    lastReportedPercent = percent;
-                    long now = System.currentTimeMillis();
-                    // Rate-limit updates to five per second, except for completion.
-                    if (percent == 100 || (now - lastProgressUpdate) >= 200) {
-                        if (callback != null) {
-                            int processed = (int) (totalFiles * (percent / 100.0));
-                            callback.onProgress(processed, totalFiles);
-                        }
-                        lastProgressUpdate = now;
-                    }
-                }
-
-                if (consumed > 0) {
-                    progressBuffer.delete(0, consumed);
-                }
-                // Keep enough trailing characters to match a percentage split across reads.
-                if (progressBuffer.length() > 32) {
-                    progressBuffer.delete(0, progressBuffer.length() - 32);
-                }
+            if (skippedFiles.size() > shown) {
+                logger.info("……以及另外 " + (skippedFiles.size() - shown) + " 个文件");
             }
         }
 
-        int exitCode = process.waitFor();
-        try { Files.deleteIfExists(listFile); } catch (Exception ignored) {}
-
-        if (exitCode >= 2) {
-            String errorMsg = "7zr failed with exit code " + exitCode + ". Output: " + outputBuilder;
-            logger.info(errorMsg);
-            throw new RuntimeException(errorMsg);
-        }
-
-        if (exitCode == 1) {
-            logger.info("备份完成，但部分文件无法读取（已跳过）。");
-        }
-        if (ConfigParser.getConfig().advanced.debugEnabled) {
-            logger.info("7zr output: " + outputBuilder);
-        }
-
         // 确保最终进度为 100%
         if (callback != null) {
-            callback.onProgress(totalFiles, totalFiles);
+            callback.onProgress(job.progressTotal, job.progressTotal);
+            callback.onProgress(job.progressBytes, job.progressBytes, 0, 0);
             callback.onBackupComplete();
         }
+        return skippedFiles;
     }
 
     /**
-     * 根据配置构建 7zr 的 CPU 亲和性参数 {@code -stm{HexMask}}。
+     * 根据配置获取压缩可以使用的 CPU 核心。
      * <p>
      * 规则：
      * <ul>
-     *   <li>未启用（{@code enable-specify-cpu-cores: false}）→ 返回 {@code null}，不附加参数，使用全部核心</li>
-     *   <li>列表为 {@code "-1"}（自动）→ 返回 {@code null}，使用全部核心</li>
-     *   <li>列表包含逗号分隔的核心编号（0 到 N-1）→ 将每个核心对应的位（1 &lt;&lt; core）置入掩码，
-     *       格式化为十六进制附加到命令</li>
-     *   <li>任一编号无法解析或超出有效范围（含混合出现的 {@code -1}）→ 回退至默认，返回 {@code null}</li>
+     *   <li>未启用（{@code enable-specify-cpu-cores: false}）→ 全部核心</li>
+     *   <li>列表为 {@code "-1"}（自动）→ 全部核心</li>
+     *   <li>列表包含逗号分隔的核心编号（0 到 N-1）→ 列表中的核心</li>
+     *   <li>任一编号无法解析或超出有效范围（含混合出现的 {@code -1}）→ 回退至默认，使用全部核心</li>
      * </ul>
      *
-     * @return {@code -stm...} 亲和性参数，或 {@code null}（使用全部核心 / 回退默认）
+     * @return 核心编号，不含重复
      */
-    private static String buildCpuAffinityArg() {
+    public static int[] getCompressionCores() {
+        int availableProcessors = Runtime.getRuntime().availableProcessors();
+        int[] allCores = new int[availableProcessors];
+        for (int i = 0; i < availableProcessors; i++) {
+            allCores[i] = i;
+        }
         Config config = ConfigParser.getConfig();
         if (config == null || !config.backupStorage.enableSpecifyCpuCores) {
-            return null;
+            return allCores;
         }
         String rawList = config.backupStorage.cpuCoresList;
         if (rawList == null || rawList.trim().isEmpty()) {
-            return null;
+            return allCores;
         }
         // "-1" 表示自动 → 使用全部核心
         if (rawList.trim().equals("-1")) {
-            return null;
+            return allCores;
         }
 
-        int availableProcessors = Runtime.getRuntime().availableProcessors();
-        long mask = 0L;
+        Set<Integer> cores = new LinkedHashSet<>();
         for (String part : rawList.split(",")) {
             String trimmed = part.trim();
             // 混合出现 "-1"（如 "0,-1,3"）按无效处理 → 回退默认
             if (trimmed.equals("-1")) {
-                return null;
+                return allCores;
             }
             int core;
             try {
                 core = Integer.parseInt(trimmed);
             } catch (NumberFormatException e) {
-                return null; // 无法解析 → 回退默认
+                return allCores; // 无法解析 → 回退默认
             }
             if (core < 0 || core >= availableProcessors) {
-                return null; // 无效核心编号 → 回退默认
+                return allCores; // 无效核心编号 → 回退默认
             }
-            mask |= (1L << core);
+            cores.add(core);
         }
-        return "-stm" + Long.toHexString(mask);
+        return cores.stream().mapToInt(Integer::intValue).toArray();
     }
 
+    /**
+     * 一次扫描得到的文件列表，同时保存每个文件的大小、修改时间与文件键哈希，供清单比较使用。
+     * <p>
+     * 条目保存在 {@link FileListArena} 中：路径共享前缀并以 UTF-8 存储，超出 {@code scan-memory-limit}
+     * 的部分映射到临时文件，因此文件数很多时堆占用也有上限。按下标顺序访问最快。
+     */
     public static class BackupFileList {
-        private int filesInBackupFolder;
-        private final List<String> fileList;
-        private final List<BlacklistEntry> blacklist;
+        private FileListArena arena;
+        private final BlacklistMatcher blacklist;
 
         @Contract(pure = true)
-        private BackupFileList(List<BlacklistEntry> blacklist) {
-            this.filesInBackupFolder = 0;
-            this.fileList = new ArrayList<>();
+        BackupFileList(BlacklistMatcher blacklist) {
+            this(new FileListArena(getScanMemoryLimit()), blacklist);
+        }
+
+        BackupFileList(FileListArena arena, BlacklistMatcher blacklist) {
+            this.arena = arena;
             this.blacklist = blacklist;
         }
 
-        void incFilesInBackupFolder() {
-            filesInBackupFolder++;
+        /**
+         * 与本列表共享同一存储的只读视图，不复制条目。之后对本列表的 {@link #retainIf} 使用新的存储，
+         * 不影响视图；{@link #updateAttributes} 对视图同样可见
+         */
+        BackupFileList share() {
+            return new BackupFileList(arena, blacklist);
         }
 
-        int getFilesInBackupFolder() {
-            return filesInBackupFolder;
+        void appendToList(String file, long size, long modified, int fileKey) {
+            arena.append(file, size, modified, fileKey);
         }
 
-        void appendToList(String file) {
-            fileList.add(file);
+        void updateAttributes(int index, long size, long modified, int fileKey) {
+            arena.setAttributes(index, size, modified, fileKey);
         }
 
-        public List<String> getList() {
-            return fileList;
+        /**
+         * 移除不满足条件的条目
+         *
+         * @return 被移除的条目数
+         */
+        int retainIf(IntPredicate keep) {
+            int total = arena.size();
+            FileListArena kept = new FileListArena(getScanMemoryLimit());
+            for (int i = 0; i < total; i++) {
+                if (!keep.test(i)) continue;
+                kept.append(arena.getPath(i), arena.getSize(i), arena.getLastModified(i), arena.getFileKey(i));
+            }
+            arena = kept;
+            return total - kept.size();
         }
 
-        List<BlacklistEntry> getBlacklist() {
+        /**
+         * 将选中条目的路径写入 7zr 的列表文件，每行一个
+         */
+        void writeList(OutputStream out, IntPredicate selection) throws IOException {
+            arena.writePaths(out, selection);
+        }
+
+        public int size() {
+            return arena.size();
+        }
+
+        public String getPath(int index) {
+            return arena.getPath(index);
+        }
+
+        public long getSize(int index) {
+            return arena.getSize(index);
+        }
+
+        public long getLastModified(int index) {
+            return arena.getLastModified(index);
+        }
+
+        public int getFileKey(int index) {
+            return arena.getFileKey(index);
+        }
+
+        /**
+         * 所有条目的大小之和
+         */
+        public long getTotalSize() {
+            long total = 0;
+            for (int i = 0; i < arena.size(); i++) {
+                total += arena.getSize(i);
+            }
+            return total;
+        }
+
+        /**
+         * 堆上占用的字节数
+         */
+        public long getMemoryUsage() {
+            return arena.getMemoryUsage();
+        }
+
+        /**
+         * 映射到临时文件的字节数
+         */
+        public long getSpilledBytes() {
+            return arena.getSpilledBytes();
+        }
+
+        BlacklistMatcher getBlacklist() {
             return blacklist;
         }
+
+        private static long getScanMemoryLimit() {
+            return ConfigParser.getConfig().backupStorage.scanMemoryLimit * 1024L * 1024L;
+        }
     }
 
     // 新增：生成输出文件路径
@@ -328,8 +327,10 @@ public class FileUtil {
         for (String glob : blacklistGlobs) {
             blacklist.add(new BlacklistEntry(glob, FileSystems.getDefault().getPathMatcher("glob:" + glob)));
         }
-        BackupFileList fileList = new BackupFileList(blacklist);
-        generateFileList(new File(inputFolderPath), inputFolderPath, fileList);
+        BackupFileList fileList = scanFileList(inputFolderPath, blacklist);
+        logger.info("备份位置 " + inputFolderPath + " 的文件列表占用堆内存 "
+                + String.format("%.1f", fileList.getMemoryUsage() / (1024.0 * 1024.0)) + " MB，映射到临时文件 "
+                + String.format("%.1f", fileList.getSpilledBytes() / (1024.0 * 1024.0)) + " MB");
 
         // 统计信息
         for (BlacklistEntry be : blacklist) {
@@ -339,108 +340,254 @@ public class FileUtil {
                         "blacklisted-files-count", String.valueOf(count),
                         "glob-pattern", be.getGlobPattern());
             }
-        }
-        int folderFiles = fileList.getFilesInBackupFolder();
-        if (folderFiles > 0) {
-            logger.info(intl("local-backup-in-backup-folder"),
-                    "files-in-backup-folder-count", String.valueOf(folderFiles));
+            int folders = be.getBlacklistedFolders();
+            if (folders > 0) {
+                logger.info("备份列表中未包含 " + folders + " 个文件夹，因为它们已被 \"" + be.getGlobPattern() + "\" 整体排除");
+            }
         }
         if (callback != null) {
-            callback.onFileListPrepared(fileList.getList().size());
+            callback.onFileListPrepared(fileList.size());
         }
         return fileList;
     }
 
     /**
-     * 仅生成文件列表，不做日志统计，用于重新扫描
+     * 重新检查已收集的条目是否仍然存在。只对列表中的文件执行 stat，不重新遍历目录树。
+     *
+     * @return 被移除的条目数
      */
-    public BackupFileList prepareFileList(String inputFolderPath, List<String> blacklistGlobs) throws Exception {
-        List<BlacklistEntry> blacklist = new ArrayList<>();
-        for (String glob : blacklistGlobs) {
-            blacklist.add(new BlacklistEntry(glob, FileSystems.getDefault().getPathMatcher("glob:" + glob)));
+    public int refreshFileList(String inputFolderPath, BackupFileList fileList) {
+        return fileList.retainIf(index -> {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(
+                        Paths.get(inputFolderPath, fileList.getPath(index)), BasicFileAttributes.class);
+                if (!attributes.isRegularFile()) return false;
+                fileList.updateAttributes(index, attributes.size(),
+                        attributes.lastModifiedTime().toMillis(), fileKeyHash(attributes));
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        });
+    }
+
+    /**
+     * 文件键（Unix 下为设备号与 inode）的哈希，文件键不可用时为 0
+     */
+    static int fileKeyHash(BasicFileAttributes attributes) {
+        Object fileKey = attributes.fileKey();
+        return fileKey == null ? 0 : fileKey.hashCode();
+    }
+
+    /**
+     * 按配置的并行度遍历输入目录，并记录扫描耗时以便对比单线程与并行扫描
+     */
+    private BackupFileList scanFileList(String inputFolderPath, List<BlacklistEntry> blacklist) throws Exception {
+        BackupFileList fileList = new BackupFileList(
+                new BlacklistMatcher(blacklist, ConfigParser.getConfig().backupStorage.localDirectory));
+        DirtyTracker tracker = null;
+        List<String> blacklistGlobs = new ArrayList<>(blacklist.size());
+        if (ConfigParser.getConfig().backupStorage.dirtyTracking) {
+            for (BlacklistEntry entry : blacklist) {
+                blacklistGlobs.add(entry.getGlobPattern());
+            }
+            tracker = DirtyTracker.forLocation(inputFolderPath);
+            long start = System.nanoTime();
+            int changedFolders = tracker.rescan(logger, fileList, blacklistGlobs);
+            if (changedFolders >= 0) {
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                logger.info("增量扫描 " + inputFolderPath + " 完成：" + fileList.size() + " 个文件，重新列举 "
+                        + changedFolders + " 个发生变化的文件夹，耗时 " + elapsed + " ms");
+                return fileList;
+            }
+            // 在完整扫描之前开始监视，扫描期间的变化会在下一次扫描时重新列举
+            tracker.start(logger, blacklistGlobs);
+        }
+
+        int parallelism = getScanParallelism();
+        long start = System.nanoTime();
+        new FileScanner(logger, inputFolderPath, fileList).scan(parallelism);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logger.info("扫描 " + inputFolderPath + " 完成：" + fileList.size() + " 个文件，耗时 "
+                + elapsed + " ms（" + (parallelism > 1 ? "并行度 " + parallelism : "单线程递归") + "）");
+        if (tracker != null) {
+            tracker.setBaseline(fileList);
         }
-        BackupFileList fileList = new BackupFileList(blacklist);
-        generateFileList(new File(inputFolderPath), inputFolderPath, fileList);
         return fileList;
     }
 
-    // 直接压缩给定的文件列表
-    public void compressBackup(String inputFolderPath, String outputFilePath,
-                               BackupFileList fileList, BackupProgressCallback callback) throws Exception {
-        ZipIt(inputFolderPath, outputFilePath, fileList, callback);
+    /**
+     * 获取扫描并行度；配置为 0 时使用全部可用核心
+     */
+    private static int getScanParallelism() {
+        int parallelism = ConfigParser.getConfig().backupStorage.scanParallelism;
+        if (parallelism <= 0) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return parallelism;
     }
 
     /**
-     * Adds the specified file or folder to the list of files to put in the zip created from the specified folder.
+     * 压缩给定的文件列表。
+     * <p>
+     * {@code fullBackupInterval} 大于 1 时，每隔该次数创建一次完整备份；其间与完整备份时的清单比较，
+     * 只将新增或修改的文件与已删除文件列表写入差异备份（{@link BackupChain#DIFFERENTIAL_SUFFIX}）。
+     * 没有可用的基准清单或本地完整备份时回退为完整备份。
+     *
+     * @param sourceFolderPath 读取文件的文件夹：备份位置的快照，没有快照时与 {@code inputFolderPath} 相同
+     * @param compression    备份策略的压缩设置
+     * @param cores          分配给该任务的 CPU 核心
+     * @param volumeSize     分卷大小（MB），0 表示不分卷
+     * @param volumeListener 接收已写完的分卷，可为 {@code null}
+     * @param engine         使用的压缩引擎
      */
-    private void generateFileList(@NotNull File file, String inputFolderPath, BackupFileList fileList) throws Exception {
-        if (!file.exists()) return;
-        BasicFileAttributes fileAttributes;
-        try {
-            fileAttributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
-        } catch (java.nio.file.NoSuchFileException e) {
-            return;
-        }
-
-        if (fileAttributes.isRegularFile()) {
-            String fileName = file.getName();
-            String lowerName = fileName.toLowerCase();
-            // 跳过所有 SQLite / H2 等嵌入式数据库文件，它们常被插件以独占模式打开
-            if (lowerName.endsWith(".db")
-                    || lowerName.endsWith(".mv.db")
-                    || lowerName.endsWith(".sqlite")
-                    || lowerName.endsWith(".db-shm")
-                    || lowerName.endsWith(".db-wal")) {
-                return;
+    public void compressBackup(String inputFolderPath, String sourceFolderPath, String outputFilePath,
+                               BackupFileList fileList, int fullBackupInterval, Compression compression, CoreBudget.Slice cores,
+                               long volumeSize, Consumer<File> volumeListener, ArchiveEngine engine,
+                               BackupProgressCallback callback) throws Exception {
+        Path manifestPath = getManifestPath(inputFolderPath);
+        Path baseManifestPath = manifestPath.resolveSibling(ScanManifest.BASE_FILE_NAME);
+        ScanManifest lastManifest = logChangesSinceLastBackup(inputFolderPath, manifestPath, fileList);
+
+        int chainPosition = 0;
+        ScanManifest.Diff baseDiff = null;
+        if (lastManifest != null && lastManifest.getChainPosition() + 1 < fullBackupInterval
+                && hasFullBackup(inputFolderPath)) {
+            baseDiff = diffAgainstBase(baseManifestPath, fileList);
+            if (baseDiff != null) {
+                chainPosition = lastManifest.getChainPosition() + 1;
             }
-            // 跳过 session.lock
-            if (lowerName.equals("session.lock")) return;
+        }
+
+        List<String> skippedFiles;
+        if (baseDiff == null) {
+            skippedFiles = compress(engine, new ArchiveEngine.Job(sourceFolderPath, outputFilePath, fileList,
+                    index -> true, Collections.emptyList(), fileList.size(), fileList.getTotalSize(),
+                    compression, cores, volumeSize, volumeListener), callback);
+        } else {
+            skippedFiles = compressDifferential(inputFolderPath, sourceFolderPath, outputFilePath, fileList, baseDiff,
+                    chainPosition, compression, cores, volumeSize, volumeListener, engine, callback);
+        }
 
-            // 验证是否备份了本地备份目录
-            if (file.getCanonicalPath().startsWith(new File(ConfigParser.getConfig().backupStorage.localDirectory).getCanonicalPath())) {
-                fileList.incFilesInBackupFolder();
-                return;
+        // 被跳过的文件不计入清单，下次备份时会作为新增文件再次尝试
+        if (!skippedFiles.isEmpty()) {
+            Set<String> skipped = new HashSet<>(skippedFiles);
+            fileList.retainIf(index -> !skipped.contains(fileList.getPath(index)));
+        }
+        try {
+            ScanManifest.write(manifestPath, fileList, chainPosition);
+            if (chainPosition == 0) {
+                ScanManifest.write(baseManifestPath, fileList, 0);
             }
+        } catch (IOException e) {
+            logger.info("写入扫描清单失败: " + manifestPath);
+            MessageUtil.sendConsoleException(e);
+        }
+    }
 
-            Path relativePath = Paths.get(inputFolderPath).relativize(file.toPath());
+    /**
+     * 将文件列表写入备份位置的去重仓库，快照以输出文件名（去掉扩展名）命名
+     *
+     * @param sourceFolderPath 读取文件的文件夹：备份位置的快照，没有快照时与 {@code inputFolderPath} 相同
+     * @param compression 备份策略的压缩设置，仓库只使用其中的压缩等级
+     */
+    public void backupToRepository(String inputFolderPath, String sourceFolderPath, String outputFilePath,
+                                   BackupFileList fileList, Compression compression,
+                                   BackupProgressCallback callback) throws Exception {
+        String snapshotName = new File(outputFilePath).getName();
+        if (snapshotName.endsWith(BackupChain.ARCHIVE_SUFFIX)) {
+            snapshotName = snapshotName.substring(0, snapshotName.length() - BackupChain.ARCHIVE_SUFFIX.length());
+        }
+        ChunkRepository.forLocation(logger, inputFolderPath).backup(sourceFolderPath, fileList, snapshotName,
+                compression.getLevel(ConfigParser.getConfig().backupStorage.zipCompression), callback);
+    }
 
-            // 黑名单检查
-            for (BlacklistEntry blacklistEntry : fileList.getBlacklist()) {
-                if (blacklistEntry.getPathMatcher().matches(relativePath)) {
-                    blacklistEntry.incBlacklistedFiles();
-                    return;
-                }
+    /**
+     * 只压缩相对于基准新增或修改的文件，并附带已删除文件列表，使差异备份永不为空
+     */
+    private List<String> compressDifferential(String inputFolderPath, String sourceFolderPath, String outputFilePath,
+                                              BackupFileList fileList, ScanManifest.Diff baseDiff, int chainPosition,
+                                              Compression compression, CoreBudget.Slice cores, long volumeSize,
+                                              Consumer<File> volumeListener, ArchiveEngine engine,
+                                              BackupProgressCallback callback) throws Exception {
+        int changedFiles = baseDiff.changed.cardinality();
+        Path deletionFolder = Files.createTempDirectory("7zdiff_");
+        Path deletionList = deletionFolder.resolve(BackupChain.DELETION_LIST);
+        try {
+            Files.write(deletionList, baseDiff.deleted, StandardCharsets.UTF_8);
+            logger.info("备份位置 " + inputFolderPath + " 创建第 " + chainPosition + " 个差异备份：相对于完整备份新增 "
+                    + baseDiff.added + " 个，修改 " + baseDiff.modified + " 个，删除 " + baseDiff.deleted.size()
+                    + " 个文件，写入 " + changedFiles + " / " + fileList.size() + " 个文件");
+            long changedBytes = 0;
+            for (int i = baseDiff.changed.nextSetBit(0); i >= 0; i = baseDiff.changed.nextSetBit(i + 1)) {
+                changedBytes += fileList.getSize(i);
             }
+            return compress(engine, new ArchiveEngine.Job(sourceFolderPath, BackupChain.toDifferentialPath(outputFilePath),
+                    fileList, baseDiff.changed::get, Collections.singletonList(deletionList), fileList.size(),
+                    changedBytes, compression, cores, volumeSize, volumeListener), callback);
+        } finally {
+            Files.deleteIfExists(deletionList);
+            Files.deleteIfExists(deletionFolder);
+        }
+    }
 
-            // 可读性检查：尝试打开文件，确保后续压缩能顺利读取
-            if (!isFileReadable(file)) {
-                // 记录无法读取的文件，但不会中断整个列表生成
-                logger.info("跳过无法读取的文件: " + file.getAbsolutePath());
-                return;
-            }
+    /**
+     * 与最近一次完整备份时的清单比较
+     *
+     * @return 差异；基准清单不存在或无法读取时返回 {@code null}
+     */
+    private ScanManifest.Diff diffAgainstBase(Path baseManifestPath, BackupFileList fileList) {
+        try {
+            ScanManifest baseManifest = ScanManifest.load(baseManifestPath);
+            return baseManifest == null ? null : baseManifest.diff(fileList);
+        } catch (IOException e) {
+            logger.info("读取扫描清单失败: " + baseManifestPath);
+            MessageUtil.sendConsoleException(e);
+            return null;
+        }
+    }
 
-            fileList.appendToList(relativePath.toString());
-        } else if (fileAttributes.isDirectory()) {
-            String[] children = file.list();
-            if (children != null) {
-                for (String filename : children) {
-                    generateFileList(new File(file, filename), inputFolderPath, fileList);
-                }
+    /**
+     * 检查备份位置是否仍有本地完整备份可作为差异备份的基准
+     */
+    private boolean hasFullBackup(String location) {
+        if (isBaseFolder(location)) location = "root";
+        for (File backup : getLocalBackups(location, null)) {
+            if (!BackupChain.isDifferential(backup.getName())) {
+                return true;
             }
-        } else {
-            logger.info(intl("local-backup-failed-to-include"),
-                    "file-path", file.getAbsolutePath());
         }
+        return false;
+    }
+
+    /**
+     * 获取备份位置的扫描清单路径，与该位置的本地备份存放在同一文件夹中
+     */
+    public static Path getManifestPath(String location) {
+        if (isBaseFolder(location)) location = "root";
+        String folder = escapeBackupLocation(ConfigParser.getConfig().backupStorage.localDirectory + "/" + location);
+        return Paths.get(folder, ScanManifest.FILE_NAME);
     }
 
     /**
-     * 快速检查文件是否可读（通过尝试打开输入流）
+     * 与上次成功备份时的清单比较，输出自上次备份以来的变化
+     *
+     * @return 上次备份的清单；不存在或无法读取时返回 {@code null}
      */
-    private boolean isFileReadable(File file) {
-        try (FileInputStream ignored = new FileInputStream(file)) {
-            return true; // 成功打开即说明可读
+    private ScanManifest logChangesSinceLastBackup(String location, Path manifestPath, BackupFileList fileList) {
+        try {
+            long start = System.nanoTime();
+            ScanManifest manifest = ScanManifest.load(manifestPath);
+            if (manifest == null) return null;
+            ScanManifest.Diff diff = manifest.diff(fileList);
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            logger.info("备份位置 " + location + " 自上次备份以来：新增 " + diff.added + " 个，修改 " + diff.modified
+                    + " 个，删除 " + diff.deleted.size() + " 个，未变 " + diff.unchanged + " 个文件（比较耗时 " + elapsed + " ms）");
+            return manifest;
         } catch (IOException e) {
-            return false;
+            logger.info("读取扫描清单失败: " + manifestPath);
+            MessageUtil.sendConsoleException(e);
+            return null;
         }
     }
 
@@ -502,21 +649,4 @@ public class FileUtil {
         }
         folder.delete();
     }
-
-    private static class BlacklistEntry {
-        private final String globPattern;
-        private final PathMatcher pathMatcher;
-        private int blacklistedFiles;
-
-        public BlacklistEntry(String globPattern, PathMatcher pathMatcher) {
-            this.globPattern = globPattern;
-            this.pathMatcher = pathMatcher;
-            this.blacklistedFiles = 0;
-        }
-
-        public String getGlobPattern() { return globPattern; }
-        public PathMatcher getPathMatcher() { return pathMatcher; }
-        public int getBlacklistedFiles() { return blacklistedFiles; }
-        public void incBlacklistedFiles() { blacklistedFiles++; }
-    }
 }
@@ -0,0 +1,186 @@
+package windsor.sevenzipbackup.util;
+
+import org.jetbrains.annotations.NotNull;
+import windsor.sevenzipbackup.UploadThread.UploadLogger;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * 世界保存后的写入屏障，代替固定的等待时间。
+ * <p>
+ * {@code World.save()} 返回时区块可能仍在 I/O 线程的队列中。屏障每 {@value #POLL_MILLIS} ms
+ * 检查一次自上次备份以来修改过的区域、实体与 POI 文件，大小与修改时间 {@value #QUIET_MILLIS} ms
+ * 内不再变化即认为保存已完成（最多等待 {@value #QUIET_TIMEOUT_MILLIS} ms），然后用有限的线程池对这些文件执行
+ * {@link FileChannel#force}，确保数据已写入磁盘。首次备份检查服务器启动以来修改过的文件。
+ */
+final class FlushBarrier {
+    private static final Set<String> FOLDERS = Set.of("region", "entities", "poi");
+    private static final String EXTENSION = ".mca";
+    /**
+     * 世界文件夹中区域文件夹的最大深度，维度文件夹（如 {@code DIM-1/region}）为 2
+     */
+    private static final int MAX_DEPTH = 3;
+    private static final long POLL_MILLIS = 100;
+    private static final long QUIET_MILLIS = 500;
+    private static final long QUIET_TIMEOUT_MILLIS = 10_000;
+    /**
+     * 文件修改时间的精度可能只有秒级，检查时向前多取一些
+     */
+    private static final long MODIFIED_MARGIN_MILLIS = 2000;
+    private static final int MAX_THREADS = 4;
+
+    private static long lastBarrier = ManagementFactory.getRuntimeMXBean().getStartTime();
+
+    private FlushBarrier() {
+    }
+
+    /**
+     * 等待世界文件夹中的保存结束并同步到磁盘
+     */
+    static synchronized void await(@NotNull List<Path> worldFolders, @NotNull UploadLogger logger)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        long since = lastBarrier - MODIFIED_MARGIN_MILLIS;
+        lastBarrier = System.currentTimeMillis();
+
+        // 等待修改过的文件不再变化
+        Map<Path, FileState> files = collect(worldFolders, since);
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(QUIET_TIMEOUT_MILLIS);
+        long lastChange = System.nanoTime();
+        boolean quiet = false;
+        while (System.nanoTime() < deadline) {
+            Thread.sleep(POLL_MILLIS);
+            Map<Path, FileState> current = collect(worldFolders, since);
+            if (!current.equals(files)) {
+                files = current;
+                lastChange = System.nanoTime();
+            } else if (System.nanoTime() - lastChange >= TimeUnit.MILLISECONDS.toNanos(QUIET_MILLIS)) {
+                quiet = true;
+                break;
+            }
+        }
+        long settled = System.nanoTime();
+        if (!quiet) {
+            logger.info("世界文件在 " + QUIET_TIMEOUT_MILLIS / 1000 + " 秒内仍有写入，不再等待保存结束");
+        }
+
+        long bytes = 0;
+        for (FileState state : files.values()) {
+            bytes += state.size;
+        }
+        int failed = force(files.keySet());
+        long end = System.nanoTime();
+        logger.info("写入屏障耗时 " + TimeUnit.NANOSECONDS.toMillis(end - start) + " ms：等待保存 "
+                + TimeUnit.NANOSECONDS.toMillis(settled - start) + " ms，同步 " + files.size() + " 个文件（"
+                + String.format("%.1f", bytes / (1024.0 * 1024.0)) + " MB）耗时 "
+                + TimeUnit.NANOSECONDS.toMillis(end - settled) + " ms"
+                + (failed > 0 ? "，" + failed + " 个文件同步失败" : ""));
+    }
+
+    /**
+     * 自 {@code since} 以来修改过的区域、实体与 POI 文件
+     */
+    private static Map<Path, FileState> collect(List<Path> worldFolders, long since) {
+        Map<Path, FileState> files = new HashMap<>();
+        for (Path folder : worldFolders) {
+            if (!Files.isDirectory(folder)) continue;
+            try (Stream<Path> stream = Files.find(folder, MAX_DEPTH, (path, attributes) ->
+                    attributes.isRegularFile()
+                            && attributes.lastModifiedTime().toMillis() >= since
+                            && path.getFileName().toString().endsWith(EXTENSION)
+                            && path.getParent() != null
+                            && FOLDERS.contains(path.getParent().getFileName().toString()))) {
+                stream.forEach(path -> {
+                    try {
+                        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                        files.put(path, new FileState(attributes.size(), attributes.lastModifiedTime().toMillis()));
+                    } catch (IOException e) {
+                        // 文件在遍历期间被删除
+                    }
+                });
+            } catch (IOException | RuntimeException e) {
+                // 无法遍历的文件夹不参与屏障，与之前的固定等待相比不会更差
+            }
+        }
+        return files;
+    }
+
+    /**
+     * 以有限的线程池同步文件
+     *
+     * @return 同步失败的文件数
+     */
+    private static int force(Set<Path> files) throws InterruptedException {
+        if (files.isEmpty()) return 0;
+        int threads = Math.max(1, Math.min(Math.min(MAX_THREADS, files.size()),
+                Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        AtomicInteger failed = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>(files.size());
+        try {
+            for (Path file : files) {
+                futures.add(executor.submit(() -> {
+                    // 以写入方式打开不会修改文件，Windows 上同步需要写入权限
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                        channel.force(false);
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    failed.incrementAndGet();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return failed.get();
+    }
+
+    /**
+     * 文件的大小与修改时间
+     */
+    private static final class FileState {
+        final long size;
+        final long modified;
+
+        FileState(long size, long modified) {
+            this.size = size;
+            this.modified = modified;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof FileState)) return false;
+            FileState state = (FileState) other;
+            return size == state.size && modified == state.modified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(size) * 31 + Long.hashCode(modified);
+        }
+    }
+}
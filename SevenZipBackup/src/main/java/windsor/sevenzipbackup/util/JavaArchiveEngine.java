@@ -0,0 +1,208 @@
+package windsor.sevenzipbackup.util;
+
+import org.apache.commons.compress.archivers.sevenz.SevenZArchiveEntry;
+import org.apache.commons.compress.archivers.sevenz.SevenZMethod;
+import org.apache.commons.compress.archivers.sevenz.SevenZMethodConfiguration;
+import org.apache.commons.compress.archivers.sevenz.SevenZOutputFile;
+import org.jetbrains.annotations.NotNull;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.UnsupportedOptionsException;
+import org.jetbrains.annotations.Nullable;
+import windsor.sevenzipbackup.BackupProgressCallback;
+import windsor.sevenzipbackup.UploadThread.UploadLogger;
+import windsor.sevenzipbackup.config.ConfigParser;
+import windsor.sevenzipbackup.config.configSections.BackupList.BackupListEntry.Compression;
+import windsor.sevenzipbackup.util.FileUtil.BackupFileList;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * 在插件进程内流式压缩，不启动 7zr 进程，也不写入列表文件，适合数据量很小的位置。
+ * <p>
+ * 生成的同样是 7z 压缩文件，但只使用单线程，不支持分卷。压缩方法为 LZMA2 或 LZMA，
+ * 级别与字典大小与备份策略一致，{@code store}、{@code Copy} 或级别 0 时只存储；
+ * 不支持的 PPMd 改用 LZMA2。每个文件单独压缩，固实块设置会被忽略。
+ * 内容规划认为已经过压缩的文件逐个以仅存储的方式写入。暂停时压缩线程在两次写入之间等待。
+ */
+final class JavaArchiveEngine implements ArchiveEngine {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final UploadLogger logger;
+    private volatile boolean cancelled;
+    private boolean paused;
+
+    JavaArchiveEngine(UploadLogger logger) {
+        this.logger = logger;
+    }
+
+    @NotNull
+    @Override
+    public String getName() {
+        return "java";
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+        resume();
+    }
+
+    @Override
+    public synchronized boolean pause() {
+        paused = true;
+        return true;
+    }
+
+    @Override
+    public synchronized void resume() {
+        paused = false;
+        notifyAll();
+    }
+
+    /**
+     * 暂停时等待恢复
+     */
+    private synchronized void awaitResume() throws InterruptedException {
+        while (paused && !cancelled) {
+            wait();
+        }
+    }
+
+    @NotNull
+    @Override
+    public List<String> compress(@NotNull Job job, @Nullable BackupProgressCallback callback) throws Exception {
+        if (ConfigParser.getConfig().advanced.debugEnabled)
+            logger.info("正在为" + job.inputFolderPath + "创建压缩文件 (使用内置压缩引擎)");
+
+        File outputFile = job.outputFile;
+        File parentDir = outputFile.getParentFile();
+        if (parentDir != null && !parentDir.exists()) {
+            parentDir.mkdirs();
+        }
+        int level = job.compression.getLevel(ConfigParser.getConfig().backupStorage.zipCompression);
+        boolean store = job.compression.store || "Copy".equals(job.compression.method) || level == 0;
+
+        CompressionPlanner.Plan plan = store ? null : CompressionPlanner.plan(job);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        boolean measureCpu = plan != null && threads.isCurrentThreadCpuTimeSupported();
+        long compressCpu = 0;
+        long storeCpu = 0;
+        BackupFileList fileList = job.fileList;
+        Path root = Paths.get(job.inputFolderPath);
+        List<String> skippedFiles = new ArrayList<>();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long start = System.nanoTime();
+        long processedBytes = 0;
+        int processedFiles = 0;
+        long lastProgressUpdate = 0;
+        boolean succeeded = false;
+        try (SevenZOutputFile archive = new SevenZOutputFile(outputFile)) {
+            archive.setContentMethods(Collections.singletonList(getMethod(job.compression, level, store)));
+            for (int i = 0; i < fileList.size(); i++) {
+                if (!job.selection.test(i)) continue;
+                String path = fileList.getPath(i);
+                InputStream in;
+                try {
+                    in = Files.newInputStream(root.resolve(path));
+                } catch (IOException e) {
+                    // 与 7zr 的 -ssw 一致：无法打开的文件跳过并报告，不中止备份
+                    skippedFiles.add(path);
+                    continue;
+                }
+                boolean stored = plan != null && plan.isStored(i);
+                long cpuStart = measureCpu ? threads.getCurrentThreadCpuTime() : 0;
+                try (InputStream input = in) {
+                    SevenZArchiveEntry entry = new SevenZArchiveEntry();
+                    entry.setName(path.replace(File.separatorChar, '/'));
+                    entry.setLastModifiedTime(FileTime.fromMillis(fileList.getLastModified(i)));
+                    if (stored) {
+                        entry.setContentMethods(Collections.singletonList(new SevenZMethodConfiguration(SevenZMethod.COPY)));
+                    }
+                    archive.putArchiveEntry(entry);
+                    int read;
+                    while ((read = input.read(buffer)) != -1) {
+                        awaitResume();
+                        if (cancelled) {
+                            throw new CancellationException("Compression was cancelled");
+                        }
+                        archive.write(buffer, 0, read);
+                        processedBytes += read;
+                    }
+                    archive.closeArchiveEntry();
+                }
+                if (measureCpu) {
+                    long cpu = threads.getCurrentThreadCpuTime() - cpuStart;
+                    if (stored) {
+                        storeCpu += cpu;
+                    } else {
+                        compressCpu += cpu;
+                    }
+                }
+                processedFiles++;
+
+                long now = System.currentTimeMillis();
+                // Rate-limit updates to five per second.
+                if (callback != null && now - lastProgressUpdate >= 200) {
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    double bytesPerSecond = seconds <= 0 ? 0 : processedBytes / seconds;
+                    long remainingSeconds = bytesPerSecond <= 0 ? -1
+                            : (long) (Math.max(0, job.progressBytes - processedBytes) / bytesPerSecond);
+                    callback.onProgress(processedFiles, job.progressTotal);
+                    callback.onProgress(processedBytes, job.progressBytes, bytesPerSecond, remainingSeconds);
+                    lastProgressUpdate = now;
+                }
+            }
+            for (Path extraFile : job.extraFiles) {
+                archive.putArchiveEntry(archive.createArchiveEntry(extraFile, extraFile.getFileName().toString()));
+                archive.write(extraFile);
+                archive.closeArchiveEntry();
+            }
+            archive.finish();
+            succeeded = true;
+            if (plan != null) {
+                plan.report(logger, job.inputFolderPath, compressCpu, storeCpu);
+            }
+        } finally {
+            if (!succeeded) {
+                Files.deleteIfExists(outputFile.toPath());
+            }
+        }
+        return skippedFiles;
+    }
+
+    private static SevenZMethodConfiguration getMethod(Compression compression, int level, boolean store)
+            throws UnsupportedOptionsException {
+        if (store) {
+            return new SevenZMethodConfiguration(SevenZMethod.COPY);
+        }
+        LZMA2Options options = new LZMA2Options(Math.min(level, LZMA2Options.PRESET_MAX));
+        if (compression.dictionarySize != null) {
+            options.setDictSize((int) Math.max(LZMA2Options.DICT_SIZE_MIN,
+                    Math.min(parseSize(compression.dictionarySize), LZMA2Options.DICT_SIZE_MAX)));
+        }
+        return new SevenZMethodConfiguration("LZMA".equals(compression.method) ? SevenZMethod.LZMA : SevenZMethod.LZMA2,
+                options);
+    }
+
+    /**
+     * 解析 7zr 格式的大小，如 {@code 64m}；没有单位时为字节
+     */
+    private static long parseSize(String size) {
+        char unit = Character.toLowerCase(size.charAt(size.length() - 1));
+        int shift = unit == 'k' ? 10 : unit == 'm' ? 20 : unit == 'g' ? 30 : 0;
+        String digits = Character.isDigit(unit) ? size : size.substring(0, size.length() - 1);
+        return Long.parseLong(digits) << shift;
+    }
+}
@@ -0,0 +1,283 @@
+package windsor.sevenzipbackup.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import windsor.sevenzipbackup.UploadThread.UploadLogger;
+import windsor.sevenzipbackup.config.ConfigParser;
+import windsor.sevenzipbackup.util.FileUtil.BackupFileList;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 包含世界文件的备份位置在保存之后的暂存快照：压缩从快照读取，世界的快照创建完成后即可恢复其自动保存，
+ * 不必等待压缩结束。
+ * <p>
+ * 快照位于本地备份文件夹的 {@value #FOLDER_NAME} 中，只包含扫描得到的文件，按以下顺序尝试：
+ * <ol>
+ *     <li>在 Linux 上用 {@code cp --reflink=always} 创建写时复制的副本（FICLONE，Btrfs、XFS 等），
+ *     不复制数据；</li>
+ *     <li>服务器只以“写入临时文件再重命名”方式更新的文件（{@code level.dat} 与玩家数据）创建硬链接，
+ *     重命名后快照仍指向旧文件；区域文件等会被原地改写的文件复制；</li>
+ *     <li>不能创建硬链接时（快照与备份位置不在同一文件系统）全部复制。</li>
+ * </ol>
+ * 复制以多个线程通过 {@link FileChannel#transferTo} 进行，Linux 上由内核完成，部分文件系统会自动共享数据块。
+ * 复制前检查剩余空间，空间不足或创建失败时返回 {@code null}，该位置直接从原文件夹压缩。
+ */
+public final class LocationSnapshot {
+    private static final String FOLDER_NAME = ".staging";
+    private static final String REFLINK_PROBE = ".reflink-probe";
+    private static final int MAX_COPY_THREADS = 8;
+    private static final int BATCH_SIZE = 256;
+    /**
+     * 复制后至少保留的剩余空间
+     */
+    private static final long MIN_FREE_BYTES = 1024L * 1024 * 1024;
+
+    /**
+     * 快照的创建方式
+     */
+    private enum Method {
+        REFLINK("写时复制"),
+        HARDLINK("硬链接与复制"),
+        COPY("复制");
+
+        private final String description;
+
+        Method(String description) {
+            this.description = description;
+        }
+    }
+
+    private final Path path;
+
+    private LocationSnapshot(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * 快照文件夹，文件列表中的相对路径在其中不变
+     */
+    @NotNull
+    public String getPath() {
+        return path.toString();
+    }
+
+    /**
+     * 删除快照
+     */
+    public void delete() {
+        FileUtil.deleteFolder(path.toFile());
+    }
+
+    /**
+     * 删除上次运行中断时留下的快照
+     */
+    public static void deleteStaleSnapshots() {
+        File root = getRoot().toFile();
+        if (root.exists()) {
+            FileUtil.deleteFolder(root);
+        }
+    }
+
+    /**
+     * 为备份位置中扫描得到的文件创建快照
+     *
+     * @param index 本次备份中的位置序号，用作快照文件夹名
+     * @return 快照；无法创建时返回 {@code null}
+     */
+    @Nullable
+    public static LocationSnapshot create(@NotNull UploadLogger logger, @NotNull String location,
+                                          @NotNull BackupFileList fileList, int index) {
+        Path source = Paths.get(location).toAbsolutePath();
+        Path target = getRoot().resolve(String.valueOf(index)).toAbsolutePath();
+        long start = System.nanoTime();
+        Method method = null;
+        AtomicInteger links = new AtomicInteger();
+        try {
+            Files.createDirectories(target);
+            if (reflink(source, target, fileList)) {
+                method = Method.REFLINK;
+            } else {
+                FileUtil.deleteFolder(target.toFile());
+                Files.createDirectories(target);
+                long usable = Files.getFileStore(target).getUsableSpace();
+                if (usable - fileList.getTotalSize() < MIN_FREE_BYTES) {
+                    logger.info("备份位置 " + location + " 所在磁盘剩余空间不足以复制快照，直接从原文件夹压缩");
+                    FileUtil.deleteFolder(target.toFile());
+                    return null;
+                }
+                copy(source, target, fileList, links);
+                method = links.get() > 0 ? Method.HARDLINK : Method.COPY;
+            }
+        } catch (Exception e) {
+            logger.info("为备份位置 " + location + " 创建快照失败，直接从原文件夹压缩");
+            MessageUtil.sendConsoleException(e);
+            FileUtil.deleteFolder(target.toFile());
+            return null;
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logger.info("备份位置 " + location + " 的快照已创建（" + method.description + "）：" + fileList.size()
+                + " 个文件，" + String.format("%.1f", fileList.getTotalSize() / (1024.0 * 1024.0)) + " MB"
+                + (links.get() > 0 ? "，其中硬链接 " + links.get() + " 个" : "") + "，耗时 " + elapsed + " ms");
+        return new LocationSnapshot(target);
+    }
+
+    private static Path getRoot() {
+        return Paths.get(ConfigParser.getConfig().backupStorage.localDirectory, FOLDER_NAME);
+    }
+
+    /**
+     * 以 {@code cp --reflink=always} 创建写时复制的副本，文件列表经 {@code xargs} 分批传给 cp
+     *
+     * @return 是否成功
+     */
+    private static boolean reflink(Path source, Path target, BackupFileList fileList) throws IOException {
+        if (!System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("linux") || fileList.size() == 0) {
+            return false;
+        }
+        // cp 遇到失败的文件后会继续处理其余文件，先用第一个文件确认文件系统支持写时复制
+        Path probe = target.resolve(REFLINK_PROBE);
+        Process process;
+        try {
+            process = new ProcessBuilder("cp", "--reflink=always", "--",
+                    source.resolve(fileList.getPath(0)).toString(), probe.toString())
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            if (waitFor(process) != 0) {
+                return false;
+            }
+            Files.deleteIfExists(probe);
+            process = new ProcessBuilder("xargs", "-d", "\n", "-r", "cp", "--reflink=always",
+                    "--preserve=timestamps", "--parents", "-t", target.toString(), "--")
+                    .directory(source.toFile())
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+        } catch (IOException e) {
+            // 没有 xargs 或 cp
+            return false;
+        }
+        try (OutputStream out = new BufferedOutputStream(process.getOutputStream(), 1 << 16)) {
+            fileList.writeList(out, index -> true);
+        } catch (IOException e) {
+            // cp 已失败退出，xargs 不再读取列表
+        }
+        return waitFor(process) == 0;
+    }
+
+    private static int waitFor(Process process) throws IOException {
+        try {
+            return process.waitFor();
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("Snapshot was interrupted", e);
+        }
+    }
+
+    /**
+     * 以多个线程创建硬链接或复制文件；列表不能并发读取，因此在当前线程中按批取出路径
+     */
+    private static void copy(Path source, Path target, BackupFileList fileList, AtomicInteger links)
+            throws Exception {
+        int threads = Math.max(1, Math.min(MAX_COPY_THREADS, Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Semaphore inFlight = new Semaphore(threads * 2);
+        AtomicBoolean linksSupported = new AtomicBoolean(true);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int first = 0; first < fileList.size(); first += BATCH_SIZE) {
+                int last = Math.min(first + BATCH_SIZE, fileList.size());
+                List<String> paths = new ArrayList<>(last - first);
+                long[] modified = new long[last - first];
+                for (int i = first; i < last; i++) {
+                    paths.add(fileList.getPath(i));
+                    modified[i - first] = fileList.getLastModified(i);
+                }
+                inFlight.acquire();
+                futures.add(executor.submit(() -> {
+                    try {
+                        for (int i = 0; i < paths.size(); i++) {
+                            copyFile(source.resolve(paths.get(i)), target.resolve(paths.get(i)), modified[i],
+                                    isReplacedByRename(paths.get(i)) && linksSupported.get(), linksSupported, links);
+                        }
+                    } finally {
+                        inFlight.release();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void copyFile(Path source, Path target, long modified, boolean link, AtomicBoolean linksSupported,
+                                 AtomicInteger links) throws IOException {
+        Files.createDirectories(target.getParent());
+        if (link) {
+            try {
+                Files.createLink(target, source);
+                links.incrementAndGet();
+                return;
+            } catch (FileSystemException | UnsupportedOperationException e) {
+                // 跨文件系统或不支持硬链接，之后全部复制
+                linksSupported.set(false);
+            }
+        }
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    long transferred = in.transferTo(position, size - position, out);
+                    if (transferred <= 0) break;
+                    position += transferred;
+                }
+            }
+        } catch (IOException e) {
+            // 与压缩引擎一致：无法读取的文件不放入快照，压缩时作为被跳过的文件报告
+            Files.deleteIfExists(target);
+            return;
+        }
+        Files.setLastModifiedTime(target, FileTime.fromMillis(modified));
+    }
+
+    /**
+     * 服务器保存这些文件时先写入临时文件再替换，硬链接不会看到之后的改动
+     */
+    private static boolean isReplacedByRename(String path) {
+        Path file = Paths.get(path);
+        String name = file.getFileName().toString();
+        if (name.equals("level.dat") || name.equals("level.dat_old")) {
+            return true;
+        }
+        Path parent = file.getParent();
+        return parent != null && parent.getFileName().toString().equals("playerdata")
+                && (name.endsWith(".dat") || name.endsWith(".dat_old"));
+    }
+}
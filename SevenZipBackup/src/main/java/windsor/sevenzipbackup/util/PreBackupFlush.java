@@ -0,0 +1,107 @@
+package windsor.sevenzipbackup.util;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import windsor.sevenzipbackup.UploadThread;
+import windsor.sevenzipbackup.UploadThread.UploadLogger;
+import windsor.sevenzipbackup.config.ConfigParser;
+import windsor.sevenzipbackup.constants.Permission;
+import windsor.sevenzipbackup.plugin.Scheduler;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 计划备份之前的预刷新：在备份前 {@code pre-backup-flush} 秒内，将各世界的保存分散到不同的时刻，
+ * 每次只保存一个世界（在该世界的区域线程上），使备份时保存所有世界只需写入最后几秒内改动的区块，
+ * 不再在同一 tick 中写入所有世界积累的区块。
+ * <p>
+ * Paper 没有公开保存单个区块的 API，因此以世界为单位分散保存。预刷新期间的最长 tick
+ * 会在备份时与保存所有世界的最长 tick 一同报告。
+ */
+public final class PreBackupFlush implements Runnable {
+    /**
+     * 保存所在的 tick 结束后才计入 tick 耗时，等待后再读取
+     */
+    private static final long TICK_SAMPLE_DELAY_MILLIS = 1000;
+    private static final long WORLD_SAVE_TIMEOUT_SECONDS = 60;
+
+    private static long worstTick = -1;
+
+    private final UploadLogger logger = new UploadLogger() {
+        @Override
+        public void log(String input, String... placeholders) {
+            MessageUtil.Builder()
+                    .mmText(input, placeholders)
+                    .toPerm(Permission.BACKUP)
+                    .send();
+        }
+    };
+
+    /**
+     * 取出最近一次预刷新期间的最长 tick（纳秒）
+     *
+     * @return 最长 tick；没有预刷新或无法读取 tick 耗时时返回 -1
+     */
+    public static synchronized long takeWorstTick() {
+        long tick = worstTick;
+        worstTick = -1;
+        return tick;
+    }
+
+    private static synchronized void recordWorstTick(long tick) {
+        worstTick = Math.max(worstTick, tick);
+    }
+
+    @Override
+    public void run() {
+        long leadSeconds = ConfigParser.getConfig().backupStorage.preBackupFlush;
+        if (leadSeconds <= 0 || UploadThread.isBackupRunning()) return;
+        List<World> worlds = Bukkit.getWorlds();
+        if (worlds.isEmpty()) return;
+
+        takeWorstTick();
+        long stepMillis = TimeUnit.SECONDS.toMillis(leadSeconds) / worlds.size();
+        long start = System.nanoTime();
+        long worstSave = 0;
+        int saved = 0;
+        try {
+            for (int i = 0; i < worlds.size(); i++) {
+                // 手动开始的备份会自己保存所有世界
+                if (UploadThread.isBackupRunning()) break;
+                World world = worlds.get(i);
+                long stepStart = System.currentTimeMillis();
+                long[] elapsed = new long[1];
+                try {
+                    Scheduler.runWorldTask(world, () -> {
+                        long saveStart = System.nanoTime();
+                        world.save();
+                        elapsed[0] = System.nanoTime() - saveStart;
+                    }).get(WORLD_SAVE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    saved++;
+                    worstSave = Math.max(worstSave, elapsed[0]);
+                } catch (ExecutionException | TimeoutException e) {
+                    logger.info("预刷新时保存世界 " + world.getName() + " 失败或超时");
+                }
+                Thread.sleep(TICK_SAMPLE_DELAY_MILLIS);
+                recordWorstTick(ServerUtil.getWorstRecentTick());
+                long remaining = stepMillis - (System.currentTimeMillis() - stepStart);
+                if (i < worlds.size() - 1 && remaining > 0) {
+                    Thread.sleep(remaining);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        long tick;
+        synchronized (PreBackupFlush.class) {
+            tick = worstTick;
+        }
+        logger.info("备份前预刷新 " + saved + " 个世界，耗时 " + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start)
+                + " 秒，单个世界保存最长 " + TimeUnit.NANOSECONDS.toMillis(worstSave) + " ms"
+                + (tick >= 0 ? "，期间最长 tick " + TimeUnit.NANOSECONDS.toMillis(tick) + " ms" : ""));
+    }
+}
@@ -0,0 +1,147 @@
+package windsor.sevenzipbackup.util;
+
+import org.jetbrains.annotations.NotNull;
+import windsor.sevenzipbackup.UploadThread.UploadLogger;
+import windsor.sevenzipbackup.config.ConfigParser;
+import windsor.sevenzipbackup.config.configSections.BackupStorage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 以较低的 CPU 与 I/O 优先级启动 7zr，避免与服务器主线程和区块读写争抢资源。
+ * <p>
+ * 在 Linux 上依次用 {@code systemd-run --scope}（临时 cgroup，{@code CPUQuota} 与
+ * {@code IO*BandwidthMax} 即 cgroup v2 的 {@code cpu.max} 与 {@code io.max}）、{@code nice} 与
+ * {@code ionice} 包装 7zr 命令；这些工具都会以 exec 方式运行下一个命令，7zr 仍是同一个进程。
+ * 每次读取配置后首次启动 7zr 时检查工具是否可用，不可用的部分记录日志后跳过，其他系统上不做调整。
+ */
+final class ProcessPriority {
+    private static final long CHECK_TIMEOUT_SECONDS = 10;
+
+    private static BackupStorage checkedConfig;
+    private static List<String> prefix = Collections.emptyList();
+
+    private ProcessPriority() {
+    }
+
+    /**
+     * 放在 7zr 命令之前的包装命令
+     */
+    @NotNull
+    static synchronized List<String> getCommandPrefix(@NotNull UploadLogger logger) {
+        BackupStorage config = ConfigParser.getConfig().backupStorage;
+        if (config != checkedConfig) {
+            checkedConfig = config;
+            prefix = buildPrefix(config, logger);
+        }
+        return prefix;
+    }
+
+    private static List<String> buildPrefix(BackupStorage config, UploadLogger logger) {
+        if (!System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("linux")) {
+            return Collections.emptyList();
+        }
+        List<String> command = new ArrayList<>();
+        List<String> applied = new ArrayList<>();
+        if (config.compressionCgroup) {
+            // 以 root 运行时使用 systemd 的系统实例，否则使用用户实例
+            List<String> properties = buildScopeProperties(config);
+            List<String> scope = new ArrayList<>(List.of("systemd-run", "--scope", "--quiet", "--collect",
+                    "root".equals(System.getProperty("user.name")) ? "--system" : "--user"));
+            scope.addAll(properties);
+            if (properties.isEmpty()) {
+                logger.info("压缩进程的 cgroup 没有设置 cpu-max 或 io-max，已跳过");
+            } else if (findExecutable("systemd-run") == null) {
+                logger.info("未找到 systemd-run，压缩进程将不在独立的 cgroup 中运行");
+            } else if (!canRun(scope)) {
+                logger.info("无法通过 systemd-run 创建临时 cgroup（可能缺少权限或未启用用户级 systemd），压缩进程将不在独立的 cgroup 中运行");
+            } else {
+                command.addAll(scope);
+                command.add("--");
+                applied.add("cgroup " + String.join(" ", properties));
+            }
+        }
+        if (config.compressionNice > 0) {
+            if (findExecutable("nice") == null) {
+                logger.info("未找到 nice，压缩进程将以默认 CPU 优先级运行");
+            } else {
+                command.addAll(List.of("nice", "-n", String.valueOf(config.compressionNice)));
+                applied.add("nice " + config.compressionNice);
+            }
+        }
+        if (!config.compressionIoClass.equals("none")) {
+            List<String> ionice = config.compressionIoClass.equals("idle")
+                    ? List.of("ionice", "-c", "3")
+                    : List.of("ionice", "-c", "2", "-n", String.valueOf(config.compressionIoPriority));
+            if (findExecutable("ionice") == null) {
+                logger.info("未找到 ionice，压缩进程将以默认 I/O 优先级运行");
+            } else if (!canRun(ionice)) {
+                logger.info("当前 I/O 调度器不支持 ionice，压缩进程将以默认 I/O 优先级运行");
+            } else {
+                command.addAll(ionice);
+                applied.add("ionice " + config.compressionIoClass
+                        + (config.compressionIoClass.equals("idle") ? "" : " " + config.compressionIoPriority));
+            }
+        }
+        if (!applied.isEmpty()) {
+            logger.info("压缩进程将以较低的优先级运行：" + String.join("，", applied));
+        }
+        return Collections.unmodifiableList(command);
+    }
+
+    /**
+     * 临时 scope 的资源限制
+     */
+    private static List<String> buildScopeProperties(BackupStorage config) {
+        List<String> properties = new ArrayList<>();
+        if (!config.compressionCpuQuota.isEmpty()) {
+            properties.addAll(List.of("-p", "CPUQuota=" + config.compressionCpuQuota));
+        }
+        if (!config.compressionIoMax.isEmpty()) {
+            properties.addAll(List.of("-p", "IOReadBandwidthMax=" + config.compressionIoMax));
+            properties.addAll(List.of("-p", "IOWriteBandwidthMax=" + config.compressionIoMax));
+        }
+        return properties;
+    }
+
+    /**
+     * 以给定的包装命令运行 {@code true}，检查包装命令在当前环境中是否可用
+     */
+    private static boolean canRun(List<String> wrapper) {
+        List<String> command = new ArrayList<>(wrapper);
+        if (command.get(0).equals("systemd-run")) {
+            command.add("--");
+        }
+        command.add("true");
+        try {
+            Process process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            if (!process.waitFor(CHECK_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                return false;
+            }
+            return process.exitValue() == 0;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static File findExecutable(String name) {
+        String path = System.getenv("PATH");
+        if (path == null) return null;
+        for (String directory : path.split(File.pathSeparator)) {
+            File file = new File(directory, name);
+            if (file.isFile() && file.canExecute()) {
+                return file;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,123 @@
+package windsor.sevenzipbackup.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Minecraft 区域文件（{@code .mca}）的布局。
+ * <p>
+ * 文件以 8 KiB 的头部开始：前 4 KiB 为 1024 个区块的位置表（3 字节起始扇区 + 1 字节扇区数），
+ * 后 4 KiB 为对应的时间戳表。区块数据按 4 KiB 扇区存放。{@link #segments} 将整个文件按字节顺序
+ * 划分为头部、各区块的扇区范围以及它们之间的空隙，拼接所有片段即可得到原文件。
+ */
+final class RegionFile {
+    static final String SUFFIX = ".mca";
+    static final int SECTOR_SIZE = 4096;
+    static final int CHUNK_COUNT = 1024;
+    static final int HEADER_SIZE = SECTOR_SIZE * 2;
+    /**
+     * 区块数据以 4 字节长度开始，其后 1 字节为压缩方式：1 GZip、2 Zlib、3 不压缩、4 LZ4，
+     * 加 128 表示数据保存在外部的 {@code .mcc} 文件中
+     */
+    static final int COMPRESSION_TYPE_OFFSET = 4;
+    static final int COMPRESSION_NONE = 3;
+
+    private RegionFile() {
+    }
+
+    static boolean isRegionFile(@NotNull String path) {
+        return path.endsWith(SUFFIX);
+    }
+
+    /**
+     * 按字节顺序划分区域文件
+     *
+     * @param header     文件的前 {@link #HEADER_SIZE} 字节
+     * @param fileLength 文件长度
+     * @param maxLength  单个片段的最大长度，超出的空隙会被拆分
+     * @return 片段列表；头部记录的区块相互重叠或超出文件末尾时返回 {@code null}
+     */
+    @Nullable
+    static List<Segment> segments(@NotNull ByteBuffer header, long fileLength, int maxLength) {
+        if (fileLength < HEADER_SIZE) {
+            return null;
+        }
+        long[] chunks = new long[CHUNK_COUNT];
+        int count = 0;
+        for (int index = 0; index < CHUNK_COUNT; index++) {
+            int location = header.getInt(index * 4);
+            int sector = location >>> 8;
+            int sectors = location & 0xFF;
+            if (location == 0 || sectors == 0) continue;
+            if (sector < 2 || (long) (sector + sectors) * SECTOR_SIZE > fileLength) {
+                return null;
+            }
+            // 高位为起始扇区，低位为区块下标，排序后即为文件中的顺序
+            chunks[count++] = ((long) sector << 16) | index;
+        }
+        Arrays.sort(chunks, 0, count);
+
+        List<Segment> segments = new ArrayList<>(count * 2 + 2);
+        segments.add(new Segment(-1, 0, HEADER_SIZE));
+        long position = HEADER_SIZE;
+        for (int i = 0; i < count; i++) {
+            int index = (int) (chunks[i] & 0xFFFF);
+            int location = header.getInt(index * 4);
+            long start = (long) (location >>> 8) * SECTOR_SIZE;
+            int length = (location & 0xFF) * SECTOR_SIZE;
+            if (start < position) {
+                return null;
+            }
+            addGap(segments, position, start, maxLength);
+            segments.add(new Segment(index, start, length));
+            position = start + length;
+        }
+        addGap(segments, position, fileLength, maxLength);
+        return segments;
+    }
+
+    /**
+     * 区块的位置表项（起始扇区与扇区数）
+     */
+    static int getLocation(@NotNull ByteBuffer header, int index) {
+        return header.getInt(index * 4);
+    }
+
+    /**
+     * 区块最后保存的时间（秒）
+     */
+    static int getTimestamp(@NotNull ByteBuffer header, int index) {
+        return header.getInt(SECTOR_SIZE + index * 4);
+    }
+
+    private static void addGap(List<Segment> segments, long start, long end, int maxLength) {
+        while (start < end) {
+            int length = (int) Math.min(end - start, maxLength);
+            segments.add(new Segment(-1, start, length));
+            start += length;
+        }
+    }
+
+    /**
+     * 文件中的一段连续字节
+     */
+    static final class Segment {
+        /**
+         * 区块下标（0-1023）；头部与空隙为 -1
+         */
+        final int chunk;
+        final long start;
+        final int length;
+
+        Segment(int chunk, long start, int length) {
+            this.chunk = chunk;
+            this.start = start;
+            this.length = length;
+        }
+    }
+}
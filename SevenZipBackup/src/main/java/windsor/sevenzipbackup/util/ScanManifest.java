@@ -0,0 +1,379 @@
+package windsor.sevenzipbackup.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import windsor.sevenzipbackup.util.FileUtil.BackupFileList;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * 备份位置的扫描清单，记录上次成功备份时每个文件的路径、大小、修改时间与文件键哈希。
+ * <p>
+ * 文件格式（大端序）：
+ * <pre>
+ * 头部   int 魔数, int 版本, int 条目数, long 创建时间, int 备份链位置
+ * 索引   按路径哈希排序的定长记录：long 路径哈希, long 大小, long 修改时间, int 文件键哈希, int 路径偏移
+ * 路径   按索引顺序连续存放的 UTF-8 路径
+ * </pre>
+ * 加载时整个文件被读入一块堆外缓冲区，不解析任何条目；比较时按路径哈希二分查找，再逐字节比较存储的路径，
+ * 哈希冲突的路径不会被误认为未变化；只有被删除的条目才会解码其路径。写入时只有排序用的键（每个条目 12 字节）需要额外的空间，
+ * 超过 {@value #SORT_HEAP_LIMIT} 字节时映射到临时文件；索引与路径分两遍从文件列表中按排序后的顺序直接写出。
+ */
+public final class ScanManifest {
+    public static final String FILE_NAME = ".scan-manifest";
+    /**
+     * 最近一次完整备份时的清单，差异备份以此为比较基准
+     */
+    public static final String BASE_FILE_NAME = ".base-manifest";
+
+    private static final int MAGIC = 0x375A424D; // "7ZBM"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 4;
+    private static final int RECORD_SIZE = 8 + 8 + 8 + 4 + 4;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int SORT_KEY_SIZE = 8 + 4;
+    private static final int SORT_HEAP_LIMIT = 1 << 20;
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final long createdAt;
+    private final int chainPosition;
+    private final int pathsOffset;
+
+    private ScanManifest(ByteBuffer buffer, int count, long createdAt, int chainPosition) {
+        this.buffer = buffer;
+        this.count = count;
+        this.createdAt = createdAt;
+        this.chainPosition = chainPosition;
+        this.pathsOffset = HEADER_SIZE + count * RECORD_SIZE;
+    }
+
+    /**
+     * 读取清单
+     *
+     * @return 清单；文件不存在或格式不正确时返回 {@code null}
+     */
+    @Nullable
+    public static ScanManifest load(@NotNull Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) break;
+            }
+            buffer.flip();
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                return null;
+            }
+            int count = buffer.getInt(8);
+            if (count < 0 || HEADER_SIZE + (long) count * RECORD_SIZE > buffer.remaining()) {
+                return null;
+            }
+            return new ScanManifest(buffer, count, buffer.getLong(12), buffer.getInt(20));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 将文件列表写入清单；先写入临时文件再替换，避免中断时留下损坏的清单
+     *
+     * @param chainPosition 本次备份在备份链中的位置，0 表示完整备份
+     */
+    public static void write(@NotNull Path file, @NotNull BackupFileList fileList, int chainPosition) throws IOException {
+        int count = fileList.size();
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (SortKeys keys = new SortKeys(count)) {
+            for (int i = 0; i < count; i++) {
+                keys.set(i, hash(fileList.getPath(i)), i);
+            }
+            keys.sort(0, count - 1);
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(count);
+                out.writeLong(System.currentTimeMillis());
+                out.writeInt(chainPosition);
+                // 第一遍写出索引，路径偏移由各路径的 UTF-8 长度累加得到；第二遍按相同顺序写出路径
+                int pathOffset = 0;
+                for (int i = 0; i < count; i++) {
+                    int index = keys.getIndex(i);
+                    out.writeLong(keys.getHash(i));
+                    out.writeLong(fileList.getSize(index));
+                    out.writeLong(fileList.getLastModified(index));
+                    out.writeInt(fileList.getFileKey(index));
+                    out.writeInt(pathOffset);
+                    pathOffset += fileList.getPath(index).getBytes(StandardCharsets.UTF_8).length;
+                }
+                for (int i = 0; i < count; i++) {
+                    out.write(fileList.getPath(keys.getIndex(i)).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+        try {
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * 写入清单的备份在备份链中的位置，0 表示完整备份，n 表示其后的第 n 个差异备份
+     */
+    public int getChainPosition() {
+        return chainPosition;
+    }
+
+    /**
+     * 与当前扫描结果比较
+     */
+    @NotNull
+    public Diff diff(@NotNull BackupFileList fileList) {
+        BitSet seen = new BitSet(count);
+        BitSet changed = new BitSet(fileList.size());
+        int added = 0;
+        int modified = 0;
+        for (int i = 0; i < fileList.size(); i++) {
+            String path = fileList.getPath(i);
+            int record = find(hash(path), path.getBytes(StandardCharsets.UTF_8));
+            if (record < 0) {
+                added++;
+                changed.set(i);
+                continue;
+            }
+            seen.set(record);
+            int position = HEADER_SIZE + record * RECORD_SIZE;
+            if (buffer.getLong(position + 8) != fileList.getSize(i)
+                    || buffer.getLong(position + 16) != fileList.getLastModified(i)
+                    || buffer.getInt(position + 24) != fileList.getFileKey(i)) {
+                modified++;
+                changed.set(i);
+            }
+        }
+        List<String> deleted = new ArrayList<>(count - seen.cardinality());
+        for (int record = seen.nextClearBit(0); record < count; record = seen.nextClearBit(record + 1)) {
+            deleted.add(getPath(record));
+        }
+        return new Diff(added, modified, fileList.size() - added - modified, deleted, changed);
+    }
+
+    /**
+     * 按路径哈希查找条目，并比较存储的路径；哈希相同而路径不同的条目视为不存在
+     *
+     * @param path 路径的 UTF-8 编码
+     * @return 条目序号；不存在时返回 -1
+     */
+    private int find(long hash, byte[] path) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long value = hashAt(mid);
+            if (value < hash) {
+                low = mid + 1;
+            } else if (value > hash) {
+                high = mid - 1;
+            } else {
+                // 哈希相同的条目相邻，逐个比较路径
+                int first = mid;
+                while (first > 0 && hashAt(first - 1) == hash) {
+                    first--;
+                }
+                for (int record = first; record < count && hashAt(record) == hash; record++) {
+                    if (pathEquals(record, path)) {
+                        return record;
+                    }
+                }
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private long hashAt(int record) {
+        return buffer.getLong(HEADER_SIZE + record * RECORD_SIZE);
+    }
+
+    private int pathStart(int record) {
+        return buffer.getInt(HEADER_SIZE + record * RECORD_SIZE + 28);
+    }
+
+    private int pathEnd(int record) {
+        return record + 1 < count ? pathStart(record + 1) : buffer.limit() - pathsOffset;
+    }
+
+    private boolean pathEquals(int record, byte[] path) {
+        int start = pathStart(record);
+        if (pathEnd(record) - start != path.length) {
+            return false;
+        }
+        int position = pathsOffset + start;
+        for (int i = 0; i < path.length; i++) {
+            if (buffer.get(position + i) != path[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @NotNull
+    private String getPath(int record) {
+        int start = pathStart(record);
+        byte[] bytes = new byte[pathEnd(record) - start];
+        buffer.get(pathsOffset + start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 路径的 64 位 FNV-1a 哈希
+     */
+    static long hash(@NotNull String path) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < path.length(); i++) {
+            hash ^= path.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * 排序用的键：long 路径哈希, int 条目下标。不超过 {@value #SORT_HEAP_LIMIT} 字节时放在堆上，
+     * 否则映射到临时文件，由操作系统的页缓存管理
+     */
+    private static final class SortKeys implements Closeable {
+        private final ByteBuffer buffer;
+        private final FileChannel channel;
+
+        SortKeys(int count) throws IOException {
+            long bytes = (long) count * SORT_KEY_SIZE;
+            if (bytes > Integer.MAX_VALUE) {
+                throw new IOException("Too many files for a scan manifest: " + count);
+            }
+            if (bytes <= SORT_HEAP_LIMIT) {
+                buffer = ByteBuffer.allocate((int) bytes);
+                channel = null;
+                return;
+            }
+            Path file = Files.createTempFile("7zmanifest_", ".bin");
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            } catch (IOException e) {
+                channel.close();
+                Files.deleteIfExists(file);
+                throw e;
+            }
+            // 映射在通道关闭后仍然有效；Windows 下映射期间不能删除，于退出时删除
+            try {
+                Files.delete(file);
+            } catch (IOException e) {
+                file.toFile().deleteOnExit();
+            }
+        }
+
+        void set(int position, long hash, int index) {
+            buffer.putLong(position * SORT_KEY_SIZE, hash);
+            buffer.putInt(position * SORT_KEY_SIZE + 8, index);
+        }
+
+        long getHash(int position) {
+            return buffer.getLong(position * SORT_KEY_SIZE);
+        }
+
+        int getIndex(int position) {
+            return buffer.getInt(position * SORT_KEY_SIZE + 8);
+        }
+
+        /**
+         * 按哈希原地排序
+         */
+        void sort(int low, int high) {
+            while (low < high) {
+                long pivot = getHash((low + high) >>> 1);
+                int i = low;
+                int j = high;
+                while (i <= j) {
+                    while (getHash(i) < pivot) i++;
+                    while (getHash(j) > pivot) j--;
+                    if (i <= j) {
+                        long hash = getHash(i);
+                        int index = getIndex(i);
+                        set(i, getHash(j), getIndex(j));
+                        set(j, hash, index);
+                        i++;
+                        j--;
+                    }
+                }
+                // 先递归较小的一侧，限制栈深度
+                if (j - low < high - i) {
+                    sort(low, j);
+                    low = i;
+                } else {
+                    sort(i, high);
+                    high = j;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * 清单与当前扫描结果的差异
+     */
+    public static final class Diff {
+        public final int added;
+        public final int modified;
+        public final int unchanged;
+        public final List<String> deleted;
+        /**
+         * 当前文件列表中新增或修改的条目下标
+         */
+        public final BitSet changed;
+
+        private Diff(int added, int modified, int unchanged, List<String> deleted, BitSet changed) {
+            this.added = added;
+            this.modified = modified;
+            this.unchanged = unchanged;
+            this.deleted = deleted;
+            this.changed = changed;
+        }
+
+        public boolean isEmpty() {
+            return added == 0 && modified == 0 && deleted.isEmpty();
+        }
+    }
+}
@@ -2,40 +2,115 @@ package windsor.sevenzipbackup.util;
 
 import org.bukkit.Bukkit;
 import org.bukkit.World;
+import windsor.sevenzipbackup.UploadThread.UploadLogger;
 import windsor.sevenzipbackup.plugin.Scheduler;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class ServerUtil {
+    /**
+     * 每个世界的保存从提交起的最长等待时间；Paper 上包括等待之前的世界保存完成
+     */
+    private static final long WORLD_SAVE_TIMEOUT_SECONDS = 60;
 
     /**
-     * 备份前：在所有世界各自的区域线程中强制保存，暂停自动保存，并等待稳定
+     * 备份前：在所有世界各自的区域线程中强制保存，暂停自动保存，并等待保存写入磁盘
      */
-    public static void prepareForBackup() throws ExecutionException, InterruptedException {
+    public static void prepareForBackup(UploadLogger logger) throws InterruptedException {
         // 暂停所有世界的自动保存
         for (World world : Bukkit.getWorlds()) {
             world.setAutoSave(false);
         }
 
         // 强制保存所有世界（在各自正确的线程上）
+        saveWorlds(logger);
+
+        // 等待区块 I/O 写完并同步到磁盘
+        List<Path> worldFolders = new ArrayList<>();
         for (World world : Bukkit.getWorlds()) {
-            Scheduler.runWorldTaskAndWait(world, world::save);
+            worldFolders.add(world.getWorldFolder().toPath());
         }
+        FlushBarrier.await(worldFolders, logger);
+
+        // 写入屏障结束时保存所有世界的 tick 已经结束，且通常仍在最近 100 tick 内，与预刷新期间的最长 tick 比较
+        long worstTick = getWorstRecentTick();
+        long flushWorstTick = PreBackupFlush.takeWorstTick();
+        if (worstTick >= 0) {
+            logger.info("保存所有世界前后最长 tick " + TimeUnit.NANOSECONDS.toMillis(worstTick) + " ms"
+                    + (flushWorstTick >= 0
+                    ? "，备份前预刷新期间最长 tick " + TimeUnit.NANOSECONDS.toMillis(flushWorstTick) + " ms" : ""));
+        }
+    }
 
-        // 等待5秒，确保操作系统缓冲区刷新到磁盘
+    /**
+     * 最近 100 tick 中最长的 tick 耗时（纳秒）
+     *
+     * @return 最长 tick；无法读取 tick 耗时时（如 Folia）返回 -1
+     */
+    static long getWorstRecentTick() {
         try {
-            Thread.sleep(5000);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+            long worst = 0;
+            for (long tick : Bukkit.getServer().getTickTimes()) {
+                worst = Math.max(worst, tick);
+            }
+            return worst;
+        } catch (UnsupportedOperationException | NoSuchMethodError e) {
+            return -1;
         }
     }
 
     /**
-     * 备份后恢复自动保存
+     * 同时提交所有世界的保存并等待完成，报告每个世界的保存耗时。
+     * Folia 上各世界在各自的区域线程中并行保存；Paper 上在同一 tick 中依次保存，省去逐个等待的往返。
+     * 超时或失败的世界记录日志后继续备份，之后的写入屏障仍会等待其写入结束。
      */
-    public static void restoreAfterBackup() {
+    private static void saveWorlds(UploadLogger logger) throws InterruptedException {
+        long start = System.nanoTime();
+        Map<String, CompletableFuture<Long>> saves = new LinkedHashMap<>();
         for (World world : Bukkit.getWorlds()) {
-            world.setAutoSave(true);
+            long[] elapsed = new long[1];
+            CompletableFuture<Long> save = Scheduler.runWorldTask(world, () -> {
+                long saveStart = System.nanoTime();
+                world.save();
+                elapsed[0] = System.nanoTime() - saveStart;
+            }).thenApply(ignored -> elapsed[0]).orTimeout(WORLD_SAVE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            saves.put(world.getName(), save);
+        }
+        try {
+            CompletableFuture.allOf(saves.values().toArray(new CompletableFuture[0])).get();
+        } catch (ExecutionException e) {
+            // 各世界的失败在下面分别报告
+        }
+
+        StringBuilder times = new StringBuilder();
+        for (Map.Entry<String, CompletableFuture<Long>> save : saves.entrySet()) {
+            if (times.length() > 0) {
+                times.append("，");
+            }
+            times.append(save.getKey()).append(' ');
+            try {
+                times.append(TimeUnit.NANOSECONDS.toMillis(save.getValue().join())).append(" ms");
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof TimeoutException) {
+                    times.append("超时");
+                    logger.info("保存世界 " + save.getKey() + " 超过 " + WORLD_SAVE_TIMEOUT_SECONDS + " 秒，不再等待");
+                } else {
+                    times.append("失败");
+                    logger.info("保存世界 " + save.getKey() + " 失败");
+                    MessageUtil.sendConsoleException(e);
+                }
+            }
         }
+        logger.info("保存 " + saves.size() + " 个世界耗时 " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                + " ms：" + times);
     }
 }
\ No newline at end of file
@@ -0,0 +1,180 @@
+package windsor.sevenzipbackup.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 7zr 输出的解析器。
+ * <p>
+ * {@code -bsp1} 的进度行形如 {@code " 45% 123 + world/region/r.0.0.mca"}（百分比、已处理文件数、当前文件），
+ * 以退格或回车覆盖重绘；7zr 的百分比按字节计算，结合输入的总字节数即可得到已处理字节数、吞吐量与剩余时间。
+ * 其余以换行结束的行保存在固定大小的环形缓冲区中，只用于出错时报告；
+ * {@code WARNINGS for files:} 段落中的文件（{@code 路径 : 错误信息}，以 {@code ----------------} 结束）
+ * 被记录为跳过的文件。
+ * <p>
+ * 输入按字符块直接处理，不为每次读取创建字符串。
+ */
+final class SevenZipOutputParser {
+    private static final Pattern PROGRESS = Pattern.compile("\\s*(\\d{1,3})%(?:\\s+(\\d+))?(?:\\s+\\S\\s+(.*))?");
+    private static final String WARNINGS_HEADER = "WARNINGS for files:";
+    private static final String WARNINGS_FOOTER = "----------------";
+    private static final int MAX_LINE_LENGTH = 4096;
+    private static final int RECENT_OUTPUT_SIZE = 16 * 1024;
+
+    private final long totalBytes;
+    private final long startTime = System.nanoTime();
+    private final StringBuilder line = new StringBuilder();
+    private final char[] recentOutput = new char[RECENT_OUTPUT_SIZE];
+    private int recentPosition;
+    private boolean recentWrapped;
+    private boolean inWarnings;
+    private final List<String> skippedFiles = new ArrayList<>();
+
+    private int percent = -1;
+    private int filesProcessed;
+    private String currentFile = "";
+
+    /**
+     * @param totalBytes 输入文件的总字节数
+     */
+    SevenZipOutputParser(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * 处理一段输出
+     *
+     * @return 进度是否发生变化
+     */
+    boolean feed(char[] chars, int length) {
+        boolean progressed = false;
+        for (int i = 0; i < length; i++) {
+            char c = chars[i];
+            if (c == '\b' || c == '\r') {
+                progressed |= parseProgress();
+                line.setLength(0);
+            } else if (c == '\n') {
+                if (!parseProgress()) {
+                    handleLine();
+                } else {
+                    progressed = true;
+                }
+                line.setLength(0);
+            } else if (line.length() < MAX_LINE_LENGTH) {
+                line.append(c);
+            }
+        }
+        return progressed;
+    }
+
+    /**
+     * 7zr 报告的百分比，尚无进度时为 -1
+     */
+    int getPercent() {
+        return percent;
+    }
+
+    int getFilesProcessed() {
+        return filesProcessed;
+    }
+
+    @NotNull
+    String getCurrentFile() {
+        return currentFile;
+    }
+
+    long getTotalBytes() {
+        return totalBytes;
+    }
+
+    long getProcessedBytes() {
+        return percent <= 0 ? 0 : totalBytes * percent / 100;
+    }
+
+    /**
+     * 自开始以来的平均吞吐量（字节/秒）
+     */
+    double getBytesPerSecond() {
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        return seconds <= 0 ? 0 : getProcessedBytes() / seconds;
+    }
+
+    /**
+     * 按当前吞吐量估计的剩余秒数，无法估计时为 -1
+     */
+    long getRemainingSeconds() {
+        double bytesPerSecond = getBytesPerSecond();
+        if (bytesPerSecond <= 0) return -1;
+        return (long) ((totalBytes - getProcessedBytes()) / bytesPerSecond);
+    }
+
+    /**
+     * {@code WARNINGS for files:} 段落中列出的文件（相对于工作目录）
+     */
+    @NotNull
+    List<String> getSkippedFiles() {
+        return skippedFiles;
+    }
+
+    /**
+     * 最近的输出（不含进度行），最多 {@value #RECENT_OUTPUT_SIZE} 个字符
+     */
+    @NotNull
+    String getRecentOutput() {
+        if (!recentWrapped) {
+            return new String(recentOutput, 0, recentPosition);
+        }
+        return new String(recentOutput, recentPosition, RECENT_OUTPUT_SIZE - recentPosition)
+                + new String(recentOutput, 0, recentPosition);
+    }
+
+    private boolean parseProgress() {
+        if (line.indexOf("%") < 0) return false;
+        Matcher matcher = PROGRESS.matcher(line);
+        if (!matcher.matches()) return false;
+        int value = Integer.parseInt(matcher.group(1));
+        if (value > 100) return false;
+        boolean changed = value != percent;
+        percent = value;
+        if (matcher.group(2) != null) {
+            int files = Integer.parseInt(matcher.group(2));
+            changed |= files != filesProcessed;
+            filesProcessed = files;
+        }
+        if (matcher.group(3) != null) {
+            currentFile = matcher.group(3).trim();
+        }
+        return changed;
+    }
+
+    private void handleLine() {
+        String text = line.toString();
+        appendRecent(text);
+        if (!inWarnings) {
+            inWarnings = text.trim().equals(WARNINGS_HEADER);
+            return;
+        }
+        if (text.startsWith(WARNINGS_FOOTER)) {
+            inWarnings = false;
+            return;
+        }
+        int separator = text.lastIndexOf(" : ");
+        if (separator > 0) {
+            skippedFiles.add(text.substring(0, separator));
+        }
+    }
+
+    private void appendRecent(String text) {
+        for (int i = 0; i <= text.length(); i++) {
+            recentOutput[recentPosition++] = i < text.length() ? text.charAt(i) : '\n';
+            if (recentPosition == RECENT_OUTPUT_SIZE) {
+                recentPosition = 0;
+                recentWrapped = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package windsor.sevenzipbackup.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import windsor.sevenzipbackup.BackupProgressCallback;
+import windsor.sevenzipbackup.UploadThread.UploadLogger;
+import windsor.sevenzipbackup.config.ConfigParser;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+/**
+ * 通过外部 7zr 进程压缩：文件列表写入临时列表文件，以 {@code @列表文件} 传给 7zr，
+ * 进度由 {@link SevenZipOutputParser} 从输出中解析。支持分卷、多线程与 CPU 亲和性。
+ * <p>
+ * 7zr 无法在一次运行中为不同文件使用不同的压缩方法。内容规划找出已压缩的文件时分两次运行：
+ * 先按备份策略的设置压缩其余文件，再以仅存储的方式将已压缩的文件追加到同一个压缩文件中，
+ * 追加时只需复制体积较小的压缩部分。分卷的压缩文件无法追加，只按类型排列，不分开存储。
+ * <p>
+ * 暂停时向 7zr 进程发送 {@code SIGSTOP}，恢复时发送 {@code SIGCONT}（{@link ProcessHandle} 只能结束进程，
+ * 因此通过 {@code kill} 发送信号）；没有 {@code kill} 的系统上无法暂停。
+ */
+final class SevenZipProcessEngine implements ArchiveEngine {
+    private static final long SIGNAL_TIMEOUT_SECONDS = 5;
+
+    private final UploadLogger logger;
+    private volatile Process process;
+    private volatile boolean cancelled;
+    private boolean paused;
+    /**
+     * 已发送 SIGSTOP 的进程
+     */
+    private Process stoppedProcess;
+
+    SevenZipProcessEngine(UploadLogger logger) {
+        this.logger = logger;
+    }
+
+    @NotNull
+    @Override
+    public String getName() {
+        return "7zr";
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+        // 停止的进程收到 SIGTERM 后要等到继续运行才会退出
+        resume();
+        Process running = process;
+        if (running != null) {
+            running.destroy();
+        }
+    }
+
+    @Override
+    public synchronized boolean pause() {
+        paused = true;
+        Process running = process;
+        if (running == null || running == stoppedProcess) {
+            return true;
+        }
+        if (!signal(running, "STOP")) {
+            return false;
+        }
+        stoppedProcess = running;
+        return true;
+    }
+
+    @Override
+    public synchronized void resume() {
+        if (!paused) return;
+        paused = false;
+        Process running = process;
+        if (running != null && running == stoppedProcess) {
+            signal(running, "CONT");
+        }
+        stoppedProcess = null;
+    }
+
+    @NotNull
+    @Override
+    public List<String> compress(@NotNull Job job, @Nullable BackupProgressCallback callback) throws Exception {
+        if (ConfigParser.getConfig().advanced.debugEnabled)
+            logger.info("正在为" + job.inputFolderPath + "创建压缩文件 (使用外部 7zr)");
+
+        File outputFile = job.outputFile;
+        File parentDir = outputFile.getParentFile();
+        if (parentDir != null && !parentDir.exists()) {
+            parentDir.mkdirs();
+        }
+        // 未在备份策略中设置的项使用全局压缩等级与固实压缩
+        List<String> compressionArguments = job.compression.toArguments(
+                ConfigParser.getConfig().backupStorage.zipCompression);
+        CompressionPlanner.Plan plan = job.volumeSize > 0 ? null : CompressionPlanner.plan(job);
+
+        Progress progress = new Progress(job, callback);
+        VolumeWatcher volumeWatcher = null;
+        List<String> skippedFiles = new ArrayList<>();
+        boolean succeeded = false;
+        try {
+            // 分卷时监视已写完的分卷，立即交给上传阶段
+            if (job.volumeSize > 0 && job.volumeListener != null) {
+                volumeWatcher = new VolumeWatcher(outputFile.getAbsolutePath(), job.volumeListener);
+                volumeWatcher.start();
+            }
+            if (plan == null || plan.storedFiles == 0) {
+                skippedFiles.addAll(runPass(job, job.selection, job.extraFiles, compressionArguments,
+                        job.progressBytes, progress));
+            } else if (plan.compressedFiles == 0 && job.extraFiles.isEmpty()) {
+                // 所有文件都已经过压缩（如只有区域文件的文件夹），一次存储即可
+                long storeCpu = progress.cpuNanos;
+                skippedFiles.addAll(runPass(job, plan::isStored, Collections.emptyList(), List.of("-mx0"),
+                        plan.storedBytes, progress));
+                plan.report(logger, job.inputFolderPath, 0, progress.cpuNanos - storeCpu);
+            } else {
+                long compressCpu = progress.cpuNanos;
+                skippedFiles.addAll(runPass(job, index -> job.selection.test(index) && !plan.isStored(index),
+                        job.extraFiles, compressionArguments, plan.compressedBytes, progress));
+                compressCpu = progress.cpuNanos - compressCpu;
+                long storeCpu = progress.cpuNanos;
+                skippedFiles.addAll(runPass(job, plan::isStored, Collections.emptyList(), List.of("-mx0"),
+                        plan.storedBytes, progress));
+                storeCpu = progress.cpuNanos - storeCpu;
+                plan.report(logger, job.inputFolderPath, compressCpu, storeCpu);
+            }
+            succeeded = true;
+        } finally {
+            if (!succeeded) {
+                if (volumeWatcher != null) {
+                    volumeWatcher.stop();
+                }
+                // 失败、中断或取消时删除已写出的部分：第一次运行的结果缺少第二次运行要存储的文件，不能作为有效备份
+                deleteOutput(outputFile);
+            }
+        }
+        if (volumeWatcher != null) {
+            volumeWatcher.finish();
+        }
+        return skippedFiles;
+    }
+
+    /**
+     * 运行一次 7zr，将选中的文件加入压缩文件（不存在时创建）
+     *
+     * @param passBytes 本次运行的输入字节数
+     * @return 本次运行中被跳过的文件
+     */
+    private List<String> runPass(Job job, IntPredicate selection, List<Path> extraFiles, List<String> compressionArguments,
+                                 long passBytes, Progress progress) throws Exception {
+        if (cancelled) {
+            throw new CancellationException("7zr was cancelled");
+        }
+        Path listFile = writeListFile(job, selection, extraFiles);
+
+        Path exePath = SevenZipExecutable.getExecutablePath();
+        // 在 Linux 上以较低的 CPU 与 I/O 优先级运行，可选地放入限制资源的临时 cgroup
+        List<String> command = new ArrayList<>(ProcessPriority.getCommandPrefix(logger));
+        command.addAll(List.of(exePath.toString(), "a", "-t7z"));
+        command.addAll(compressionArguments);
+        command.addAll(List.of("-ssw", "-sccUTF-8", "-bsp1"));
+        // 线程数与 CPU 亲和性：使用核心预算分配给该任务的核心，并行的 7zr 进程互不重叠
+        command.add("-mmt" + job.cores.getThreads());
+        String affinityArg = buildCpuAffinityArg(job.cores.getCores());
+        if (affinityArg != null) {
+            command.add(affinityArg);
+        }
+        if (job.volumeSize > 0) {
+            command.add("-v" + job.volumeSize + "m");
+        }
+        command.add(job.outputFile.getAbsolutePath());
+        // 无法读取的文件交由 7zr 跳过（-ssw 下以退出码 1 和警告列表报告），不再逐个打开探测
+        command.add("@" + listFile.toAbsolutePath());
+
+        if (ConfigParser.getConfig().advanced.debugEnabled) {
+            logger.info("执行命令: " + String.join(" ", command));
+            logger.info("工作目录: " + job.inputFolderPath);
+        }
+
+        SevenZipOutputParser output = new SevenZipOutputParser(passBytes);
+        long passStart = System.nanoTime();
+        Duration cpuTime = null;
+        int exitCode;
+        try {
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.directory(new File(job.inputFolderPath));
+            pb.redirectErrorStream(true);
+            Process started = pb.start();
+            synchronized (this) {
+                process = started;
+                // 启动期间被暂停或取消时进程尚未记录，这里补上
+                if (paused && signal(started, "STOP")) {
+                    stoppedProcess = started;
+                }
+            }
+            if (cancelled) {
+                started.destroy();
+            }
+
+            try (InputStreamReader reader = new InputStreamReader(started.getInputStream(), StandardCharsets.UTF_8)) {
+                char[] chars = new char[1024];
+                int read;
+                while ((read = reader.read(chars)) != -1) {
+                    if (output.feed(chars, read) && progress.update(output.getProcessedBytes(), output.getPercent() == 100)) {
+                        cpuTime = started.info().totalCpuDuration().orElse(cpuTime);
+                    }
+                }
+            }
+            // 输出结束时进程即将退出，此时的 CPU 时间最接近总量
+            cpuTime = started.info().totalCpuDuration().orElse(cpuTime);
+
+            exitCode = started.waitFor();
+            if (cancelled) {
+                throw new CancellationException("7zr was cancelled");
+            }
+            if (exitCode >= 2) {
+                String errorMsg = "7zr failed with exit code " + exitCode + ". Output: " + output.getRecentOutput();
+                logger.info(errorMsg);
+                throw new RuntimeException(errorMsg);
+            }
+        } finally {
+            process = null;
+            try { Files.deleteIfExists(listFile); } catch (Exception ignored) {}
+        }
+        // 无法读取进程的 CPU 时间时按墙钟时间与线程数估计
+        progress.cpuNanos += cpuTime != null ? cpuTime.toNanos()
+                : (System.nanoTime() - passStart) * job.cores.getThreads();
+        progress.finishPass(passBytes);
+        if (ConfigParser.getConfig().advanced.debugEnabled) {
+            logger.info("7zr output: " + output.getRecentOutput());
+        }
+        return exitCode == 1 ? output.getSkippedFiles() : Collections.emptyList();
+    }
+
+    /**
+     * 将选中的文件直接以 UTF-8 写入 7zr 的列表文件，不经过字符串列表
+     */
+    private static Path writeListFile(Job job, IntPredicate selection, List<Path> extraFiles) throws IOException {
+        Path listFile = Files.createTempFile("7zlist_", ".txt");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(listFile), 1 << 16)) {
+            job.fileList.writeList(out, selection);
+            for (Path file : extraFiles) {
+                out.write(file.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8));
+                out.write('\n');
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(listFile);
+            throw e;
+        }
+        return listFile;
+    }
+
+    /**
+     * 向进程及其子进程发送信号
+     *
+     * @return 是否发送成功
+     */
+    private static boolean signal(Process process, String signal) {
+        List<String> command = new ArrayList<>(List.of("kill", "-" + signal, String.valueOf(process.pid())));
+        process.descendants().forEach(child -> command.add(String.valueOf(child.pid())));
+        try {
+            Process kill = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            return kill.waitFor(SIGNAL_TIMEOUT_SECONDS, TimeUnit.SECONDS) && kill.exitValue() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 删除未成功的压缩留下的输出及其分卷
+     */
+    private static void deleteOutput(File outputFile) {
+        File[] siblings = outputFile.getParentFile() == null ? null : outputFile.getParentFile().listFiles();
+        if (siblings == null) return;
+        String name = outputFile.getName();
+        for (File sibling : siblings) {
+            if (BackupChain.getBackupName(sibling.getName()).equals(name)) {
+                sibling.delete();
+            }
+        }
+    }
+
+    /**
+     * 构建 7zr 的 CPU 亲和性参数 {@code -stm{HexMask}}：将每个核心对应的位（1 &lt;&lt; core）置入掩码，
+     * 格式化为十六进制。
+     *
+     * @return {@code -stm...} 亲和性参数；核心编号超出 64 位掩码时返回 {@code null}，不限制核心
+     */
+    private static String buildCpuAffinityArg(int[] cores) {
+        long mask = 0L;
+        for (int core : cores) {
+            if (core >= Long.SIZE) {
+                return null;
+            }
+            mask |= (1L << core);
+        }
+        return "-stm" + Long.toHexString(mask);
+    }
+
+    /**
+     * 汇总各次运行的进度，按整个任务的字节数报告
+     */
+    private static final class Progress {
+        private final Job job;
+        private final BackupProgressCallback callback;
+        private final long start = System.nanoTime();
+        /**
+         * 之前各次运行已完成的字节数
+         */
+        private long completedBytes;
+        private long lastUpdate;
+        long cpuNanos;
+
+        Progress(Job job, BackupProgressCallback callback) {
+            this.job = job;
+            this.callback = callback;
+        }
+
+        /**
+         * 报告当前运行的进度，每秒最多 5 次，完成时除外
+         *
+         * @return 是否报告了进度
+         */
+        boolean update(long passProcessedBytes, boolean complete) {
+            long now = System.currentTimeMillis();
+            if (!complete && now - lastUpdate < 200) {
+                return false;
+            }
+            lastUpdate = now;
+            if (callback == null) {
+                return true;
+            }
+            long processedBytes = Math.min(completedBytes + passProcessedBytes, job.progressBytes);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            double bytesPerSecond = seconds <= 0 ? 0 : processedBytes / seconds;
+            long remainingSeconds = bytesPerSecond <= 0 ? -1
+                    : (long) ((job.progressBytes - processedBytes) / bytesPerSecond);
+            int processedFiles = job.progressBytes <= 0 ? 0
+                    : (int) (job.progressTotal * ((double) processedBytes / job.progressBytes));
+            callback.onProgress(processedFiles, job.progressTotal);
+            callback.onProgress(processedBytes, job.progressBytes, bytesPerSecond, remainingSeconds);
+            return true;
+        }
+
+        void finishPass(long passBytes) {
+            completedBytes += passBytes;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package windsor.sevenzipbackup.util;
+
+import org.jetbrains.annotations.NotNull;
+import windsor.sevenzipbackup.config.ConfigParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Properties;
+
+/**
+ * 各备份位置上一次压缩的数据量与耗时，用于预测压缩时长、按最长处理时间优先安排任务。
+ * <p>
+ * 保存在本地备份目录的 {@value #FILE_NAME} 中，每个位置一行：{@code 位置=字节数,毫秒数}。
+ * 有记录的位置按其上次的吞吐量换算本次的数据量；没有记录的位置使用所有记录的平均吞吐量。
+ */
+public final class TaskHistory {
+    private static final String FILE_NAME = "task-history.properties";
+
+    private final Path file;
+    private final Properties properties = new Properties();
+
+    private TaskHistory(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * 读取历史记录，文件不存在或无法读取时为空
+     */
+    @NotNull
+    public static TaskHistory load() {
+        TaskHistory history = new TaskHistory(
+                Paths.get(ConfigParser.getConfig().backupStorage.localDirectory, FILE_NAME));
+        if (Files.isRegularFile(history.file)) {
+            try (InputStream in = Files.newInputStream(history.file)) {
+                history.properties.load(in);
+            } catch (IOException | IllegalArgumentException e) {
+                history.properties.clear();
+            }
+        }
+        return history;
+    }
+
+    /**
+     * 上一次压缩该位置的耗时（毫秒），没有记录时返回 -1
+     */
+    public synchronized long getPreviousDuration(@NotNull String location) {
+        long[] entry = get(location);
+        return entry == null ? -1 : entry[1];
+    }
+
+    /**
+     * 预测压缩该位置的耗时（毫秒）
+     *
+     * @param bytes 本次的数据量
+     * @return 预测的耗时；没有任何记录时返回 -1
+     */
+    public synchronized long predictDuration(@NotNull String location, long bytes) {
+        long[] entry = get(location);
+        if (entry != null) {
+            return Math.round((double) entry[1] * bytes / Math.max(1, entry[0]));
+        }
+        long totalBytes = 0;
+        long totalMillis = 0;
+        for (String key : properties.stringPropertyNames()) {
+            long[] other = get(key);
+            if (other != null) {
+                totalBytes += other[0];
+                totalMillis += other[1];
+            }
+        }
+        if (totalMillis == 0) {
+            return -1;
+        }
+        return Math.round((double) totalMillis * bytes / Math.max(1, totalBytes));
+    }
+
+    /**
+     * 记录一次压缩的数据量与耗时
+     */
+    public synchronized void record(@NotNull String location, long bytes, long millis) {
+        if (millis <= 0) return;
+        properties.setProperty(location, bytes + "," + millis);
+    }
+
+    /**
+     * 写回历史记录
+     */
+    public synchronized void save() throws IOException {
+        Files.createDirectories(file.getParent());
+        try (OutputStream out = Files.newOutputStream(file)) {
+            properties.store(out, "7zbackup compression history: bytes,milliseconds");
+        }
+    }
+
+    /**
+     * 按最长处理时间优先将任务依次分配给最先空闲的工作线程，得到的总用时
+     *
+     * @param durations 各任务的耗时
+     * @param workers   工作线程数
+     */
+    public static long predictMakespan(@NotNull List<Long> durations, int workers) {
+        List<Long> sorted = new ArrayList<>(durations);
+        sorted.sort(Collections.reverseOrder());
+        PriorityQueue<Long> finishTimes = new PriorityQueue<>();
+        for (int i = 0; i < Math.max(1, workers); i++) {
+            finishTimes.add(0L);
+        }
+        long makespan = 0;
+        for (long duration : sorted) {
+            long finish = finishTimes.poll() + duration;
+            finishTimes.add(finish);
+            makespan = Math.max(makespan, finish);
+        }
+        return makespan;
+    }
+
+    private long[] get(String location) {
+        String value = properties.getProperty(location);
+        if (value == null) return null;
+        int separator = value.indexOf(',');
+        if (separator < 0) return null;
+        try {
+            long bytes = Long.parseLong(value.substring(0, separator).trim());
+            long millis = Long.parseLong(value.substring(separator + 1).trim());
+            return millis > 0 ? new long[]{bytes, millis} : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
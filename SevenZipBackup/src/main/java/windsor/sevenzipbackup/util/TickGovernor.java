@@ -0,0 +1,206 @@
+package windsor.sevenzipbackup.util;
+
+import org.bukkit.Bukkit;
+import org.jetbrains.annotations.NotNull;
+import windsor.sevenzipbackup.UploadThread.UploadLogger;
+import windsor.sevenzipbackup.config.ConfigParser;
+import windsor.sevenzipbackup.config.configSections.BackupStorage;
+import windsor.sevenzipbackup.plugin.Scheduler;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 根据服务器的 MSPT 调节压缩：每秒读取一次 Paper 的平均 tick 耗时（最近 100 tick），
+ * 超过 {@code pause-mspt} 时暂停所有正在进行的压缩，并推迟尚未开始的压缩任务；
+ * 降到 {@code resume-mspt} 以下后再恢复，两个阈值之间不改变状态，避免反复切换。
+ * 一次备份累计暂停超过 {@code max-pause} 后不再暂停，以免服务器因其他原因持续卡顿时备份无法完成。
+ * <p>
+ * 无论是否启用调节，都会记录备份前、压缩期间与压缩结束后的 MSPT，在压缩结束
+ * {@value #AFTER_DELAY_TICKS} tick 后（平均值不再包含压缩期间的 tick）输出报告。
+ * 无法读取 tick 耗时的服务器（如 Folia）上不做调节。
+ */
+public final class TickGovernor {
+    private static final long SAMPLE_PERIOD_TICKS = 20;
+    private static final long AFTER_DELAY_TICKS = 100;
+    private static final long WAIT_TIMEOUT_MILLIS = 1000;
+
+    private final UploadLogger logger;
+    private final Collection<ArchiveEngine> engines;
+    private final boolean throttle;
+    private final double pauseMspt;
+    private final double resumeMspt;
+    private final long maxPauseNanos;
+    private final double msptBefore;
+    private final double tpsBefore;
+    private Scheduler.Cancellable samplingTask;
+
+    private boolean paused;
+    private boolean stopped;
+    private boolean exhausted;
+    private boolean pauseUnsupported;
+    private long pausedSince;
+    private long pausedNanos;
+    private int pauseCount;
+    private double msptSum;
+    private double msptMax;
+    private int samples;
+
+    private TickGovernor(UploadLogger logger, Collection<ArchiveEngine> engines, BackupStorage config,
+                         double msptBefore, double tpsBefore) {
+        this.logger = logger;
+        this.engines = engines;
+        this.throttle = config.throttleEnabled && msptBefore >= 0;
+        this.pauseMspt = config.throttlePauseMspt;
+        this.resumeMspt = config.throttleResumeMspt;
+        this.maxPauseNanos = TimeUnit.SECONDS.toNanos(config.throttleMaxPause);
+        this.msptBefore = msptBefore;
+        this.tpsBefore = tpsBefore;
+    }
+
+    /**
+     * 开始监视 MSPT
+     *
+     * @param engines 正在压缩的引擎，暂停时对其中所有引擎生效
+     */
+    @NotNull
+    public static TickGovernor start(@NotNull UploadLogger logger, @NotNull Collection<ArchiveEngine> engines) {
+        BackupStorage config = ConfigParser.getConfig().backupStorage;
+        double mspt = readMspt();
+        TickGovernor governor = new TickGovernor(logger, engines, config, mspt, readTps());
+        if (mspt < 0) {
+            logger.info("无法读取服务器的 tick 耗时，压缩期间不根据 MSPT 调节");
+            return governor;
+        }
+        governor.samplingTask = Scheduler.runAsyncRepeatingTask(governor::sample, SAMPLE_PERIOD_TICKS,
+                SAMPLE_PERIOD_TICKS);
+        return governor;
+    }
+
+    /**
+     * 暂停期间阻塞，直到恢复或停止监视；压缩任务在开始前调用
+     */
+    public synchronized void awaitResume() throws InterruptedException {
+        while (paused && !stopped) {
+            wait(WAIT_TIMEOUT_MILLIS);
+        }
+    }
+
+    /**
+     * 停止监视并恢复所有引擎，稍后输出 MSPT 报告
+     */
+    public void stop() {
+        synchronized (this) {
+            if (stopped) return;
+            stopped = true;
+            if (paused) {
+                setPaused(false, System.nanoTime());
+            }
+            notifyAll();
+        }
+        if (samplingTask != null) {
+            samplingTask.cancel();
+        }
+        if (msptBefore >= 0 && ConfigParser.getPluginInstance().isEnabled()) {
+            Scheduler.runAsyncTaskLater(this::report, AFTER_DELAY_TICKS);
+        }
+    }
+
+    private synchronized void sample() {
+        if (stopped) return;
+        double mspt = readMspt();
+        if (mspt < 0) return;
+        msptSum += mspt;
+        msptMax = Math.max(msptMax, mspt);
+        samples++;
+        if (!throttle || exhausted) return;
+
+        long now = System.nanoTime();
+        if (paused) {
+            if (maxPauseNanos > 0 && pausedNanos + (now - pausedSince) >= maxPauseNanos) {
+                exhausted = true;
+                setPaused(false, now);
+                logger.info("压缩累计暂停已达 " + TimeUnit.NANOSECONDS.toSeconds(maxPauseNanos)
+                        + " 秒，本次备份不再因 MSPT 暂停");
+            } else if (mspt <= resumeMspt) {
+                long seconds = TimeUnit.NANOSECONDS.toSeconds(now - pausedSince);
+                setPaused(false, now);
+                logger.info("服务器 MSPT 降至 " + format(mspt) + "，恢复压缩（本次暂停 " + seconds + " 秒）");
+            } else {
+                // 暂停后才开始压缩的引擎同样需要暂停
+                pauseEngines();
+            }
+        } else if (mspt >= pauseMspt) {
+            setPaused(true, now);
+            logger.info("服务器 MSPT 为 " + format(mspt) + "，超过 " + format(pauseMspt) + "，暂停压缩");
+        }
+    }
+
+    private void setPaused(boolean pause, long now) {
+        if (pause) {
+            paused = true;
+            pausedSince = now;
+            pauseCount++;
+            pauseEngines();
+        } else {
+            paused = false;
+            pausedNanos += now - pausedSince;
+            for (ArchiveEngine engine : engines) {
+                engine.resume();
+            }
+            notifyAll();
+        }
+    }
+
+    private void pauseEngines() {
+        for (ArchiveEngine engine : engines) {
+            if (!engine.pause() && !pauseUnsupported) {
+                pauseUnsupported = true;
+                logger.info("无法暂停 " + engine.getName() + " 压缩，MSPT 过高时只推迟尚未开始的压缩任务");
+            }
+        }
+    }
+
+    private void report() {
+        double msptAfter = readMspt();
+        double tpsAfter = readTps();
+        String message;
+        synchronized (this) {
+            message = "压缩期间服务器 MSPT：备份前 " + format(msptBefore)
+                    + "，压缩期间平均 " + (samples == 0 ? "-" : format(msptSum / samples))
+                    + "（最高 " + (samples == 0 ? "-" : format(msptMax)) + "），压缩结束后 " + format(msptAfter)
+                    + "；TPS：备份前 " + format(tpsBefore) + "，压缩结束后 " + format(tpsAfter);
+            if (throttle) {
+                message += "；因 MSPT 暂停 " + pauseCount + " 次，共 "
+                        + TimeUnit.NANOSECONDS.toSeconds(pausedNanos) + " 秒";
+            }
+        }
+        logger.info(message);
+    }
+
+    private static String format(double value) {
+        return value < 0 ? "-" : String.format("%.1f", value);
+    }
+
+    /**
+     * 最近 100 tick 的平均耗时（毫秒），无法读取时返回 -1
+     */
+    private static double readMspt() {
+        try {
+            return Bukkit.getServer().getAverageTickTime();
+        } catch (UnsupportedOperationException | NoSuchMethodError e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 最近一分钟的 TPS，无法读取时返回 -1
+     */
+    private static double readTps() {
+        try {
+            return Bukkit.getServer().getTPS()[0];
+        } catch (UnsupportedOperationException | NoSuchMethodError e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package windsor.sevenzipbackup.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.function.Consumer;
+
+/**
+ * 分卷压缩时监视已写完的分卷。
+ * <p>
+ * 7zr 按顺序写入分卷，创建第 N+1 个分卷时第 N 个分卷已经写完，此时即可交给上传阶段。
+ * 第一个分卷例外：压缩结束时 7zr 会回写其开头的起始头，因此只在压缩成功后与剩余的分卷一起交出。
+ */
+final class VolumeWatcher {
+    private static final long POLL_INTERVAL_MILLIS = 1000;
+
+    private final String archivePath;
+    private final Consumer<File> listener;
+    private final Thread thread;
+    /**
+     * 下一个要交出的分卷编号，只由监视线程或在其结束后访问
+     */
+    private int nextVolume = 2;
+
+    /**
+     * @param archivePath 压缩文件路径（不含分卷编号）
+     * @param listener    接收已写完的分卷，在监视线程上调用
+     */
+    VolumeWatcher(@NotNull String archivePath, @NotNull Consumer<File> listener) {
+        this.archivePath = archivePath;
+        this.listener = listener;
+        this.thread = new Thread(this::run, "7zbackup-volume-watcher");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * 压缩成功后调用：停止监视，交出剩余的分卷，最后交出第一个分卷
+     */
+    void finish() throws InterruptedException {
+        stop();
+        while (volume(nextVolume).exists()) {
+            listener.accept(volume(nextVolume++));
+        }
+        File first = volume(1);
+        if (first.exists()) {
+            listener.accept(first);
+        }
+    }
+
+    /**
+     * 停止监视，不再交出分卷
+     */
+    void stop() throws InterruptedException {
+        thread.interrupt();
+        thread.join();
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                while (volume(nextVolume + 1).exists()) {
+                    listener.accept(volume(nextVolume++));
+                }
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private File volume(int index) {
+        return new File(BackupChain.getVolumePath(archivePath, index));
+    }
+}
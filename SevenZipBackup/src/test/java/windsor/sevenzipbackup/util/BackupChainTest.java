@@ -0,0 +1,76 @@
+package windsor.sevenzipbackup.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BackupChainTest {
+    private static List<String> select(int keepCount, String... files) {
+        return BackupChain.selectForDeletion(List.of(files), Function.identity(), keepCount);
+    }
+
+    @Test
+    void deletesOldestFullBackups() {
+        assertEquals(List.of("1.7z", "2.7z"), select(2, "1.7z", "2.7z", "3.7z", "4.7z"));
+        assertEquals(List.of(), select(4, "1.7z", "2.7z", "3.7z", "4.7z"));
+        assertEquals(List.of(), select(5, "1.7z"));
+    }
+
+    @Test
+    void deletesDifferentialsBeforeTheirBase() {
+        assertEquals(List.of("2.diff.7z", "3.diff.7z", "1.7z"),
+                select(2, "1.7z", "2.diff.7z", "3.diff.7z", "4.7z", "5.diff.7z"));
+        // 只删除部分差异备份时保留基准
+        assertEquals(List.of("2.diff.7z"),
+                select(4, "1.7z", "2.diff.7z", "3.diff.7z", "4.7z", "5.diff.7z"));
+    }
+
+    @Test
+    void newestChainKeepsBaseAndLatestDifferential() {
+        assertEquals(List.of("2.diff.7z", "3.diff.7z"), select(1, "1.7z", "2.diff.7z", "3.diff.7z", "4.diff.7z"));
+        assertEquals(List.of("1.7z"), select(1, "1.7z", "2.7z", "3.diff.7z"));
+    }
+
+    @Test
+    void orphanedDifferentialsAreDeletedFirst() {
+        assertEquals(List.of("0.diff.7z"), select(2, "0.diff.7z", "1.7z", "2.diff.7z"));
+    }
+
+    @Test
+    void volumeSetsAreDeletedTogether() {
+        assertEquals(List.of("1.7z.001", "1.7z.002", "1.7z.003"),
+                select(2, "1.7z.001", "1.7z.002", "1.7z.003", "2.7z", "3.7z.001"));
+        assertEquals(List.of("2.diff.7z.001", "2.diff.7z.002", "1.7z"),
+                select(1, "1.7z", "2.diff.7z.001", "2.diff.7z.002", "3.7z"));
+        assertEquals(3, BackupChain.countBackups(List.of("1.7z.001", "1.7z.002", "2.7z", "3.diff.7z.001"), Function.identity()));
+    }
+
+    @Test
+    void incompleteVolumeSetsAreNotCounted() {
+        // 缺少第一个分卷：压缩失败后留下的分卷组被删除，最新的一个可能仍在上传，保持不动
+        assertEquals(List.of("1.7z.002", "1.7z.003"), select(5, "1.7z.002", "1.7z.003", "2.7z", "3.7z.002"));
+        assertEquals(List.of("1.7z.002", "2.7z"), select(1, "1.7z.002", "2.7z", "3.7z", "4.7z.002"));
+        assertEquals(2, BackupChain.countBackups(List.of("1.7z.002", "2.7z", "3.7z.001", "3.7z.002", "4.7z.002"),
+                Function.identity()));
+    }
+
+    @Test
+    void recognisesBackupNames() {
+        assertTrue(BackupChain.isVolume("world.7z.001"));
+        assertFalse(BackupChain.isVolume("world.7z"));
+        assertFalse(BackupChain.isVolume("world.zip.001"));
+        assertFalse(BackupChain.isVolume("world.7z.01"));
+        assertTrue(BackupChain.isBackupFile("world.diff.7z.002"));
+        assertFalse(BackupChain.isBackupFile("world.zip"));
+        assertTrue(BackupChain.isDifferential("world.diff.7z.001"));
+        assertFalse(BackupChain.isDifferential("world.7z"));
+        assertEquals("world.diff.7z", BackupChain.getBackupName("world.diff.7z.003"));
+        assertEquals("backups/world.7z.012", BackupChain.getVolumePath("backups/world.7z", 12));
+        assertEquals("backups/world.diff.7z", BackupChain.toDifferentialPath("backups/world.7z"));
+    }
+}
@@ -0,0 +1,109 @@
+package windsor.sevenzipbackup.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlacklistMatcherTest {
+    private static final String[] GLOBS = {
+            "*", "**", "*.jar", "*cache*", "logs/**", "**/*.log", "?.txt", "[a-c]*.yml", "[!a-c]*.yml",
+            "{config,data}/*.json", "a\\*b", "plugins/*/cache/**", "*.{db,dat}", "[-x]y", "a.b+c(d)"
+    };
+    private static final String[] PATHS = {
+            "a.jar", "lib/a.jar", "cache", "cache/x", "mycache.txt", "logs", "logs/latest.log", "a/b/c.log",
+            "c.log", "x.txt", "xy.txt", "b.yml", "d.yml", "config/a.json", "data/b/c.json", "a*b", "axb",
+            "plugins/Foo/cache/tmp", "plugins/Foo/bar/cache/tmp", "world.db", "world.dat", "-y", "xy",
+            "a.b+c(d)", "abbc(d)"
+    };
+
+    private static BlacklistMatcher matcher(String... globs) {
+        List<BlacklistEntry> entries = new ArrayList<>();
+        for (String glob : globs) {
+            entries.add(new BlacklistEntry(glob, FileSystems.getDefault().getPathMatcher("glob:" + glob)));
+        }
+        return new BlacklistMatcher(entries, "backups-that-do-not-exist");
+    }
+
+    @Test
+    void regexMatchesPathMatcher() {
+        for (String glob : GLOBS) {
+            PathMatcher expected = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            Pattern actual = Pattern.compile(BlacklistMatcher.toRegex(glob));
+            for (String path : PATHS) {
+                assertEquals(expected.matches(Paths.get(path)), actual.matcher(path).matches(), glob + " vs " + path);
+            }
+        }
+    }
+
+    @Test
+    void invalidGlobsAreRejected() {
+        assertThrows(PatternSyntaxException.class, () -> BlacklistMatcher.toRegex("a\\"));
+        assertThrows(PatternSyntaxException.class, () -> BlacklistMatcher.toRegex("[abc"));
+        assertThrows(PatternSyntaxException.class, () -> BlacklistMatcher.toRegex("{a,b"));
+        assertThrows(PatternSyntaxException.class, () -> BlacklistMatcher.toRegex("{a,{b}}"));
+        assertThrows(PatternSyntaxException.class, () -> BlacklistMatcher.toRegex("[a/b]"));
+    }
+
+    @Test
+    void onlyTrailingSlashGlobsPruneDirectories() {
+        BlacklistMatcher matcher = matcher("*cache*", ".paper-remapped/**", "logs/", "*jar");
+
+        assertFalse(matcher.excludesDirectory("cache"));
+        assertFalse(matcher.excludesFile("x", "cache/x"));
+        assertTrue(matcher.excludesFile("mycache.txt", "mycache.txt"));
+
+        assertTrue(matcher.excludesDirectory(".paper-remapped"));
+        assertTrue(matcher.excludesDirectory(".paper-remapped/inner"));
+        assertTrue(matcher.excludesFile("a.jar", ".paper-remapped/a.jar"));
+
+        assertTrue(matcher.excludesDirectory("logs"));
+        assertFalse(matcher.excludesDirectory("a/logs"));
+        assertFalse(matcher.excludesDirectory("plugin.jar"));
+        assertFalse(matcher.excludesDirectory(""));
+
+        List<BlacklistEntry> entries = matcher.getEntries();
+        assertEquals(1, entries.get(0).getBlacklistedFiles());
+        assertEquals(0, entries.get(0).getBlacklistedFolders());
+        assertEquals(2, entries.get(1).getBlacklistedFolders());
+        assertEquals(1, entries.get(2).getBlacklistedFolders());
+    }
+
+    @Test
+    void builtInRulesApplyWithoutEntries() {
+        BlacklistMatcher matcher = matcher();
+        assertTrue(matcher.excludesFile("Data.DB", "plugins/x/Data.DB"));
+        assertTrue(matcher.excludesFile("users.mv.db", "users.mv.db"));
+        assertTrue(matcher.excludesFile("session.lock", "world/session.lock"));
+        assertFalse(matcher.excludesFile("level.dat", "world/level.dat"));
+        assertFalse(matcher.excludesDirectory("world"));
+    }
+
+    @Test
+    void recognisesBackupFolder(@TempDir Path temp) throws IOException {
+        Path directory = temp.toRealPath();
+        Path backups = Files.createDirectory(directory.resolve("backups"));
+        Path inner = Files.createDirectory(backups.resolve("inner"));
+        Path world = Files.createDirectory(directory.resolve("world"));
+        BlacklistMatcher matcher = new BlacklistMatcher(List.of(), backups.toString());
+
+        assertTrue(matcher.isBackupFolder(backups.toFile(), Files.readAttributes(backups, BasicFileAttributes.class)));
+        assertTrue(matcher.isBackupFolder(inner.toFile(), null));
+        assertFalse(matcher.isBackupFolder(world.toFile(), Files.readAttributes(world, BasicFileAttributes.class)));
+    }
+}
@@ -0,0 +1,111 @@
+package windsor.sevenzipbackup.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContentDefinedChunkerTest {
+    private static byte[] randomData(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static List<byte[]> chunks(InputStream in) throws IOException {
+        ContentDefinedChunker chunker = new ContentDefinedChunker(in);
+        List<byte[]> chunks = new ArrayList<>();
+        int length;
+        while ((length = chunker.next()) >= 0) {
+            chunks.add(Arrays.copyOfRange(chunker.buffer(), chunker.offset(), chunker.offset() + length));
+        }
+        return chunks;
+    }
+
+    private static Set<ByteBuffer> chunkSet(List<byte[]> chunks) {
+        Set<ByteBuffer> set = new HashSet<>();
+        for (byte[] chunk : chunks) {
+            set.add(ByteBuffer.wrap(chunk));
+        }
+        return set;
+    }
+
+    @Test
+    void chunksReassembleInputWithinSizeBounds() throws IOException {
+        byte[] data = randomData(8 * 1024 * 1024 + 12345, 1);
+        List<byte[]> chunks = chunks(new ByteArrayInputStream(data));
+
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (int i = 0; i < chunks.size(); i++) {
+            int length = chunks.get(i).length;
+            assertTrue(length <= ContentDefinedChunker.MAX_SIZE);
+            if (i < chunks.size() - 1) {
+                assertTrue(length >= ContentDefinedChunker.MIN_SIZE);
+            }
+            joined.write(chunks.get(i));
+        }
+        assertArrayEquals(data, joined.toByteArray());
+        // 平均块长度应接近 AVERAGE_SIZE
+        int average = data.length / chunks.size();
+        assertTrue(average > ContentDefinedChunker.AVERAGE_SIZE / 2 && average < ContentDefinedChunker.AVERAGE_SIZE * 2);
+    }
+
+    @Test
+    void smallInputIsSingleChunk() throws IOException {
+        byte[] data = randomData(1000, 2);
+        List<byte[]> chunks = chunks(new ByteArrayInputStream(data));
+        assertEquals(1, chunks.size());
+        assertArrayEquals(data, chunks.get(0));
+        assertTrue(chunks(new ByteArrayInputStream(new byte[0])).isEmpty());
+    }
+
+    @Test
+    void boundariesDoNotDependOnReadSizes() throws IOException {
+        byte[] data = randomData(4 * 1024 * 1024, 3);
+        InputStream trickle = new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 4093));
+            }
+        };
+        List<byte[]> whole = chunks(new ByteArrayInputStream(data));
+        List<byte[]> partial = chunks(trickle);
+        assertEquals(whole.size(), partial.size());
+        for (int i = 0; i < whole.size(); i++) {
+            assertArrayEquals(whole.get(i), partial.get(i));
+        }
+    }
+
+    @Test
+    void insertionOnlyChangesNearbyChunks() throws IOException {
+        byte[] data = randomData(8 * 1024 * 1024, 4);
+        int insertAt = data.length / 2;
+        byte[] inserted = randomData(777, 5);
+        byte[] edited = new byte[data.length + inserted.length];
+        System.arraycopy(data, 0, edited, 0, insertAt);
+        System.arraycopy(inserted, 0, edited, insertAt, inserted.length);
+        System.arraycopy(data, insertAt, edited, insertAt + inserted.length, data.length - insertAt);
+
+        List<byte[]> before = chunks(new ByteArrayInputStream(data));
+        Set<ByteBuffer> after = chunkSet(chunks(new ByteArrayInputStream(edited)));
+        int changed = 0;
+        for (byte[] chunk : before) {
+            if (!after.contains(ByteBuffer.wrap(chunk))) changed++;
+        }
+        // 插入点前后的块边界会重新同步，只有插入点附近的块改变
+        assertTrue(changed <= 2, "changed chunks: " + changed);
+    }
+}
@@ -0,0 +1,99 @@
+package windsor.sevenzipbackup.util;
+
+import org.junit.jupiter.api.Test;
+import windsor.sevenzipbackup.util.FileUtil.BackupFileList;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileListArenaTest {
+    private static String path(int i) {
+        // 同一目录下连续的文件共享前缀，偶尔出现很长的路径与非 ASCII 字符
+        String name = i % 1000 == 0 ? "长路径-".repeat(50) + i : "file-" + i + ".dat";
+        return "world/region/" + (i / 100) + "/" + name;
+    }
+
+    private static FileListArena fill(long heapLimit, int count) {
+        FileListArena arena = new FileListArena(heapLimit);
+        for (int i = 0; i < count; i++) {
+            arena.append(path(i), i * 3L, i * 7L, i);
+        }
+        return arena;
+    }
+
+    @Test
+    void entriesReadBackInAnyOrder() {
+        int count = 50_000;
+        FileListArena arena = fill(1 << 20, count);
+        assertEquals(count, arena.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(path(i), arena.getPath(i));
+            assertEquals(i * 3L, arena.getSize(i));
+            assertEquals(i * 7L, arena.getLastModified(i));
+            assertEquals(i, arena.getFileKey(i));
+        }
+        for (int i = count - 1; i >= 0; i -= 37) {
+            assertEquals(path(i), arena.getPath(i));
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> arena.getPath(count));
+    }
+
+    @Test
+    void pagesBeyondHeapLimitSpillToTempFile() {
+        int count = 200_000;
+        FileListArena arena = fill(1 << 20, count);
+        assertEquals(1 << 20, arena.getMemoryUsage());
+        assertTrue(arena.getSpilledBytes() > 0);
+        for (int i = 0; i < count; i += 101) {
+            assertEquals(path(i), arena.getPath(i));
+            assertEquals(i, arena.getFileKey(i));
+        }
+        assertEquals(path(count - 1), arena.getPath(count - 1));
+
+        FileListArena unbounded = fill(Long.MAX_VALUE, count);
+        assertEquals(0, unbounded.getSpilledBytes());
+    }
+
+    @Test
+    void attributesCanBeUpdatedInPlace() {
+        FileListArena arena = fill(1 << 20, 100);
+        arena.setAttributes(42, 1, 2, 3);
+        assertEquals(1, arena.getSize(42));
+        assertEquals(2, arena.getLastModified(42));
+        assertEquals(3, arena.getFileKey(42));
+        assertEquals(path(42), arena.getPath(42));
+        assertEquals(path(43), arena.getPath(43));
+    }
+
+    @Test
+    void writePathsWritesSelectedLines() throws IOException {
+        FileListArena arena = fill(1 << 20, 100);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        arena.writePaths(out, i -> i % 10 == 0);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i += 10) {
+            expected.append(path(i)).append('\n');
+        }
+        assertEquals(expected.toString(), out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void sharedListSeesTheSameEntries() {
+        BackupFileList list = new BackupFileList(fill(1 << 20, 1000), null);
+        BackupFileList view = list.share();
+        assertEquals(1000, view.size());
+        list.updateAttributes(5, 9, 9, 9);
+        assertEquals(9, view.getSize(5));
+        assertEquals(path(999), view.getPath(999));
+        long total = 0;
+        for (int i = 0; i < 1000; i++) {
+            total += list.getSize(i);
+        }
+        assertEquals(total, view.getTotalSize());
+    }
+}
@@ -0,0 +1,168 @@
+package windsor.sevenzipbackup.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import windsor.sevenzipbackup.util.FileUtil.BackupFileList;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScanManifestTest {
+    @TempDir
+    Path directory;
+
+    private static BackupFileList newList() {
+        return new BackupFileList(new FileListArena(1 << 20), null);
+    }
+
+    private static BackupFileList sampleList() {
+        BackupFileList list = newList();
+        list.appendToList("level.dat", 1024, 1000, 1);
+        list.appendToList("region/r.0.0.mca", 4096, 2000, 2);
+        list.appendToList("region/r.0.1.mca", 8192, 3000, 3);
+        list.appendToList("数据/玩家.dat", 512, 4000, 4);
+        return list;
+    }
+
+    @Test
+    void roundTripHasNoDifferences() throws IOException {
+        Path file = directory.resolve(ScanManifest.FILE_NAME);
+        BackupFileList list = sampleList();
+        ScanManifest.write(file, list, 3);
+
+        ScanManifest manifest = ScanManifest.load(file);
+        assertNotNull(manifest);
+        assertEquals(4, manifest.size());
+        assertEquals(3, manifest.getChainPosition());
+        assertTrue(manifest.getCreatedAt() > 0);
+
+        ScanManifest.Diff diff = manifest.diff(list);
+        assertTrue(diff.isEmpty());
+        assertEquals(4, diff.unchanged);
+        assertTrue(diff.changed.isEmpty());
+        assertFalse(Files.exists(file.resolveSibling(file.getFileName() + ".tmp")));
+    }
+
+    @Test
+    void diffReportsAddedModifiedAndDeleted() throws IOException {
+        Path file = directory.resolve(ScanManifest.FILE_NAME);
+        ScanManifest.write(file, sampleList(), 0);
+
+        BackupFileList current = newList();
+        current.appendToList("level.dat", 1024, 1000, 1);
+        current.appendToList("region/r.0.0.mca", 4096, 2500, 2);
+        current.appendToList("region/r.0.1.mca", 8192, 3000, 5);
+        current.appendToList("region/r.1.0.mca", 4096, 5000, 6);
+
+        ScanManifest.Diff diff = ScanManifest.load(file).diff(current);
+        assertEquals(1, diff.added);
+        assertEquals(2, diff.modified);
+        assertEquals(1, diff.unchanged);
+        assertEquals(List.of("数据/玩家.dat"), diff.deleted);
+        assertFalse(diff.changed.get(0));
+        assertTrue(diff.changed.get(1));
+        assertTrue(diff.changed.get(2));
+        assertTrue(diff.changed.get(3));
+    }
+
+    @Test
+    void hashCollisionIsTreatedAsNewFile() throws IOException {
+        Path file = directory.resolve(ScanManifest.FILE_NAME);
+        BackupFileList list = newList();
+        list.appendToList("a.dat", 1, 1, 1);
+        list.appendToList("c.dat", 2, 2, 2);
+        ScanManifest.write(file, list, 0);
+        // 保留 a.dat 的哈希而把存储的路径改为 b.dat，模拟两个路径的哈希冲突
+        byte[] bytes = Files.readAllBytes(file);
+        byte[] stored = "a.dat".getBytes(StandardCharsets.UTF_8);
+        int position = indexOf(bytes, stored);
+        bytes[position] = 'b';
+        Files.write(file, bytes);
+
+        ScanManifest.Diff diff = ScanManifest.load(file).diff(list);
+        assertEquals(1, diff.added);
+        assertEquals(1, diff.unchanged);
+        assertEquals(List.of("b.dat"), diff.deleted);
+        assertTrue(diff.changed.get(0));
+        assertFalse(diff.changed.get(1));
+    }
+
+    private static int indexOf(byte[] bytes, byte[] target) {
+        for (int i = bytes.length - target.length; i >= 0; i--) {
+            if (Arrays.equals(bytes, i, i + target.length, target, 0, target.length)) {
+                return i;
+            }
+        }
+        throw new AssertionError("not found");
+    }
+
+    @Test
+    void emptyListRoundTrips() throws IOException {
+        Path file = directory.resolve(ScanManifest.FILE_NAME);
+        ScanManifest.write(file, newList(), 0);
+
+        ScanManifest manifest = ScanManifest.load(file);
+        assertNotNull(manifest);
+        assertEquals(0, manifest.size());
+        ScanManifest.Diff diff = manifest.diff(sampleList());
+        assertEquals(4, diff.added);
+        assertEquals(4, diff.changed.cardinality());
+        assertTrue(diff.deleted.isEmpty());
+    }
+
+    @Test
+    void largeListSpillsSortKeysAndRoundTrips() throws IOException {
+        // 超过 1 MiB 的排序键（约 87k 个条目）映射到临时文件
+        int count = 100_000;
+        BackupFileList list = newList();
+        for (int i = 0; i < count; i++) {
+            list.appendToList("region/" + (i % 97) + "/file-" + i + ".dat", i, i * 10L, i);
+        }
+        Path file = directory.resolve(ScanManifest.FILE_NAME);
+        ScanManifest.write(file, list, 1);
+
+        ScanManifest manifest = ScanManifest.load(file);
+        assertNotNull(manifest);
+        assertEquals(count, manifest.size());
+        assertTrue(manifest.diff(list).isEmpty());
+
+        BackupFileList shrunk = newList();
+        for (int i = 0; i < count; i += 2) {
+            shrunk.appendToList(list.getPath(i), list.getSize(i), list.getLastModified(i), list.getFileKey(i));
+        }
+        ScanManifest.Diff diff = manifest.diff(shrunk);
+        assertEquals(count / 2, diff.unchanged);
+        assertEquals(count / 2, diff.deleted.size());
+        Set<String> deleted = new HashSet<>(diff.deleted);
+        for (int i = 1; i < count; i += 2) {
+            assertTrue(deleted.contains(list.getPath(i)));
+        }
+    }
+
+    @Test
+    void missingOrCorruptManifestLoadsAsNull() throws IOException {
+        assertNull(ScanManifest.load(directory.resolve("missing")));
+
+        Path corrupt = directory.resolve("corrupt");
+        Files.write(corrupt, new byte[64]);
+        assertNull(ScanManifest.load(corrupt));
+
+        Path truncated = directory.resolve(ScanManifest.FILE_NAME);
+        ScanManifest.write(truncated, sampleList(), 0);
+        byte[] bytes = Files.readAllBytes(truncated);
+        Files.write(truncated, Arrays.copyOf(bytes, 40));
+        assertNull(ScanManifest.load(truncated));
+    }
+}